@@ -0,0 +1,617 @@
+package com.example.forwarding.data_model;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.example.forwarding.event.DigestFormatter;
+import com.example.forwarding.event.IncomingMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Durable queue of outbound forwards.
+ *
+ * Every (message, recipient) pair is a job row that survives process death and reboots. A job is
+ * PENDING until it is claimed for sending, SENDING until every part has been reported sent, and
+ * goes back to PENDING with an exponential backoff when a part fails. The queue is bounded:
+ * {@link #enqueue} refuses new jobs once {@link #MAX_QUEUED_JOBS} are waiting.
+ *
+ * Forwards of rules in digest mode are first kept as digest entries, per recipient, until
+ * {@link #flushDigests} turns them into a single digest message and job.
+ *
+ * Parts of a concatenated SMS still waiting for the rest of their message are kept too, so they
+ * are not lost with the process; see {@link #saveParts}.
+ */
+public final class Outbox extends SQLiteOpenHelper {
+
+    public static final int STATE_PENDING = 0;
+    public static final int STATE_SENDING = 1;
+    public static final int STATE_SENT    = 2;
+    public static final int STATE_FAILED  = 3;
+
+    public static final int MAX_QUEUED_JOBS = 10_000;
+    public static final int MAX_ATTEMPTS = 6;
+    public static final int MAX_DIGEST_ENTRIES = 10_000;
+
+    // Earliest next attempt; the retry alarm may fire later when exact alarms are not allowed
+    private static final long BACKOFF_BASE_MILLIS = 30_000L;
+    private static final long BACKOFF_MAX_MILLIS = 60 * 60_000L;
+
+    // A SENDING job whose callbacks never arrived (e.g. the process died) is retried after this
+    private static final long SENDING_TIMEOUT_MILLIS = 10 * 60_000L;
+
+    // Finished jobs are kept this long so they can still be inspected
+    private static final long HISTORY_MILLIS = 7 * 24 * 60 * 60_000L;
+
+    // Parts whose message was never handed out (e.g. its deletion was lost) are dropped after this
+    private static final long PART_MAX_AGE_MILLIS = 24 * 60 * 60_000L;
+
+    private static final String DATABASE_NAME = "outbox.db";
+    private static final int DATABASE_VERSION = 3;
+
+    private static volatile Outbox instance;
+
+    public static Outbox get(Context context) {
+        Outbox outbox = instance;
+        if (outbox == null) {
+            synchronized (Outbox.class) {
+                outbox = instance;
+                if (outbox == null) {
+                    outbox = new Outbox(context.getApplicationContext());
+                    instance = outbox;
+                }
+            }
+        }
+        return outbox;
+    }
+
+    private Outbox(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE message ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "sender TEXT NOT NULL,"
+                + "sender_name TEXT,"
+                + "body TEXT NOT NULL,"
+                + "received_at INTEGER NOT NULL)");
+
+        db.execSQL("CREATE TABLE job ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "message_id INTEGER NOT NULL REFERENCES message(_id) ON DELETE CASCADE,"
+                + "recipient TEXT NOT NULL,"
+                + "state INTEGER NOT NULL,"
+                + "attempts INTEGER NOT NULL DEFAULT 0,"
+                + "next_attempt_at INTEGER NOT NULL,"
+                + "parts_total INTEGER NOT NULL DEFAULT 0,"
+                + "parts_sent INTEGER NOT NULL DEFAULT 0,"
+                + "parts_delivered INTEGER NOT NULL DEFAULT 0,"
+                + "last_error INTEGER NOT NULL DEFAULT 0,"
+                + "updated_at INTEGER NOT NULL)");
+
+        db.execSQL("CREATE INDEX job_due ON job(state, next_attempt_at)");
+
+        createDigests(db);
+        createParts(db);
+    }
+
+    // Version 2: digest messages and buffered digest entries
+    private static void createDigests(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE message ADD COLUMN digest INTEGER NOT NULL DEFAULT 0");
+
+        db.execSQL("CREATE TABLE digest_entry ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + "recipient TEXT NOT NULL,"
+                + "sender TEXT NOT NULL,"
+                + "body TEXT NOT NULL,"
+                + "received_at INTEGER NOT NULL,"
+                + "flush_at INTEGER NOT NULL)");
+
+        db.execSQL("CREATE INDEX digest_entry_recipient ON digest_entry(recipient, flush_at)");
+    }
+
+    // Version 3: parts of concatenated SMS waiting for the rest of their message
+    private static void createParts(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE sms_part ("
+                + "sender TEXT NOT NULL,"
+                + "reference INTEGER NOT NULL,"
+                + "count INTEGER NOT NULL,"
+                + "sequence INTEGER NOT NULL,"
+                + "body TEXT NOT NULL,"
+                + "received_at INTEGER NOT NULL,"
+                + "PRIMARY KEY (sender, reference, count, sequence))");
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.execSQL("PRAGMA foreign_keys = ON");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createDigests(db);
+        }
+        if (oldVersion < 3) {
+            createParts(db);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Jobs
+    // ---------------------------------------------------------------------------------------------
+
+    public static final class Job {
+        public final long id;
+        public final long messageId;
+        public final String recipient;
+        public final String sender;
+        public final String senderName;
+        public final String body;
+        public final long receivedAt;
+        public final boolean digest; // body is a finished digest text, sent without a preface
+        public final int attempt; // 1-based number of the attempt this job was claimed for
+
+        Job(
+                long id,
+                long messageId,
+                String recipient,
+                String sender,
+                String senderName,
+                String body,
+                long receivedAt,
+                boolean digest,
+                int attempt
+        ) {
+            this.id = id;
+            this.messageId = messageId;
+            this.recipient = recipient;
+            this.sender = sender;
+            this.senderName = senderName;
+            this.body = body;
+            this.receivedAt = receivedAt;
+            this.digest = digest;
+            this.attempt = attempt;
+        }
+    }
+
+    public static final class Stats {
+        public final int pending;
+        public final int sending;
+        public final int sent;
+        public final int failed;
+
+        Stats(int pending, int sending, int sent, int failed) {
+            this.pending = pending;
+            this.sending = sending;
+            this.sent = sent;
+            this.failed = failed;
+        }
+
+        @Override
+        public String toString() {
+            return "pending=" + pending + " sending=" + sending + " sent=" + sent + " failed=" + failed;
+        }
+    }
+
+    /**
+     * Records one job per recipient for a received message.
+     *
+     * @return false when the queue is full and nothing was recorded
+     */
+    public synchronized boolean enqueue(
+            String sender,
+            String senderName,
+            String body,
+            long receivedAt,
+            List<String> recipients
+    ) {
+        SQLiteDatabase db = getWritableDatabase();
+
+        if (countQueued(db) + recipients.size() > MAX_QUEUED_JOBS) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            ContentValues message = new ContentValues(4);
+            message.put("sender", sender);
+            message.put("sender_name", senderName);
+            message.put("body", body);
+            message.put("received_at", receivedAt);
+            long messageId = db.insertOrThrow("message", null, message);
+
+            for (String recipient : recipients) {
+                ContentValues job = new ContentValues(5);
+                job.put("message_id", messageId);
+                job.put("recipient", recipient);
+                job.put("state", STATE_PENDING);
+                job.put("next_attempt_at", now);
+                job.put("updated_at", now);
+                db.insertOrThrow("job", null, job);
+            }
+
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Claims up to {@code limit} jobs that are due, marking them SENDING. A SENDING job whose
+     * timeout has expired is claimed again as a new attempt.
+     */
+    public synchronized List<Job> claimDue(long now, int limit) {
+        SQLiteDatabase db = getWritableDatabase();
+        ArrayList<Job> jobs = new ArrayList<>();
+
+        db.beginTransaction();
+        try {
+            try (Cursor cursor = db.rawQuery(
+                    "SELECT job._id, job.message_id, job.recipient,"
+                            + " message.sender, message.sender_name, message.body, message.received_at,"
+                            + " message.digest, job.attempts"
+                            + " FROM job JOIN message ON message._id = job.message_id"
+                            + " WHERE job.state IN (" + STATE_PENDING + "," + STATE_SENDING + ")"
+                            + " AND job.next_attempt_at <= ?"
+                            + " ORDER BY job.next_attempt_at, job._id LIMIT " + limit,
+                    new String[] { Long.toString(now) })) {
+
+                while (cursor.moveToNext()) {
+                    jobs.add(new Job(
+                            cursor.getLong(0),
+                            cursor.getLong(1),
+                            cursor.getString(2),
+                            cursor.getString(3),
+                            cursor.getString(4),
+                            cursor.getString(5),
+                            cursor.getLong(6),
+                            cursor.getInt(7) != 0,
+                            cursor.getInt(8) + 1
+                    ));
+                }
+            }
+
+            for (Job job : jobs) {
+                if (job.attempt > MAX_ATTEMPTS) {
+                    setState(db, job.id, STATE_FAILED, now);
+                    continue;
+                }
+                ContentValues values = new ContentValues(6);
+                values.put("state", STATE_SENDING);
+                values.put("attempts", job.attempt);
+                values.put("next_attempt_at", now + SENDING_TIMEOUT_MILLIS);
+                values.put("parts_sent", 0);
+                values.put("parts_total", 0);
+                values.put("updated_at", now);
+                db.update("job", values, "_id = ?", new String[] { Long.toString(job.id) });
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        ArrayList<Job> claimed = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            if (job.attempt <= MAX_ATTEMPTS) claimed.add(job);
+        }
+        return claimed;
+    }
+
+    /** Records how many parts the claimed attempt was split into. */
+    public synchronized void setPartCount(long jobId, int attempt, int parts) {
+        ContentValues values = new ContentValues(1);
+        values.put("parts_total", parts);
+        getWritableDatabase().update("job", values, currentAttempt(), attemptArgs(jobId, attempt));
+    }
+
+    /**
+     * Puts a claimed job back without counting the attempt, e.g. because the send rate limit
+     * has been reached.
+     */
+    public synchronized void defer(long jobId, int attempt, long until) {
+        ContentValues values = new ContentValues(4);
+        values.put("state", STATE_PENDING);
+        values.put("attempts", attempt - 1);
+        values.put("next_attempt_at", until);
+        values.put("updated_at", System.currentTimeMillis());
+        getWritableDatabase().update("job", values, currentAttempt(), attemptArgs(jobId, attempt));
+    }
+
+    /** A part of the given attempt was handed to the network. */
+    public synchronized void onPartSent(long jobId, int attempt) {
+        getWritableDatabase().execSQL(
+                "UPDATE job SET parts_sent = parts_sent + 1,"
+                        + " state = CASE WHEN parts_sent + 1 >= parts_total THEN " + STATE_SENT + " ELSE state END,"
+                        + " updated_at = ?"
+                        + " WHERE " + currentAttempt(),
+                new Object[] { System.currentTimeMillis(), jobId, attempt }
+        );
+    }
+
+    /** A part of the given attempt failed; the job is retried with backoff or given up. */
+    public synchronized void onPartFailed(long jobId, int attempt, int errorCode, boolean permanent, long now) {
+        ContentValues values = new ContentValues(4);
+        if (permanent || attempt >= MAX_ATTEMPTS) {
+            values.put("state", STATE_FAILED);
+        } else {
+            values.put("state", STATE_PENDING);
+            values.put("next_attempt_at", now + backoffMillis(attempt));
+        }
+        values.put("last_error", errorCode);
+        values.put("updated_at", now);
+        getWritableDatabase().update("job", values, currentAttempt(), attemptArgs(jobId, attempt));
+    }
+
+    public synchronized void onPartDelivered(long jobId) {
+        getWritableDatabase().execSQL(
+                "UPDATE job SET parts_delivered = parts_delivered + 1 WHERE _id = ?",
+                new Object[] { jobId }
+        );
+    }
+
+    /** Earliest time a queued job or buffered digest becomes due, or -1 when nothing is queued. */
+    public synchronized long nextDueAt() {
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT MIN(due) FROM ("
+                        + "SELECT MIN(next_attempt_at) AS due FROM job"
+                        + " WHERE state IN (" + STATE_PENDING + "," + STATE_SENDING + ")"
+                        + " UNION ALL SELECT MIN(flush_at) FROM digest_entry)",
+                null)) {
+            return (cursor.moveToFirst() && !cursor.isNull(0)) ? cursor.getLong(0) : -1;
+        }
+    }
+
+    public synchronized Stats getStats() {
+        int[] counts = new int[4];
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT state, COUNT(*) FROM job GROUP BY state", null)) {
+            while (cursor.moveToNext()) {
+                int state = cursor.getInt(0);
+                if (state >= 0 && state < counts.length) counts[state] = cursor.getInt(1);
+            }
+        }
+        return new Stats(counts[STATE_PENDING], counts[STATE_SENDING], counts[STATE_SENT], counts[STATE_FAILED]);
+    }
+
+    /** Drops finished jobs older than the history window, and messages no job refers to. */
+    public synchronized void prune(long now) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.delete("job", "state IN (" + STATE_SENT + "," + STATE_FAILED + ") AND updated_at < ?",
+                new String[] { Long.toString(now - HISTORY_MILLIS) });
+        db.delete("message", "NOT EXISTS (SELECT 1 FROM job WHERE job.message_id = message._id)", null);
+        db.delete("sms_part", "received_at < ?", new String[] { Long.toString(now - PART_MAX_AGE_MILLIS) });
+    }
+
+    static long backoffMillis(int attempt) {
+        long delay = BACKOFF_BASE_MILLIS << Math.min(attempt - 1, 16);
+        return Math.min(delay, BACKOFF_MAX_MILLIS);
+    }
+
+    private static int countQueued(SQLiteDatabase db) {
+        try (Cursor cursor = db.rawQuery(
+                "SELECT COUNT(*) FROM job WHERE state IN (" + STATE_PENDING + "," + STATE_SENDING + ")", null)) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    private static void setState(SQLiteDatabase db, long jobId, int state, long now) {
+        ContentValues values = new ContentValues(2);
+        values.put("state", state);
+        values.put("updated_at", now);
+        db.update("job", values, "_id = ?", new String[] { Long.toString(jobId) });
+    }
+
+    // Callbacks of an older attempt must not touch a job that has since been retried
+    private static String currentAttempt() {
+        return "_id = ? AND attempts = ? AND state = " + STATE_SENDING;
+    }
+
+    private static String[] attemptArgs(long jobId, int attempt) {
+        return new String[] { Long.toString(jobId), Integer.toString(attempt) };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Digests
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Buffers a received message for every recipient whose rule is in digest mode. A recipient's
+     * digest is due one window after its first buffered entry, or immediately once the entry
+     * count reaches the policy's maximum.
+     *
+     * @return false when the buffer is full and nothing was recorded
+     */
+    public synchronized boolean bufferDigest(
+            String sender,
+            String body,
+            long receivedAt,
+            Map<String, DigestPolicy> recipients,
+            long now
+    ) {
+        SQLiteDatabase db = getWritableDatabase();
+
+        if (countDigestEntries(db) + recipients.size() > MAX_DIGEST_ENTRIES) {
+            return false;
+        }
+
+        db.beginTransaction();
+        try {
+            for (Map.Entry<String, DigestPolicy> entry : recipients.entrySet()) {
+                String recipient = entry.getKey();
+                DigestPolicy policy = entry.getValue();
+
+                int buffered = 0;
+                long flushAt = now + policy.windowMillis();
+                try (Cursor cursor = db.rawQuery(
+                        "SELECT COUNT(*), MIN(flush_at) FROM digest_entry WHERE recipient = ?",
+                        new String[] { recipient })) {
+                    if (cursor.moveToFirst() && cursor.getInt(0) > 0) {
+                        buffered = cursor.getInt(0);
+                        flushAt = cursor.getLong(1);
+                    }
+                }
+
+                if (policy.maxMessages > 0 && buffered + 1 >= policy.maxMessages && flushAt > now) {
+                    flushAt = now;
+                    ContentValues due = new ContentValues(1);
+                    due.put("flush_at", now);
+                    db.update("digest_entry", due, "recipient = ?", new String[] { recipient });
+                }
+
+                ContentValues values = new ContentValues(5);
+                values.put("recipient", recipient);
+                values.put("sender", sender);
+                values.put("body", body);
+                values.put("received_at", receivedAt);
+                values.put("flush_at", flushAt);
+                db.insertOrThrow("digest_entry", null, values);
+            }
+
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Turns the buffered entries of every recipient whose digest is due into one digest message
+     * and job, in the same transaction that removes the entries.
+     *
+     * @return the number of digests queued
+     */
+    public synchronized int flushDigests(long now, DigestFormatter formatter) {
+        SQLiteDatabase db = getWritableDatabase();
+
+        ArrayList<String> due = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery(
+                "SELECT recipient FROM digest_entry GROUP BY recipient HAVING MIN(flush_at) <= ?",
+                new String[] { Long.toString(now) })) {
+            while (cursor.moveToNext()) {
+                due.add(cursor.getString(0));
+            }
+        }
+        if (due.isEmpty()) {
+            return 0;
+        }
+
+        db.beginTransaction();
+        try {
+            for (String recipient : due) {
+                String[] args = { recipient };
+                ArrayList<IncomingMessage> entries = new ArrayList<>();
+                try (Cursor cursor = db.rawQuery(
+                        "SELECT sender, body, received_at FROM digest_entry WHERE recipient = ? ORDER BY _id",
+                        args)) {
+                    while (cursor.moveToNext()) {
+                        entries.add(new IncomingMessage(cursor.getString(0), cursor.getString(1), cursor.getLong(2)));
+                    }
+                }
+
+                ContentValues message = new ContentValues(4);
+                message.put("sender", "");
+                message.put("body", formatter.format(entries));
+                message.put("received_at", now);
+                message.put("digest", 1);
+                long messageId = db.insertOrThrow("message", null, message);
+
+                ContentValues job = new ContentValues(5);
+                job.put("message_id", messageId);
+                job.put("recipient", recipient);
+                job.put("state", STATE_PENDING);
+                job.put("next_attempt_at", now);
+                job.put("updated_at", now);
+                db.insertOrThrow("job", null, job);
+
+                db.delete("digest_entry", "recipient = ?", args);
+            }
+
+            db.setTransactionSuccessful();
+            return due.size();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static int countDigestEntries(SQLiteDatabase db) {
+        try (Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM digest_entry", null)) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Parts of concatenated SMS
+    // ---------------------------------------------------------------------------------------------
+
+    public static final class Part {
+        public final String sender;
+        public final int reference;
+        public final int count;
+        public final int sequence; // 1-based
+        public final String body;
+        public final long receivedAt;
+
+        public Part(String sender, int reference, int count, int sequence, String body, long receivedAt) {
+            this.sender = sender;
+            this.reference = reference;
+            this.count = count;
+            this.sequence = sequence;
+            this.body = body;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    /** Keeps parts whose message is incomplete; a part that is already kept is left as it is. */
+    public synchronized void saveParts(List<Part> parts) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Part part : parts) {
+                ContentValues values = new ContentValues(6);
+                values.put("sender", part.sender);
+                values.put("reference", part.reference);
+                values.put("count", part.count);
+                values.put("sequence", part.sequence);
+                values.put("body", part.body);
+                values.put("received_at", part.receivedAt);
+                db.insertWithOnConflict("sms_part", null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** Forgets the parts of a message that has been handed on. */
+    public synchronized void deleteParts(String sender, int reference, int count) {
+        getWritableDatabase().delete("sms_part", "sender = ? AND reference = ? AND count = ?",
+                new String[] { sender, Integer.toString(reference), Integer.toString(count) });
+    }
+
+    /** Every kept part, oldest first. */
+    public synchronized ArrayList<Part> loadParts() {
+        ArrayList<Part> parts = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT sender, reference, count, sequence, body, received_at FROM sms_part"
+                        + " ORDER BY received_at, sequence",
+                null)) {
+            while (cursor.moveToNext()) {
+                parts.add(new Part(cursor.getString(0), cursor.getInt(1), cursor.getInt(2), cursor.getInt(3),
+                        cursor.getString(4), cursor.getLong(5)));
+            }
+        }
+        return parts;
+    }
+}
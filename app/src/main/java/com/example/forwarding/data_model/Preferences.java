@@ -2,12 +2,86 @@ package com.example.forwarding.data_model;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.telephony.TelephonyManager;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.example.forwarding.event.SmtpSink;
+import com.example.forwarding.event.SubscriptionBalancer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class Preferences {
+    private static final String TAG = "Preferences";
+
     private static final String PREFS_FILENAME = "PREFS";
     private static final String PREF_ENABLED   = "ENABLED";
-    private static final String PREF_LISTITEMS = "LISTITEMS";
+    private static final String PREF_LISTITEMS = "LISTITEMS"; // legacy JSON rules, migrated to RULES_FILENAME
+    private static final String PREF_COMPACT_PREFACE = "COMPACT_PREFACE";
+    private static final String PREF_DUPLICATE_WINDOW_SECONDS = "DUPLICATE_WINDOW_SECONDS";
+    private static final String PREF_FOLD_DIACRITICS = "FOLD_DIACRITICS";
+    private static final String PREF_COUNTRY_CODE = "COUNTRY_CODE";
+    private static final String PREF_SIM_STRATEGY = "SIM_STRATEGY";
+    private static final String PREF_RULE_ORDER = "RULE_ORDER";
+    private static final String PREF_GATEWAY_MODE = "GATEWAY_MODE";
+    private static final String PREF_PHONE_STATE_DECLINED = "PHONE_STATE_DECLINED";
+
+    // Mail server for mailto: recipients. The password is kept in this app-private file like
+    // every other setting, so use an app password rather than the account's own.
+    private static final String PREF_SMTP_HOST     = "SMTP_HOST";
+    private static final String PREF_SMTP_PORT     = "SMTP_PORT";
+    private static final String PREF_SMTP_SECURITY = "SMTP_SECURITY";
+    private static final String PREF_SMTP_USERNAME = "SMTP_USERNAME";
+    private static final String PREF_SMTP_PASSWORD = "SMTP_PASSWORD";
+    private static final String PREF_SMTP_FROM     = "SMTP_FROM";
+
+    private static final String RULES_FILENAME = "rules.bin";
+    private static final String RULES_LOG_FILENAME = "rules.log"; // edits since rules.bin was written
+
+    // The change log is folded into the rule file after this many edits
+    private static final int COMPACT_AFTER_CHANGES = 64;
+
+    // Recipient groups, rewritten whole on every edit
+    private static final String GROUPS_FILENAME = "groups.bin";
+
+    // Per-rule hit counts, written at most this often while messages come in
+    private static final String RULE_STATS_FILENAME = "rule_stats.bin";
+    private static final long RULE_STATS_SAVE_INTERVAL_MILLIS = 10 * 60_000L;
+
+    // Outbound pacing, as "count segments per window minutes". The per-subscription default is
+    // the platform's own premium-SMS check (30 messages in 30 minutes); gateway devices that
+    // raised sms_outgoing_check_max_count should raise it here too.
+    private static final String PREF_SUBSCRIPTION_RATE_COUNT   = "SUBSCRIPTION_RATE_COUNT";
+    private static final String PREF_SUBSCRIPTION_RATE_MINUTES = "SUBSCRIPTION_RATE_MINUTES";
+    private static final String PREF_DESTINATION_RATE_COUNT    = "DESTINATION_RATE_COUNT";
+    private static final String PREF_DESTINATION_RATE_MINUTES  = "DESTINATION_RATE_MINUTES";
+
+    // Parsed and compiled rules, shared by the whole process. Readers only do a volatile read;
+    // the holder is replaced whenever the rules are saved.
+    private static volatile RuleCache ruleCache;
+
+    // Rule file writes leave the caller's thread but stay in order. A rule or group change is
+    // written here first and only then becomes the cached rules, and the caller waits for it, so
+    // an edit reported as saved is on disk and a failed write changes nothing.
+    private static final ExecutorService DISK_WRITER = Executors.newSingleThreadExecutor();
+
+    private static long nextRuleId = 1; // guarded by Preferences.class, valid once rules are loaded
+
+    private static volatile RuleStats ruleStats;
+    private static final AtomicLong ruleStatsSavedAt = new AtomicLong();
+    private static int loggedChanges;   // records in the change log, DISK_WRITER only
 
     public static boolean isEnabled(Context context) {
         SharedPreferences sharedPreferences = context.getSharedPreferences(PREFS_FILENAME, Context.MODE_PRIVATE);
@@ -21,22 +95,641 @@ public final class Preferences {
         prefs_editor.apply();
     }
 
+    /** Whether a forward may use the one-line preface when that saves an SMS segment. */
+    public static boolean isCompactPreface(Context context) {
+        return getPrefs(context).getBoolean(PREF_COMPACT_PREFACE, true);
+    }
+
+    public static void setCompactPreface(Context context, boolean compact) {
+        SharedPreferences.Editor prefs_editor = getPrefs(context).edit();
+        prefs_editor.putBoolean(PREF_COMPACT_PREFACE, compact);
+        prefs_editor.apply();
+    }
+
+    /** How long an identical (sender, body, recipient) forward is suppressed; 0 disables it. */
+    public static int getDuplicateWindowSeconds(Context context) {
+        return getPrefs(context).getInt(PREF_DUPLICATE_WINDOW_SECONDS, 300);
+    }
+
+    public static void setDuplicateWindowSeconds(Context context, int seconds) {
+        SharedPreferences.Editor prefs_editor = getPrefs(context).edit();
+        prefs_editor.putInt(PREF_DUPLICATE_WINDOW_SECONDS, seconds);
+        prefs_editor.apply();
+    }
+
+    /** Whether keywords and senders match regardless of accents and vowel points. */
+    public static boolean isFoldDiacritics(Context context) {
+        return getPrefs(context).getBoolean(PREF_FOLD_DIACRITICS, false);
+    }
+
+    public static void setFoldDiacritics(Context context, boolean fold) {
+        SharedPreferences.Editor prefs_editor = getPrefs(context).edit();
+        prefs_editor.putBoolean(PREF_FOLD_DIACRITICS, fold);
+        prefs_editor.apply();
+
+        recompileRules(context);
+    }
+
+    /**
+     * Calling code for national numbers in rules and senders, e.g. 91. Defaults to the SIM's
+     * country; 0 means unknown, and then only international numbers are compared as numbers.
+     */
+    public static int getCountryCode(Context context) {
+        int countryCode = getPrefs(context).getInt(PREF_COUNTRY_CODE, 0);
+        if (countryCode > 0) {
+            return countryCode;
+        }
+
+        TelephonyManager telephony = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        return telephony == null ? 0 : PhoneNumbers.callingCode(telephony.getSimCountryIso());
+    }
+
+    public static void setCountryCode(Context context, int countryCode) {
+        SharedPreferences.Editor prefs_editor = getPrefs(context).edit();
+        prefs_editor.putInt(PREF_COUNTRY_CODE, countryCode);
+        prefs_editor.apply();
+
+        recompileRules(context);
+    }
+
+    /** How forwards are spread over the SIMs of a multi-SIM device (rules can still pin one). */
+    public static SubscriptionBalancer.Strategy getSimStrategy(Context context) {
+        String name = getPrefs(context).getString(PREF_SIM_STRATEGY, null);
+        if (name != null) {
+            for (SubscriptionBalancer.Strategy strategy : SubscriptionBalancer.Strategy.values()) {
+                if (strategy.name().equals(name)) return strategy;
+            }
+        }
+        return SubscriptionBalancer.Strategy.ROUND_ROBIN;
+    }
+
+    public static void setSimStrategy(Context context, SubscriptionBalancer.Strategy strategy) {
+        SharedPreferences.Editor prefs_editor = getPrefs(context).edit();
+        prefs_editor.putString(PREF_SIM_STRATEGY, strategy.name());
+        prefs_editor.apply();
+    }
+
+    /** Whether the foreground service keeps the app running (see ForwardingService). */
+    public static boolean isGatewayMode(Context context) {
+        return getPrefs(context).getBoolean(PREF_GATEWAY_MODE, false);
+    }
+
+    public static void setGatewayMode(Context context, boolean enabled) {
+        SharedPreferences.Editor prefs_editor = getPrefs(context).edit();
+        prefs_editor.putBoolean(PREF_GATEWAY_MODE, enabled);
+        prefs_editor.apply();
+    }
+
+    /** Whether the user refused READ_PHONE_STATE, so it is not asked for on every launch. */
+    public static boolean isPhoneStateDeclined(Context context) {
+        return getPrefs(context).getBoolean(PREF_PHONE_STATE_DECLINED, false);
+    }
+
+    public static void setPhoneStateDeclined(Context context, boolean declined) {
+        SharedPreferences.Editor prefs_editor = getPrefs(context).edit();
+        prefs_editor.putBoolean(PREF_PHONE_STATE_DECLINED, declined);
+        prefs_editor.apply();
+    }
+
+    /** The order rules are evaluated in; the rules that fire are the same either way. */
+    public static RuleSet.Order getRuleOrder(Context context) {
+        String name = getPrefs(context).getString(PREF_RULE_ORDER, null);
+        if (name != null) {
+            for (RuleSet.Order order : RuleSet.Order.values()) {
+                if (order.name().equals(name)) return order;
+            }
+        }
+        return RuleSet.Order.LIST;
+    }
+
+    public static void setRuleOrder(Context context, RuleSet.Order order) {
+        SharedPreferences.Editor prefs_editor = getPrefs(context).edit();
+        prefs_editor.putString(PREF_RULE_ORDER, order.name());
+        prefs_editor.apply();
+
+        recompileRules(context);
+    }
+
+    /** The mail server mailto: recipients are sent through, or null when none is set up. */
+    public static SmtpSink.Config getSmtpConfig(Context context) {
+        SharedPreferences prefs = getPrefs(context);
+        String host = prefs.getString(PREF_SMTP_HOST, null);
+        String from = prefs.getString(PREF_SMTP_FROM, null);
+        if (host == null || host.isEmpty() || from == null || from.isEmpty()) {
+            return null;
+        }
+
+        SmtpSink.Security security = SmtpSink.Security.STARTTLS;
+        String name = prefs.getString(PREF_SMTP_SECURITY, null);
+        if (name != null) {
+            for (SmtpSink.Security value : SmtpSink.Security.values()) {
+                if (value.name().equals(name)) security = value;
+            }
+        }
+
+        return new SmtpSink.Config(
+                host,
+                prefs.getInt(PREF_SMTP_PORT, security == SmtpSink.Security.TLS ? 465 : 587),
+                security,
+                prefs.getString(PREF_SMTP_USERNAME, null),
+                prefs.getString(PREF_SMTP_PASSWORD, null),
+                from
+        );
+    }
+
+    /** @param config null to forget the mail server */
+    public static void setSmtpConfig(Context context, SmtpSink.Config config) {
+        SharedPreferences.Editor prefs_editor = getPrefs(context).edit();
+        if (config == null) {
+            prefs_editor.remove(PREF_SMTP_HOST);
+            prefs_editor.remove(PREF_SMTP_PORT);
+            prefs_editor.remove(PREF_SMTP_SECURITY);
+            prefs_editor.remove(PREF_SMTP_USERNAME);
+            prefs_editor.remove(PREF_SMTP_PASSWORD);
+            prefs_editor.remove(PREF_SMTP_FROM);
+        } else {
+            prefs_editor.putString(PREF_SMTP_HOST, config.host);
+            prefs_editor.putInt(PREF_SMTP_PORT, config.port);
+            prefs_editor.putString(PREF_SMTP_SECURITY, config.security.name());
+            prefs_editor.putString(PREF_SMTP_USERNAME, config.username);
+            prefs_editor.putString(PREF_SMTP_PASSWORD, config.password);
+            prefs_editor.putString(PREF_SMTP_FROM, config.from);
+        }
+        prefs_editor.apply();
+    }
+
+    public static int getSubscriptionRateCount(Context context) {
+        return getPrefs(context).getInt(PREF_SUBSCRIPTION_RATE_COUNT, 30);
+    }
+
+    public static int getSubscriptionRateMinutes(Context context) {
+        return getPrefs(context).getInt(PREF_SUBSCRIPTION_RATE_MINUTES, 30);
+    }
+
+    public static int getDestinationRateCount(Context context) {
+        return getPrefs(context).getInt(PREF_DESTINATION_RATE_COUNT, 10);
+    }
+
+    public static int getDestinationRateMinutes(Context context) {
+        return getPrefs(context).getInt(PREF_DESTINATION_RATE_MINUTES, 1);
+    }
+
+    public static void setSendRates(
+            Context context,
+            int subscriptionCount,
+            int subscriptionMinutes,
+            int destinationCount,
+            int destinationMinutes
+    ) {
+        SharedPreferences.Editor prefs_editor = getPrefs(context).edit();
+        prefs_editor.putInt(PREF_SUBSCRIPTION_RATE_COUNT, subscriptionCount);
+        prefs_editor.putInt(PREF_SUBSCRIPTION_RATE_MINUTES, subscriptionMinutes);
+        prefs_editor.putInt(PREF_DESTINATION_RATE_COUNT, destinationCount);
+        prefs_editor.putInt(PREF_DESTINATION_RATE_MINUTES, destinationMinutes);
+        prefs_editor.apply();
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_FILENAME, Context.MODE_PRIVATE);
+    }
+
+    /** Returns a private copy of the rules that the caller is free to edit. */
     public static ArrayList<RecipientListItem> getRecipientListItems(Context context) {
+        return copyOf(getRuleCache(context).items);
+    }
+
+    public static RuleSet getRuleSet(Context context) {
+        return getRuleCache(context).compiled();
+    }
+
+    /**
+     * Replaces every rule and rewrites the rule file; rules without an id are given one. Like
+     * every rule and group change, blocks until the change is on disk, so call it off the main
+     * thread.
+     *
+     * @return false if it could not be written; the rules are then left as they were
+     */
+    public static boolean setRecipientListItems(Context context, ArrayList<RecipientListItem> listItems) {
+        final File file = getRulesFile(context);
+        final File log = getRulesLogFile(context);
+
+        synchronized (Preferences.class) {
+            getRuleCache(context); // so ids are handed out after those already on disk
+            for (RecipientListItem item : listItems) {
+                if (item.id == 0) item.id = nextRuleId++;
+            }
+        }
+        final ArrayList<RecipientListItem> items = copyOf(listItems);
+
+        return awaitWrite(DISK_WRITER.submit(() -> {
+            if (!writeRulesFile(file, RuleCodec.encode(items))) return false;
+            deleteRulesLog(log);
+
+            RuleCache cache;
+            synchronized (Preferences.class) {
+                cache = newRuleCache(context, items, ruleCache.groups);
+                getRuleStats(context).retain(cache.items);
+                ruleCache = cache;
+            }
+            compileLater(cache);
+            return true;
+        }));
+    }
+
+    /** Adds one rule after the others and gives it an id; only that rule is written. */
+    public static boolean addRecipientListItem(Context context, RecipientListItem item) {
+        synchronized (Preferences.class) {
+            getRuleCache(context);
+            item.id = nextRuleId++;
+        }
+        return applyChange(context, RuleCodec.encodePut(item));
+    }
+
+    /** Saves an edited rule, matched by id; only that rule is written. */
+    public static boolean updateRecipientListItem(Context context, RecipientListItem item) {
+        if (item.id == 0) {
+            return addRecipientListItem(context, item);
+        }
+        return applyChange(context, RuleCodec.encodePut(item));
+    }
+
+    public static boolean removeRecipientListItem(Context context, long id) {
+        if (!applyChange(context, RuleCodec.encodeRemove(id))) return false;
+        getRuleStats(context).remove(id);
+        return true;
+    }
+
+    /** Returns a private copy of the recipient groups that the caller is free to edit. */
+    public static ArrayList<RecipientGroup> getRecipientGroups(Context context) {
+        ArrayList<RecipientGroup> groups = getRuleCache(context).groups;
+        ArrayList<RecipientGroup> copy = new ArrayList<>(groups.size());
+        for (RecipientGroup group : groups) {
+            copy.add(new RecipientGroup(group));
+        }
+        return copy;
+    }
+
+    /** Replaces every group; the rules that refer to them are compiled again. */
+    public static boolean setRecipientGroups(Context context, ArrayList<RecipientGroup> groups) {
+        final File file = new File(context.getFilesDir(), GROUPS_FILENAME);
+        final ArrayList<RecipientGroup> copy = new ArrayList<>(groups);
+        getRuleCache(context);
+
+        return awaitWrite(DISK_WRITER.submit(() -> {
+            if (!writeRulesFile(file, RuleCodec.encodeGroups(copy))) return false;
+
+            RuleCache cache;
+            synchronized (Preferences.class) {
+                cache = newRuleCache(context, ruleCache.items, copy);
+                ruleCache = cache;
+            }
+            compileLater(cache);
+            return true;
+        }));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Rule stats
+    // ---------------------------------------------------------------------------------------------
+
+    /** Hit counts of the rules, loaded from disk once and updated by every match. */
+    public static RuleStats getRuleStats(Context context) {
+        RuleStats stats = ruleStats;
+        if (stats != null) {
+            return stats;
+        }
+
+        synchronized (Preferences.class) {
+            stats = ruleStats;
+            if (stats == null) {
+                stats = readRuleStats(context);
+                ruleStats = stats;
+                ruleStatsSavedAt.set(System.currentTimeMillis());
+            }
+            return stats;
+        }
+    }
+
+    /** Saves the rule stats if they were not saved in the last few minutes. */
+    public static void saveRuleStatsLater(Context context) {
+        long now = System.currentTimeMillis();
+        long savedAt = ruleStatsSavedAt.get();
+        if (now - savedAt >= RULE_STATS_SAVE_INTERVAL_MILLIS && ruleStatsSavedAt.compareAndSet(savedAt, now)) {
+            saveRuleStats(context);
+        }
+    }
+
+    public static void resetRuleStats(Context context) {
+        getRuleStats(context).reset();
+        saveRuleStats(context);
+    }
+
+    private static void saveRuleStats(Context context) {
+        final RuleStats stats = getRuleStats(context);
+        final File file = new File(context.getFilesDir(), RULE_STATS_FILENAME);
+        DISK_WRITER.execute(() -> writeRulesFile(file, stats.encode()));
+    }
+
+    private static RuleStats readRuleStats(Context context) {
+        AtomicFile atomicFile = new AtomicFile(new File(context.getFilesDir(), RULE_STATS_FILENAME));
+
+        try {
+            return RuleStats.decode(ByteBuffer.wrap(atomicFile.readFully()));
+        } catch (FileNotFoundException e) {
+            return new RuleStats();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read " + RULE_STATS_FILENAME, e);
+            return new RuleStats();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Rule cache
+    // ---------------------------------------------------------------------------------------------
+
+    private static RuleCache getRuleCache(Context context) {
+        RuleCache cached = ruleCache;
+        if (cached != null) {
+            return cached;
+        }
+
+        synchronized (Preferences.class) {
+            cached = ruleCache;
+            if (cached == null) {
+                cached = newRuleCache(context, loadRules(context), readGroupsFile(context));
+                ruleCache = cached;
+            }
+            return cached;
+        }
+    }
+
+    // The compiled rules depend on the folding and country code, so recompile them if loaded.
+    // On the writer thread, so it cannot be overtaken by a rule change still being written.
+    private static void recompileRules(Context context) {
+        DISK_WRITER.execute(() -> {
+            RuleCache cache;
+            synchronized (Preferences.class) {
+                cache = ruleCache;
+                if (cache == null) return;
+                cache = newRuleCache(context, cache.items, cache.groups);
+                ruleCache = cache;
+            }
+            cache.compiled();
+        });
+    }
+
+    /**
+     * Appends one change log record, then applies it to the cached rules. The record is decoded
+     * the same way the log is replayed at start-up, so memory and disk cannot differ; the rule
+     * set is compiled again on the writer thread, not by the caller.
+     */
+    private static boolean applyChange(Context context, final byte[] record) {
+        final File file = getRulesFile(context);
+        final File log = getRulesLogFile(context);
+        getRuleCache(context);
+
+        return awaitWrite(DISK_WRITER.submit(() -> {
+            // Copy on write: readers may be iterating the current list
+            RuleCache current = ruleCache;
+            ArrayList<RecipientListItem> items = new ArrayList<>(current.items);
+            RuleCodec.applyChanges(ByteBuffer.wrap(record), items);
+
+            boolean written = appendRulesLog(log, record);
+            if (!written || ++loggedChanges >= COMPACT_AFTER_CHANGES) {
+                written = compactRules(file, log, items) || written;
+            }
+            if (!written) return false;
+
+            RuleCache cache;
+            synchronized (Preferences.class) {
+                cache = newRuleCache(context, items, current.groups);
+                ruleCache = cache;
+            }
+            compileLater(cache);
+            return true;
+        }));
+    }
+
+    // After the caller has been told the change is saved
+    private static void compileLater(RuleCache cache) {
+        DISK_WRITER.execute(cache::compiled);
+    }
+
+    private static boolean awaitWrite(Future<Boolean> write) {
+        try {
+            return write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Could not save the rules", e.getCause());
+            return false;
+        }
+    }
+
+    private static RuleCache newRuleCache(
+            Context context,
+            ArrayList<RecipientListItem> items,
+            ArrayList<RecipientGroup> groups
+    ) {
+        return new RuleCache(items, groups, getFolding(context), getCountryCode(context),
+                getRuleOrder(context), getRuleStats(context));
+    }
+
+    private static int getFolding(Context context) {
+        return RuleSet.DEFAULT_FOLDING | (isFoldDiacritics(context) ? RuleSet.FOLD_DIACRITICS : 0);
+    }
+
+    private static ArrayList<RecipientListItem> copyOf(ArrayList<RecipientListItem> items) {
+        ArrayList<RecipientListItem> copy = new ArrayList<>(items.size());
+        for (RecipientListItem item : items) {
+            copy.add(new RecipientListItem(item));
+        }
+        return copy;
+    }
+
+    private static final class RuleCache {
+        final ArrayList<RecipientListItem> items; // never handed out or changed, callers get copies
+        final ArrayList<RecipientGroup> groups;   // likewise
+        private final int folding;
+        private final int countryCode;
+        private final RuleSet.Order order;
+        private final RuleStats stats;
+        private volatile RuleSet compiled;
+
+        RuleCache(
+                ArrayList<RecipientListItem> items,
+                ArrayList<RecipientGroup> groups,
+                int folding,
+                int countryCode,
+                RuleSet.Order order,
+                RuleStats stats
+        ) {
+            this.items = items;
+            this.groups = groups;
+            this.folding = folding;
+            this.countryCode = countryCode;
+            this.order = order;
+            this.stats = stats;
+        }
+
+        // Compiled on first use, so a burst of edits compiles once
+        RuleSet compiled() {
+            RuleSet rules = compiled;
+            if (rules == null) {
+                synchronized (this) {
+                    rules = compiled;
+                    if (rules == null) {
+                        rules = RuleSet.compile(items, groups, folding, countryCode, stats, order);
+                        compiled = rules;
+                    }
+                }
+            }
+            return rules;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Rule file and change log
+    // ---------------------------------------------------------------------------------------------
+
+    private static File getRulesFile(Context context) {
+        return new File(context.getFilesDir(), RULES_FILENAME);
+    }
+
+    private static File getRulesLogFile(Context context) {
+        return new File(context.getFilesDir(), RULES_LOG_FILENAME);
+    }
+
+    // Caller holds the lock
+    private static ArrayList<RecipientListItem> loadRules(Context context) {
+        ArrayList<RecipientListItem> items = readRulesFile(context);
+
+        File log = getRulesLogFile(context);
+        if (log.exists()) {
+            try (FileInputStream in = new FileInputStream(log);
+                 FileChannel channel = in.getChannel()) {
+                int changes = RuleCodec.applyChanges(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), items);
+                DISK_WRITER.execute(() -> loggedChanges = changes);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not read " + RULES_LOG_FILENAME, e);
+            }
+        }
+
+        // Rules from before ids existed get theirs now, and are saved with them
+        boolean assigned = false;
+        for (RecipientListItem item : items) {
+            nextRuleId = Math.max(nextRuleId, item.id + 1);
+        }
+        for (RecipientListItem item : items) {
+            if (item.id == 0) {
+                item.id = nextRuleId++;
+                assigned = true;
+            }
+        }
+        if (assigned) {
+            final byte[] encoded = RuleCodec.encode(items);
+            final File file = getRulesFile(context);
+            DISK_WRITER.execute(() -> {
+                if (writeRulesFile(file, encoded)) deleteRulesLog(log);
+            });
+        }
+        return items;
+    }
+
+    private static ArrayList<RecipientListItem> readRulesFile(Context context) {
+        AtomicFile atomicFile = new AtomicFile(getRulesFile(context));
+
+        try (FileInputStream in = atomicFile.openRead();
+             FileChannel channel = in.getChannel()) {
+            return RuleCodec.decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (FileNotFoundException e) {
+            return migrateLegacyRules(context);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read " + RULES_FILENAME, e);
+            return new ArrayList<>();
+        }
+    }
+
+    private static ArrayList<RecipientGroup> readGroupsFile(Context context) {
+        AtomicFile atomicFile = new AtomicFile(new File(context.getFilesDir(), GROUPS_FILENAME));
+
+        try {
+            return RuleCodec.decodeGroups(ByteBuffer.wrap(atomicFile.readFully()));
+        } catch (FileNotFoundException e) {
+            return new ArrayList<>();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read " + GROUPS_FILENAME, e);
+            return new ArrayList<>();
+        }
+    }
+
+    // One-time import of the JSON list that older versions kept in PREFS
+    private static ArrayList<RecipientListItem> migrateLegacyRules(Context context) {
         SharedPreferences sharedPreferences = context.getSharedPreferences(PREFS_FILENAME, Context.MODE_PRIVATE);
         String json = sharedPreferences.getString(PREF_LISTITEMS, null);
+        if (json == null) {
+            return new ArrayList<>();
+        }
+
+        ArrayList<RecipientListItem> items = RecipientListItem.fromJson(json);
+        if (items == null) {
+            items = new ArrayList<>();
+        }
+        for (RecipientListItem item : items) {
+            item.id = nextRuleId++;
+        }
 
-        return (json == null)
-                ? new ArrayList<RecipientListItem>()
-                : RecipientListItem.fromJson(json)
-                ;
+        if (writeRulesFile(getRulesFile(context), RuleCodec.encode(items))) {
+            SharedPreferences.Editor prefs_editor = sharedPreferences.edit();
+            prefs_editor.remove(PREF_LISTITEMS);
+            prefs_editor.apply();
+        }
+        return items;
     }
 
-    public static void setRecipientListItems(Context context, ArrayList<RecipientListItem> listItems) {
-        String json = RecipientListItem.toJson(listItems);
+    // Writer thread only: folds the log into a new rule file holding {@code items}
+    private static boolean compactRules(File file, File log, ArrayList<RecipientListItem> items) {
+        if (!writeRulesFile(file, RuleCodec.encode(items))) return false;
+        deleteRulesLog(log);
+        return true;
+    }
 
-        SharedPreferences sharedPreferences = context.getSharedPreferences(PREFS_FILENAME, Context.MODE_PRIVATE);
-        SharedPreferences.Editor prefs_editor = sharedPreferences.edit();
-        prefs_editor.putString(PREF_LISTITEMS, json);
-        prefs_editor.apply();
+    // Writer thread only
+    private static boolean appendRulesLog(File log, byte[] record) {
+        try (FileOutputStream out = new FileOutputStream(log, true)) {
+            out.write(record);
+            out.getFD().sync();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not append to " + RULES_LOG_FILENAME, e);
+            return false;
+        }
+    }
+
+    // Writer thread only
+    private static void deleteRulesLog(File log) {
+        if (log.delete() || !log.exists()) {
+            loggedChanges = 0;
+        } else {
+            Log.e(TAG, "Could not delete " + RULES_LOG_FILENAME);
+        }
+    }
+
+    private static boolean writeRulesFile(File file, byte[] encoded) {
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream out = null;
+        try {
+            out = atomicFile.startWrite();
+            out.write(encoded);
+            atomicFile.finishWrite(out);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write " + file.getName(), e);
+            if (out != null) {
+                atomicFile.failWrite(out);
+            }
+            return false;
+        }
     }
 }
@@ -0,0 +1,98 @@
+package com.example.forwarding.event;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The app's {@link DuplicateWindow}, saved to disk shortly after it changes so the window still
+ * applies after the process is restarted.
+ */
+public final class DuplicateFilter extends DuplicateWindow {
+
+    private static final String TAG = "DuplicateFilter";
+
+    private static final String FILENAME = "dedup.bin";
+    private static final long SAVE_DELAY_SECONDS = 5;
+
+    private static volatile DuplicateFilter instance;
+
+    private static final ScheduledExecutorService SAVER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sms-dedup");
+        thread.setDaemon(true); // a pending save must not keep a unit test's JVM alive
+        return thread;
+    });
+
+    private final File file;
+    private boolean saveScheduled;
+
+    DuplicateFilter(File file) {
+        this.file = file;
+    }
+
+    public static DuplicateFilter get(Context context) {
+        DuplicateFilter filter = instance;
+        if (filter == null) {
+            synchronized (DuplicateFilter.class) {
+                filter = instance;
+                if (filter == null) {
+                    filter = new DuplicateFilter(new File(context.getApplicationContext().getFilesDir(), FILENAME));
+                    filter.load();
+                    instance = filter;
+                }
+            }
+        }
+        return filter;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Persistence
+    // ---------------------------------------------------------------------------------------------
+
+    private void load() {
+        AtomicFile atomicFile = new AtomicFile(file);
+        try {
+            decode(ByteBuffer.wrap(atomicFile.readFully()));
+        } catch (FileNotFoundException e) {
+            // first run
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read " + FILENAME, e);
+        }
+    }
+
+    // Caller holds the lock
+    @Override
+    protected void onChanged() {
+        if (saveScheduled) return;
+        saveScheduled = true;
+        SAVER.schedule(this::save, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void save() {
+        byte[] encoded;
+        synchronized (this) {
+            saveScheduled = false;
+            encoded = encode(System.currentTimeMillis());
+        }
+
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream out = null;
+        try {
+            out = atomicFile.startWrite();
+            out.write(encoded);
+            atomicFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write " + FILENAME, e);
+            if (out != null) atomicFile.failWrite(out);
+        }
+    }
+}
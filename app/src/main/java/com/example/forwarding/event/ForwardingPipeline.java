@@ -0,0 +1,227 @@
+package com.example.forwarding.event;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.util.Log;
+
+import com.example.forwarding.data_model.DigestPolicy;
+import com.example.forwarding.data_model.Preferences;
+import com.example.forwarding.data_model.RuleSet;
+import com.example.forwarding.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background stage between {@link SMSReceiver} and {@link SMSSender}.
+ *
+ * The receiver only extracts the message and calls {@code goAsync()}; rule loading, matching and
+ * sending happen here on a small bounded pool, and the broadcast is finished once the message
+ * has been handled.
+ */
+public final class ForwardingPipeline {
+
+    private static final String TAG = "ForwardingPipeline";
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+
+    private static final int THREADS = 2;
+    private static final int QUEUE_CAPACITY = 256;
+
+    // When the queue is full a batch waits on the overflow thread for a free slot, never on the
+    // receiving thread (the main thread). The overflow stage is bounded in size and in time, so
+    // it cannot build a backlog or hold a broadcast open for long: a batch that finds it full,
+    // or still finds no free slot after the wait, is dropped and counted, and its broadcast
+    // finished.
+    private static final int OVERFLOW_CAPACITY = 64;
+    private static final long OVERFLOW_WAIT_MILLIS = 5_000;
+
+    private static final ThreadPoolExecutor OVERFLOW = createOverflow();
+    private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
+    private static ThreadPoolExecutor createExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                THREADS, THREADS,
+                30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                runnable -> new Thread(runnable, "sms-forwarding-" + count.incrementAndGet()),
+                (runnable, rejected) -> {
+                    // Only batches overflow; a rejected warm-up is left to the first message
+                    if (runnable instanceof Batch) OVERFLOW.execute(new Overflow((Batch) runnable));
+                }
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadPoolExecutor createOverflow() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1,
+                30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(OVERFLOW_CAPACITY),
+                runnable -> new Thread(runnable, "sms-forwarding-overflow"),
+                (runnable, rejected) -> ((Overflow) runnable).batch.drop()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // Runs on the overflow thread only, so overflowing batches keep their order
+    private static final class Overflow implements Runnable {
+
+        final Batch batch;
+
+        Overflow(Batch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            Metrics.add(Metrics.Counter.OVERFLOWED, batch.messages.size());
+            try {
+                if (!EXECUTOR.getQueue().offer(batch, OVERFLOW_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    batch.drop();
+                    return;
+                }
+                // A full queue means busy workers, but start one in case they have timed out since
+                EXECUTOR.prestartCoreThread();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batch.run(); // still off the main thread
+            }
+        }
+    }
+
+    public static void submit(
+            Context context,
+            IncomingMessage message,
+            BroadcastReceiver.PendingResult pendingResult
+    ) {
+        submit(context, Collections.singletonList(message), pendingResult);
+    }
+
+    /** Handles the messages in order; {@code pendingResult} (if any) is finished after the last. */
+    public static void submit(
+            Context context,
+            List<IncomingMessage> messages,
+            BroadcastReceiver.PendingResult pendingResult
+    ) {
+        submit(context, messages, pendingResult == null ? null : pendingResult::finish);
+    }
+
+    /**
+     * Handles the messages in order; {@code onDone} (if any) runs after the last, or once they
+     * were dropped because the pipeline stayed full.
+     */
+    static void submit(Context context, List<IncomingMessage> messages, Runnable onDone) {
+        EXECUTOR.execute(new Batch(context.getApplicationContext(), messages, onDone));
+    }
+
+    private static final class Batch implements Runnable {
+
+        final Context context;
+        final List<IncomingMessage> messages;
+        final Runnable onDone;
+
+        Batch(Context context, List<IncomingMessage> messages, Runnable onDone) {
+            this.context = context;
+            this.messages = messages;
+            this.onDone = onDone;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (IncomingMessage message : messages) {
+                    try {
+                        process(context, message);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Failed to forward message from " + message.sender, e);
+                    }
+                }
+            } finally {
+                if (onDone != null) {
+                    onDone.run();
+                }
+            }
+        }
+
+        void drop() {
+            Metrics.add(Metrics.Counter.DROPPED, messages.size());
+            Log.w(TAG, "Pipeline full, dropped " + messages.size() + " message(s)");
+            if (onDone != null) {
+                onDone.run();
+            }
+        }
+    }
+
+    /**
+     * Keeps the pool's threads alive between messages instead of letting them time out, while
+     * {@link ForwardingService} keeps the process running.
+     */
+    static void setKeepAlive(boolean keepAlive) {
+        EXECUTOR.allowCoreThreadTimeOut(!keepAlive);
+        if (keepAlive) EXECUTOR.prestartAllCoreThreads();
+    }
+
+    /** Loads and compiles the rules ahead of the first message. */
+    static void warm(Context context) {
+        final Context appContext = context.getApplicationContext();
+
+        EXECUTOR.execute(() -> {
+            long start = System.nanoTime();
+            Preferences.getRuleSet(appContext); // compiled on first use
+            Preferences.getRuleStats(appContext);
+            DuplicateFilter.get(appContext);
+            if (DEBUG) Log.d(TAG, "Warmed up in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        });
+    }
+
+    private static void process(Context context, IncomingMessage message) {
+        long start = System.nanoTime();
+        RuleSet rules = Preferences.getRuleSet(context);
+        Metrics.recordSince(Metrics.Stage.RULE_LOAD, start);
+        if (rules.isEmpty()) return;
+
+        MatchStage stage = new MatchStage(DuplicateFilter.get(context), new SenderOutbound(context));
+        stage.process(rules, message, Preferences.getDuplicateWindowSeconds(context) * 1000L, System.currentTimeMillis());
+        Preferences.saveRuleStatsLater(context);
+    }
+
+    /** The {@link MatchStage} outbound of the app: the SQLite outbox, via {@link SMSSender}. */
+    private static final class SenderOutbound implements MatchStage.Outbound {
+
+        private final Context context;
+
+        SenderOutbound(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public boolean enqueue(IncomingMessage message, ArrayList<String> recipients) {
+//            String senderContactName =
+//                    Contacts.getContactName(context, message.sender);
+
+            String senderContactName = null;
+
+            if (DEBUG) Log.d(TAG, "Forwarding message from " + message.sender + " to " + recipients.size() + " recipient(s)");
+            return SMSSender.forward(
+                    context,
+                    message,
+                    recipients,
+                    senderContactName
+            );
+        }
+
+        @Override
+        public boolean buffer(IncomingMessage message, Map<String, DigestPolicy> digests) {
+            return SMSSender.collect(context, message, digests);
+        }
+    }
+}
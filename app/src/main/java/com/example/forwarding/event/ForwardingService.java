@@ -0,0 +1,144 @@
+package com.example.forwarding.event;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.util.Log;
+
+import com.example.forwarding.R;
+import com.example.forwarding.data_model.Preferences;
+
+import java.util.List;
+
+/**
+ * Optional gateway mode: a foreground service that keeps the process, and with it the compiled
+ * rules, the outbox and the {@code SmsManager} transports, alive between messages.
+ *
+ * Without it every SMS may cold-start the process and pay for reading the rule file, compiling
+ * the rules and opening the outbox before the first forward. While the service runs,
+ * {@link SMSReceiver} hands messages straight to the warm {@link ForwardingPipeline} and
+ * returns at once instead of holding its broadcast with {@code goAsync()}; a partial wake lock
+ * is held for each handed-off batch until the outbox thread has sent it, and no longer.
+ *
+ * In Doze the wake lock only holds while the system's SMS allowlist window is open, so a
+ * gateway device should also be exempted from battery optimization.
+ */
+public class ForwardingService extends Service {
+
+    private static final String TAG = "ForwardingService";
+
+    private static final String CHANNEL_ID = "forwarding";
+    private static final int NOTIFICATION_ID = 1;
+
+    // Upper bound for one batch, in case a release is lost
+    private static final long WAKE_LOCK_TIMEOUT_MILLIS = 60_000L;
+    private static final String WAKE_LOCK_TAG = "forwarding:batch";
+
+    private static volatile ForwardingService running;
+
+    /** Starts the service if gateway mode is on, e.g. after boot or when the app is opened. */
+    public static void startIfEnabled(Context context) {
+        if (Preferences.isGatewayMode(context)) start(context);
+    }
+
+    public static void start(Context context) {
+        context.startForegroundService(new Intent(context, ForwardingService.class));
+    }
+
+    public static void stop(Context context) {
+        context.stopService(new Intent(context, ForwardingService.class));
+    }
+
+    /**
+     * Queues the messages on the warm pipeline under a wake lock of their own.
+     *
+     * @return false if the service is not running; the caller then keeps its broadcast alive
+     */
+    static boolean handOff(Context context, List<IncomingMessage> messages) {
+        ForwardingService service = running;
+        if (service == null) return false;
+
+        PowerManager powerManager = (PowerManager) service.getSystemService(Context.POWER_SERVICE);
+        if (powerManager == null) return false;
+
+        // Not reference counted, so a release after the timeout already fired is harmless
+        final PowerManager.WakeLock wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_TAG);
+        wakeLock.setReferenceCounted(false);
+        wakeLock.acquire(WAKE_LOCK_TIMEOUT_MILLIS);
+
+        // The pipeline queues the outbox drain before it calls back, so the release runs after it
+        ForwardingPipeline.submit(context, messages, () -> OutboxDispatcher.afterQueued(wakeLock::release));
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Lifecycle
+    // ---------------------------------------------------------------------------------------------
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        Notification notification = buildNotification();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_REMOTE_MESSAGING);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+
+        ForwardingPipeline.setKeepAlive(true);
+        ForwardingPipeline.warm(this);
+        OutboxDispatcher.drain(this, null); // opens the outbox and the SIMs' transports
+        running = this;
+        Log.i(TAG, "Gateway mode started");
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        running = null;
+        ForwardingPipeline.setKeepAlive(false);
+        Log.i(TAG, "Gateway mode stopped");
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private Notification buildNotification() {
+        NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (notificationManager != null) {
+            NotificationChannel channel = new NotificationChannel(
+                    CHANNEL_ID, getString(R.string.channel_gateway), NotificationManager.IMPORTANCE_LOW);
+            channel.setShowBadge(false);
+            notificationManager.createNotificationChannel(channel);
+        }
+
+        Intent launch = getPackageManager().getLaunchIntentForPackage(getPackageName());
+        Notification.Builder builder = new Notification.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.notification_gateway))
+                .setCategory(Notification.CATEGORY_SERVICE)
+                .setShowWhen(false)
+                .setOngoing(true);
+        if (launch != null) {
+            builder.setContentIntent(PendingIntent.getActivity(this, 0, launch, PendingIntent.FLAG_IMMUTABLE));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,348 @@
+package com.example.forwarding.event;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.telephony.SmsManager;
+import android.util.Log;
+
+import com.example.forwarding.R;
+import com.example.forwarding.data_model.DigestPolicy;
+import com.example.forwarding.data_model.Outbox;
+import com.example.forwarding.data_model.Preferences;
+import com.example.forwarding.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Drives the {@link Outbox}: queues digests that are due, claims due jobs, sends them through
+ * {@link SMSSender} on the subscriptions of the {@link SubscriptionRouter} (or, for webhook and
+ * mailto: recipients, hands them to the {@link SinkDispatcher}), applies the sent/delivered
+ * callbacks and keeps an alarm armed for the next retry.
+ *
+ * The alarm is exact once the user has allowed exact alarms (asked for when gateway mode is
+ * turned on). Without that permission it is inexact and may fire minutes late, later still in
+ * Doze, so the {@link Outbox} backoff is a lower bound on the delay between attempts, not a
+ * schedule. Even an exact alarm fires at most about once per 9 minutes in deep Doze.
+ *
+ * All outbox work runs on one background thread, so receipt of new SMS never waits on sending.
+ */
+public final class OutboxDispatcher {
+
+    private static final String TAG = "OutboxDispatcher";
+
+    static final String ACTION_DRAIN     = "com.example.forwarding.action.OUTBOX_DRAIN";
+    static final String ACTION_SENT      = "com.example.forwarding.action.SMS_SENT";
+    static final String ACTION_DELIVERED = "com.example.forwarding.action.SMS_DELIVERED";
+
+    static final String EXTRA_JOB_ID  = "job_id";
+    static final String EXTRA_ATTEMPT = "attempt";
+
+    private static final int BATCH_SIZE = 20;
+    private static final long PRUNE_INTERVAL_MILLIS = 60 * 60_000L;
+
+    private static final ExecutorService EXECUTOR =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "sms-outbox"));
+
+    private static long lastPrunedAt;
+    private static SendRateLimiter rateLimiter;
+    private static final SubscriptionRouter ROUTER = new SubscriptionRouter();
+    private static final SinkDispatcher SINKS = new SinkDispatcher();
+    private static volatile SmsTransport transport;
+
+    /** Records one job per recipient and starts sending; returns false if the queue is full. */
+    public static boolean enqueue(
+            Context context,
+            IncomingMessage message,
+            String senderContactName,
+            List<String> recipients
+    ) {
+        boolean queued = Outbox.get(context).enqueue(
+                message.sender, senderContactName, message.body, message.receivedAtMillis, recipients
+        );
+
+        if (!queued) {
+            Log.e(TAG, "Outbox full, dropping forward of message from " + message.sender);
+            return false;
+        }
+
+        drain(context, null);
+        return true;
+    }
+
+    /**
+     * Buffers the message for digest recipients and keeps the alarm armed for the earliest
+     * digest; returns false if the buffer is full.
+     */
+    public static boolean buffer(
+            Context context,
+            IncomingMessage message,
+            Map<String, DigestPolicy> recipients
+    ) {
+        boolean buffered = Outbox.get(context).bufferDigest(
+                message.sender, message.body, message.receivedAtMillis, recipients, System.currentTimeMillis()
+        );
+
+        if (!buffered) {
+            Log.e(TAG, "Digest buffer full, dropping message from " + message.sender);
+            return false;
+        }
+
+        Metrics.add(Metrics.Counter.DIGESTED, recipients.size());
+        drain(context, null);
+        return true;
+    }
+
+    /** Sends every job that is due; finishes {@code pendingResult} (if any) when done. */
+    public static void drain(Context context, BroadcastReceiver.PendingResult pendingResult) {
+        final Context appContext = context.getApplicationContext();
+
+        EXECUTOR.execute(() -> {
+            try {
+                drainNow(appContext);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Outbox drain failed", e);
+            } finally {
+                if (pendingResult != null) pendingResult.finish();
+            }
+        });
+    }
+
+    /** Runs {@code task} on the outbox thread once the work queued before it is done. */
+    static void afterQueued(Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    /** Applies a sent or delivered broadcast from {@link SmsManagerTransport}. */
+    static void onSendResult(
+            Context context,
+            Intent intent,
+            int resultCode,
+            BroadcastReceiver.PendingResult pendingResult
+    ) {
+        onPartResult(
+                context,
+                ACTION_DELIVERED.equals(intent.getAction()),
+                intent.getLongExtra(EXTRA_JOB_ID, -1),
+                intent.getIntExtra(EXTRA_ATTEMPT, -1),
+                resultCode,
+                pendingResult
+        );
+    }
+
+    /**
+     * Replaces the radio, e.g. with a {@link LoopbackTransport} built on {@link #callbacks} for
+     * load testing on a device; {@code null} restores {@code SmsManager}.
+     */
+    public static void setTransport(SmsTransport replacement) {
+        transport = replacement;
+    }
+
+    /** One line per subscription forwards went out on, with its health, for the metrics screen. */
+    public static String describeSubscriptions(long now) {
+        return ROUTER.describe(now);
+    }
+
+    /** Reports to the outbox, for transports that do not go through {@link OutboxReceiver}. */
+    public static SmsTransport.Callbacks callbacks(Context context) {
+        final Context appContext = context.getApplicationContext();
+        return new SmsTransport.Callbacks() {
+            @Override
+            public void onPartSent(long jobId, int attempt, int part, int resultCode) {
+                onPartResult(appContext, false, jobId, attempt, resultCode, null);
+            }
+
+            @Override
+            public void onPartDelivered(long jobId, int attempt, int part) {
+                onPartResult(appContext, true, jobId, attempt, SmsTransport.RESULT_OK, null);
+            }
+        };
+    }
+
+    // Sink results come back on the sink thread and are applied on the outbox thread
+    private static Sink.Callbacks sinkCallbacks(Context context) {
+        final Context appContext = context.getApplicationContext();
+        return new Sink.Callbacks() {
+            @Override
+            public void onDelivered(long jobId, int attempt) {
+                onSinkResult(appContext, jobId, attempt, true, 0, false);
+            }
+
+            @Override
+            public void onFailed(long jobId, int attempt, int errorCode, boolean permanent) {
+                onSinkResult(appContext, jobId, attempt, false, errorCode, permanent);
+            }
+        };
+    }
+
+    private static void onSinkResult(
+            Context context,
+            long jobId,
+            int attempt,
+            boolean delivered,
+            int errorCode,
+            boolean permanent
+    ) {
+        EXECUTOR.execute(() -> {
+            try {
+                Outbox outbox = Outbox.get(context);
+
+                if (delivered) {
+                    Metrics.increment(Metrics.Counter.POSTED);
+                    outbox.onPartSent(jobId, attempt);
+                    outbox.onPartDelivered(jobId);
+                } else {
+                    Metrics.increment(Metrics.Counter.FAILED);
+                    Log.w(TAG, "Sink failed for job " + jobId + " attempt " + attempt + ", error " + errorCode);
+                    outbox.onPartFailed(jobId, attempt, errorCode, permanent, System.currentTimeMillis());
+                    // The retry is due before the SENDING timeout the alarm was armed for
+                    scheduleWakeup(context, outbox.nextDueAt());
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not record sink result", e);
+            }
+        });
+    }
+
+    private static void onPartResult(
+            Context context,
+            boolean delivered,
+            long jobId,
+            int attempt,
+            int resultCode,
+            BroadcastReceiver.PendingResult pendingResult
+    ) {
+        final Context appContext = context.getApplicationContext();
+
+        EXECUTOR.execute(() -> {
+            try {
+                if (jobId < 0) return;
+                Outbox outbox = Outbox.get(appContext);
+
+                if (delivered) {
+                    outbox.onPartDelivered(jobId);
+                } else if (resultCode == SmsTransport.RESULT_OK) {
+                    ROUTER.onPartResult(jobId, attempt, true, System.currentTimeMillis());
+                    outbox.onPartSent(jobId, attempt);
+                } else {
+                    Metrics.increment(Metrics.Counter.FAILED);
+                    ROUTER.onPartResult(jobId, attempt, false, System.currentTimeMillis());
+                    Log.w(TAG, "Send failed for job " + jobId + " attempt " + attempt + ", result " + resultCode);
+                    outbox.onPartFailed(jobId, attempt, resultCode, isPermanent(resultCode), System.currentTimeMillis());
+                    drainNow(appContext);
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not record send result", e);
+            } finally {
+                if (pendingResult != null) pendingResult.finish();
+            }
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Internals (outbox thread only)
+    // ---------------------------------------------------------------------------------------------
+
+    private static void drainNow(Context context) {
+        Outbox outbox = Outbox.get(context);
+        SendRateLimiter limiter = getRateLimiter(context);
+        ROUTER.refresh(context, transport);
+
+        int digests = outbox.flushDigests(System.currentTimeMillis(), getDigestFormatter(context));
+        Metrics.add(Metrics.Counter.DIGESTS, digests);
+
+        List<Outbox.Job> jobs;
+        while (!(jobs = outbox.claimDue(System.currentTimeMillis(), BATCH_SIZE)).isEmpty()) {
+            // Arm the alarm for the claimed jobs' timeout first, in case the process dies mid-batch
+            scheduleWakeup(context, outbox.nextDueAt());
+
+            ArrayList<Outbox.Job> sinkJobs = new ArrayList<>();
+            for (Outbox.Job job : jobs) {
+                if (Sink.isSink(job.recipient)) {
+                    sinkJobs.add(job);
+                } else if (Sink.isUnsupported(job.recipient)) {
+                    // From a rule or group saved before such recipients were refused
+                    Log.w(TAG, "Not forwarding to unsupported recipient " + job.recipient);
+                    onSinkResult(context, job.id, job.attempt, false, Sink.ERROR_IO, true);
+                } else {
+                    SMSSender.send(context, outbox, limiter, ROUTER, job);
+                }
+            }
+            if (!sinkJobs.isEmpty()) {
+                SINKS.send(context, outbox, sinkJobs, sinkCallbacks(context));
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastPrunedAt > PRUNE_INTERVAL_MILLIS) {
+            outbox.prune(now);
+            lastPrunedAt = now;
+        }
+
+        scheduleWakeup(context, outbox.nextDueAt());
+    }
+
+    // Rebuilt only when the configured rates change, so pacing state survives between drains
+    private static SendRateLimiter getRateLimiter(Context context) {
+        int subscriptionCount = Preferences.getSubscriptionRateCount(context);
+        long subscriptionWindow = Preferences.getSubscriptionRateMinutes(context) * 60_000L;
+        int destinationCount = Preferences.getDestinationRateCount(context);
+        long destinationWindow = Preferences.getDestinationRateMinutes(context) * 60_000L;
+
+        if (rateLimiter == null || !rateLimiter.hasLimits(
+                subscriptionCount, subscriptionWindow, destinationCount, destinationWindow)) {
+            rateLimiter = new SendRateLimiter(
+                    subscriptionCount, subscriptionWindow, destinationCount, destinationWindow);
+        }
+        return rateLimiter;
+    }
+
+    private static DigestFormatter getDigestFormatter(Context context) {
+        return new DigestFormatter(
+                context.getString(R.string.sms_digest_heading),
+                context.getString(R.string.sms_digest_more)
+        );
+    }
+
+    private static void scheduleWakeup(Context context, long at) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (alarmManager == null) return;
+
+        PendingIntent wakeup = PendingIntent.getBroadcast(
+                context,
+                0,
+                new Intent(context, OutboxReceiver.class).setAction(ACTION_DRAIN),
+                PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT
+        );
+
+        if (at < 0) {
+            alarmManager.cancel(wakeup);
+        } else if (canScheduleExactAlarms(alarmManager)) {
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, at, wakeup);
+        } else {
+            alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, at, wakeup);
+        }
+    }
+
+    /** Whether retries can be timed exactly; from Android 12 the user has to allow it. */
+    public static boolean canScheduleExactAlarms(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        return alarmManager != null && canScheduleExactAlarms(alarmManager);
+    }
+
+    private static boolean canScheduleExactAlarms(AlarmManager alarmManager) {
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.S || alarmManager.canScheduleExactAlarms();
+    }
+
+    private static boolean isPermanent(int resultCode) {
+        return resultCode == SmsManager.RESULT_ERROR_NULL_PDU
+                || resultCode == SmsManager.RESULT_ERROR_SHORT_CODE_NEVER_ALLOWED;
+    }
+}
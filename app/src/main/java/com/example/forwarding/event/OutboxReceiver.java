@@ -0,0 +1,42 @@
+package com.example.forwarding.event;
+
+import android.app.AlarmManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Wakes the {@link OutboxDispatcher}: after boot or an app update, when a retry alarm fires,
+ * and when the radio reports a message part as sent or delivered. After boot or an update it
+ * also restarts the {@link ForwardingService} if gateway mode is on. When exact alarms are
+ * allowed the drain re-arms the retry alarm as an exact one.
+ */
+public class OutboxReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        if (action == null) return;
+
+        // Parts of incomplete SMS kept before a restart time out on the usual schedule from here
+        SMSReceiver.restorePendingParts(context);
+
+        switch (action) {
+            case Intent.ACTION_BOOT_COMPLETED:
+            case Intent.ACTION_MY_PACKAGE_REPLACED:
+                ForwardingService.startIfEnabled(context);
+                OutboxDispatcher.drain(context, goAsync());
+                break;
+
+            case AlarmManager.ACTION_SCHEDULE_EXACT_ALARM_PERMISSION_STATE_CHANGED:
+            case OutboxDispatcher.ACTION_DRAIN:
+                OutboxDispatcher.drain(context, goAsync());
+                break;
+
+            case OutboxDispatcher.ACTION_SENT:
+            case OutboxDispatcher.ACTION_DELIVERED:
+                OutboxDispatcher.onSendResult(context, intent, getResultCode(), goAsync());
+                break;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.forwarding.event;
+
+import android.content.Context;
+import android.telephony.SmsMessage;
+
+import com.example.forwarding.R;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * The outgoing text of one forwarded message, built once and shared by every recipient and
+ * every retry: preface resolved, encoding (GSM 7-bit or UCS-2) decided and parts already split.
+ */
+final class PreparedMessage {
+
+    final ArrayList<String> parts;
+    final int encoding; // SmsMessage.ENCODING_7BIT or ENCODING_16BIT
+
+    private PreparedMessage(ArrayList<String> parts, int encoding) {
+        this.parts = parts;
+        this.encoding = encoding;
+    }
+
+    /**
+     * @param compact use the one-line preface instead of the full heading whenever that saves
+     *                at least one segment
+     */
+    static PreparedMessage prepare(
+            Context context,
+            SmsTransport transport,
+            String sender,
+            String senderName,
+            String body,
+            boolean compact
+    ) {
+        Prefaces prefaces = Prefaces.get(context);
+
+        StringBuilder full = new StringBuilder(prefaces.heading.length() + body.length() + 64);
+        full.append(prefaces.heading);
+        if (senderName != null && !senderName.isEmpty()) {
+            full.append('\n').append(senderName);
+        }
+        full.append('\n').append(sender).append("\n\n").append(body);
+
+        String text = full.toString();
+        int[] length = SmsMessage.calculateLength(text, false);
+
+        if (compact && length[0] > 1) {
+            String shortText = String.format(prefaces.compact,
+                    (senderName != null && !senderName.isEmpty()) ? senderName : sender) + "\n" + body;
+            int[] shortLength = SmsMessage.calculateLength(shortText, false);
+            if (shortLength[0] < length[0]) {
+                text = shortText;
+                length = shortLength;
+            }
+        }
+
+        return new PreparedMessage(transport.divideMessage(text), length[3]);
+    }
+
+    /** A text that is sent as it is, e.g. a digest, which already names its senders. */
+    static PreparedMessage verbatim(SmsTransport transport, String text) {
+        int[] length = SmsMessage.calculateLength(text, false);
+        return new PreparedMessage(transport.divideMessage(text), length[3]);
+    }
+
+    // Preface strings for the current locale, looked up once instead of per message
+    private static final class Prefaces {
+        private static volatile Prefaces cached;
+
+        final Locale locale;
+        final String heading;
+        final String compact;
+
+        private Prefaces(Locale locale, String heading, String compact) {
+            this.locale = locale;
+            this.heading = heading;
+            this.compact = compact;
+        }
+
+        static Prefaces get(Context context) {
+            Locale locale = context.getResources().getConfiguration().getLocales().get(0);
+            Prefaces prefaces = cached;
+            if (prefaces == null || !prefaces.locale.equals(locale)) {
+                prefaces = new Prefaces(
+                        locale,
+                        context.getString(R.string.sms_preface_heading),
+                        context.getString(R.string.sms_preface_compact)
+                );
+                cached = prefaces;
+            }
+            return prefaces;
+        }
+    }
+}
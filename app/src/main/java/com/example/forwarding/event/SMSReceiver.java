@@ -13,10 +13,6 @@
 
 package com.example.forwarding.event;
 
-import com.example.forwarding.data_model.Preferences;
-import com.example.forwarding.data_model.RecipientListItem;
-import android.util.Log;
-
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -25,149 +21,255 @@ import android.os.Bundle;
 import android.telephony.SmsMessage;
 import android.util.Log;
 
+import com.example.forwarding.data_model.Outbox;
+import com.example.forwarding.metrics.Metrics;
+
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Locale;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class SMSReceiver extends BroadcastReceiver {
 
     private static final String TAG = "SMSReceiver";
     private static final String SMS_RECEIVED = "android.provider.Telephony.SMS_RECEIVED";
 
+    // Per-message logging, enabled with: adb shell setprop log.tag.SMSReceiver DEBUG
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+
+    // Parts of a concatenated SMS normally arrive in one broadcast; a part that is late by more
+    // than this is given up on and the message is forwarded with a gap instead.
+    private static final int MAX_PENDING_MESSAGES = 32;
+    private static final long REASSEMBLY_TIMEOUT_MILLIS = 60_000L;
+
+    private static final MultipartAssembler ASSEMBLER =
+            new MultipartAssembler(MAX_PENDING_MESSAGES, REASSEMBLY_TIMEOUT_MILLIS, SMSReceiver::onHandedOut);
+
+    // Parts the assembler holds at the end of a broadcast are also kept in the outbox database,
+    // written on this thread before the broadcast is finished. After a restart they are put back
+    // into the assembler, so a late part still completes its message, and one that never comes
+    // gets the message forwarded with a gap as usual.
+    private static final ExecutorService PARTS =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "sms-parts"));
+
+    // Messages with parts in the database, as sender \0 reference / count; guarded by ASSEMBLER
+    private static final HashSet<String> SAVED = new HashSet<>();
+    private static Context partsContext; // guarded by ASSEMBLER
+    private static boolean restored;     // guarded by ASSEMBLER
+
+    private static final ScheduledExecutorService EXPIRER =
+            Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "sms-reassembly"));
+
+    private static boolean expiryScheduled; // guarded by ASSEMBLER
+
     @Override
     public void onReceive(Context context, Intent intent) {
-        Log.e("DEBUG_SMS", "SMS RECEIVED TRIGGERED");
         if (!SMS_RECEIVED.equals(intent.getAction())) return;
+        long start = System.nanoTime();
+        restorePendingParts(context);
 
         Bundle extras = intent.getExtras();
         if (extras == null) return;
 
-        ArrayList<RecipientListItem> rules =
-                Preferences.getRecipientListItems(context);
-
-        if (rules == null || rules.isEmpty()) return;
-
-        SmsMessage[] messages = getSmsMessages(extras);
+        String format = extras.getString("format", "3gpp");
+        SmsMessage[] messages = getSmsMessages(extras, format);
         if (messages.length == 0) return;
 
         // ---------------------------------------------------------------------
-        // Merge multipart SMS
+        // Group PDUs into messages
         // ---------------------------------------------------------------------
-        String sender = null;
-        StringBuilder bodyBuilder = new StringBuilder();
+        long now = System.currentTimeMillis();
+        ArrayList<IncomingMessage> complete = new ArrayList<>();
+
+        // PDUs without a concatenation header (3GPP2, or a 3GPP single part), per sender
+        LinkedHashMap<String, StringBuilder> unheaded = new LinkedHashMap<>();
+        ArrayList<Outbox.Part> held = new ArrayList<>();
+        int dropped = 0;
 
         for (SmsMessage msg : messages) {
-            if (msg == null) continue;
-            if (sender == null) sender = msg.getOriginatingAddress();
-            bodyBuilder.append(msg.getMessageBody());
+            String sender = (msg == null) ? null : msg.getOriginatingAddress();
+            String text = (msg == null) ? null : msg.getMessageBody();
+            if (sender == null || text == null) {
+                dropped++;
+                continue;
+            }
+            sender = sender.trim();
+
+            ConcatHeader header = "3gpp".equals(format) ? ConcatHeader.parse(msg.getPdu()) : null;
+            if (header == null) {
+                StringBuilder body = unheaded.get(sender);
+                if (body == null) {
+                    body = new StringBuilder();
+                    unheaded.put(sender, body);
+                }
+                body.append(text);
+            } else {
+                if (ASSEMBLER.add(sender, header.reference, header.count, header.sequence, text, now, complete)) {
+                    held.add(new Outbox.Part(sender, header.reference, header.count, header.sequence, text, now));
+                }
+            }
         }
 
-        if (sender == null) return;
-
-        sender = sender.trim();
-        String body = bodyBuilder.toString().trim();
-        if (body.isEmpty()) return;
+        for (Map.Entry<String, StringBuilder> entry : unheaded.entrySet()) {
+            complete.add(new IncomingMessage(entry.getKey(), entry.getValue().toString(), now));
+        }
 
-        String bodyLower = body.toLowerCase(Locale.US);
-        String senderLower = sender.toLowerCase(Locale.US);
+        if (dropped > 0) Log.w(TAG, "Dropped " + dropped + " unreadable PDU(s) of " + messages.length);
+        Metrics.recordSince(Metrics.Stage.PDU_PARSE, start);
+        if (DEBUG) Log.d(TAG, "Received " + messages.length + " PDU(s), " + complete.size() + " complete message(s)");
 
-        // ---------------------------------------------------------------------
-        // Evaluate rules
-        // ---------------------------------------------------------------------
-        Set<String> finalRecipients = new HashSet<>();
-
-        for (RecipientListItem rule : rules) {
-
-            /* -------------------------------------------------------------
-             * 1. BLACKLIST (HIGHEST PRIORITY)
-             * ------------------------------------------------------------- */
-            if (rule.blacklist != null && !rule.blacklist.trim().isEmpty()) {
-                String[] bl = rule.blacklist.split(",");
-                boolean blocked = false;
-
-                for (String b : bl) {
-                    if (!b.trim().isEmpty() &&
-                            senderLower.contains(b.trim().toLowerCase(Locale.US))) {
-                        blocked = true;
-                        break;
-                    }
-                }
+        scheduleExpiry(context);
 
-                if (blocked) {
-                    continue; // do NOT forward for this rule
-                }
+        // Only parts whose message is still incomplete once the whole broadcast is in
+        ArrayList<Outbox.Part> unsaved = new ArrayList<>();
+        synchronized (ASSEMBLER) {
+            for (Outbox.Part part : held) {
+                if (!ASSEMBLER.isPending(part.sender, part.reference, part.count)) continue;
+                SAVED.add(key(part.sender, part.reference, part.count));
+                unsaved.add(part);
             }
+        }
+        if (unsaved.isEmpty()) {
+            submit(context, complete, this);
+            return;
+        }
 
-            /* -------------------------------------------------------------
-             * 2. SENDER WHITELIST
-             * ------------------------------------------------------------- */
-            ArrayList<RecipientListItem> singleRule = new ArrayList<>();
-            singleRule.add(rule);
-
-            ArrayList<String> matchedRecipients =
-                    RecipientListItem.match(singleRule, sender,body);
-
-            if (matchedRecipients.isEmpty()) continue;
+        final Context appContext = context.getApplicationContext();
+        final PendingResult result = goAsync();
+        PARTS.execute(() -> {
+            try {
+                Outbox.get(appContext).saveParts(unsaved);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not save " + unsaved.size() + " SMS part(s)", e);
+            }
+            submitAsync(appContext, complete, result);
+        });
+    }
 
-            /* -------------------------------------------------------------
-             * 3. KEYWORD FILTER
-             * ------------------------------------------------------------- */
-            boolean keywordMatched = false;
+    // ---------------------------------------------------------------------
+    // Parts kept across restarts
+    // ---------------------------------------------------------------------
+
+    /** Puts the parts kept before the process was restarted back into the assembler, once. */
+    static void restorePendingParts(Context context) {
+        final Context appContext = context.getApplicationContext();
+        synchronized (ASSEMBLER) {
+            partsContext = appContext;
+            if (restored) return;
+            restored = true;
+        }
 
-            if (rule.keywords == null || rule.keywords.trim().isEmpty()) {
-                // No keywords = allow all messages
-                keywordMatched = true;
-            } else {
-                String[] kws = rule.keywords.split(",");
-                for (String kw : kws) {
-                    if (!kw.trim().isEmpty() &&
-                            bodyLower.contains(kw.trim().toLowerCase(Locale.US))) {
-                        keywordMatched = true;
-                        break;
+        PARTS.execute(() -> {
+            ArrayList<IncomingMessage> complete = new ArrayList<>();
+            try {
+                Outbox outbox = Outbox.get(appContext);
+                ArrayList<Outbox.Part> parts = outbox.loadParts();
+                synchronized (ASSEMBLER) {
+                    for (Outbox.Part part : parts) {
+                        String key = key(part.sender, part.reference, part.count);
+                        SAVED.add(key);
+                        boolean kept = ASSEMBLER.add(part.sender, part.reference, part.count, part.sequence,
+                                part.body, part.receivedAt, complete);
+                        // Dropped as part of a message handed out since the restart
+                        if (!kept && !ASSEMBLER.isPending(part.sender, part.reference, part.count)
+                                && SAVED.remove(key)) {
+                            outbox.deleteParts(part.sender, part.reference, part.count);
+                        }
                     }
                 }
+                if (!parts.isEmpty()) Log.i(TAG, "Restored " + parts.size() + " part(s) of incomplete SMS");
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not restore SMS parts", e);
             }
+            submit(appContext, complete, null);
+            scheduleExpiry(appContext);
+        });
+    }
 
-            if (!keywordMatched) continue;
+    // Assembler lock held: only queues the write
+    private static void onHandedOut(String sender, int reference, int count) {
+        if (!SAVED.remove(key(sender, reference, count))) return;
+        final Context context = partsContext;
+        PARTS.execute(() -> {
+            try {
+                Outbox.get(context).deleteParts(sender, reference, count);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not delete SMS parts", e);
+            }
+        });
+    }
 
-            /* -------------------------------------------------------------
-             * 4. ADD RECIPIENTS
-             * ------------------------------------------------------------- */
-            finalRecipients.addAll(matchedRecipients);
-        }
+    private static String key(String sender, int reference, int count) {
+        return sender + '\0' + reference + '/' + count;
+    }
 
-        if (finalRecipients.isEmpty()) return;
+    // ---------------------------------------------------------------------
+    // Match and forward off the main thread
+    // ---------------------------------------------------------------------
+    private static void submit(Context context, List<IncomingMessage> messages, BroadcastReceiver receiver) {
+        ArrayList<IncomingMessage> forward = received(messages);
+        if (forward.isEmpty()) return;
+        if (ForwardingService.handOff(context, forward)) return;
+        ForwardingPipeline.submit(context, forward, receiver == null ? null : receiver.goAsync());
+    }
 
-        // ---------------------------------------------------------------------
-        // Forward SMS
-        // ---------------------------------------------------------------------
-        Log.i(TAG, "Forwarding SMS\nFrom: " + sender + "\nMessage: " + body);
+    // For a broadcast that has gone async already: {@code result} is finished either way
+    private static void submitAsync(Context context, List<IncomingMessage> messages, PendingResult result) {
+        ArrayList<IncomingMessage> forward = received(messages);
+        if (forward.isEmpty() || ForwardingService.handOff(context, forward)) {
+            result.finish();
+            return;
+        }
+        ForwardingPipeline.submit(context, forward, result);
+    }
 
-//        String senderContactName =
-//                Contacts.getContactName(context, sender);
+    private static ArrayList<IncomingMessage> received(List<IncomingMessage> messages) {
+        ArrayList<IncomingMessage> forward = new ArrayList<>(messages.size());
+        for (IncomingMessage message : messages) {
+            String body = message.body.trim();
+            if (body.isEmpty()) continue;
+            forward.add(new IncomingMessage(message.sender, body, message.receivedAtMillis));
+        }
+        Metrics.add(Metrics.Counter.RECEIVED, forward.size());
+        return forward;
+    }
 
-        String senderContactName = null;
+    // Hands incomplete messages on once they time out, even if no further SMS arrives
+    private static void scheduleExpiry(Context context) {
+        final Context appContext = context.getApplicationContext();
+        long delay;
+        synchronized (ASSEMBLER) {
+            long at = ASSEMBLER.nextExpiryAt();
+            if (at < 0 || expiryScheduled) return;
+            expiryScheduled = true;
+            delay = Math.max(at - System.currentTimeMillis(), 0);
+        }
 
-        SMSSender.forward(
-                context,
-                new ArrayList<>(finalRecipients),
-                sender,
-                senderContactName,
-                body
-        );
+        EXPIRER.schedule(() -> {
+            ArrayList<IncomingMessage> expired = new ArrayList<>();
+            synchronized (ASSEMBLER) {
+                expiryScheduled = false;
+                ASSEMBLER.expire(System.currentTimeMillis(), expired);
+            }
+            submit(appContext, expired, null);
+            scheduleExpiry(appContext);
+        }, delay, TimeUnit.MILLISECONDS);
     }
 
     // -------------------------------------------------------------------------
     // PDU Parsing
     // -------------------------------------------------------------------------
-    private static SmsMessage[] getSmsMessages(Bundle extras) {
+    private static SmsMessage[] getSmsMessages(Bundle extras, String format) {
 
         Object[] pdus = (Object[]) extras.get("pdus");
         if (pdus == null || pdus.length == 0)
             return new SmsMessage[0];
 
-        String format = extras.getString("format", "3gpp");
         SmsMessage[] messages = new SmsMessage[pdus.length];
 
         for (int i = 0; i < pdus.length; i++) {
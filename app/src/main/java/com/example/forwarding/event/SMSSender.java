@@ -16,56 +16,122 @@ package com.example.forwarding.event;
 
 import android.content.Context;
 import android.telephony.SmsManager;
+import android.telephony.SmsMessage;
 import android.util.Log;
 
-import com.example.forwarding.R;
+import com.example.forwarding.data_model.DigestPolicy;
+import com.example.forwarding.data_model.Outbox;
+import com.example.forwarding.data_model.Preferences;
+import com.example.forwarding.metrics.Metrics;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public final class SMSSender {
 
-    private static final String TAG = "DEBUG_SMS";
+    private static final String TAG = "SMSSender";
 
-    public static void forward(
+    // Per-forward logging, enabled with: adb shell setprop log.tag.SMSSender DEBUG
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+
+    /**
+     * Queues the message for every recipient in the durable {@link Outbox}.
+     *
+     * @return false if the outbox is full and the message was dropped
+     */
+    public static boolean forward(
             Context context,
+            IncomingMessage message,
             ArrayList<String> recipients,
-            String sender,
-            String senderContactName,
-            String body
+            String senderContactName
     ) {
-        Log.e(TAG, "➡ SMSSender.forward() called");
-        Log.e(TAG, "Sender: " + sender);
-        Log.e(TAG, "Recipients count: " + (recipients == null ? 0 : recipients.size()));
-
         if (recipients == null || recipients.isEmpty()) {
-            Log.e(TAG, "❌ No recipients. Aborting.");
-            return;
+            return true;
         }
 
-        SmsManager sms = SmsManager.getDefault();
-
-        String preface = context.getString(R.string.sms_preface_heading);
+        return OutboxDispatcher.enqueue(context, message, senderContactName, recipients);
+    }
 
-        if (senderContactName != null && !senderContactName.isEmpty()) {
-            preface += "\n" + senderContactName;
+    /**
+     * Buffers the message for recipients of digest rules; each gets one digest per window
+     * instead of a forward per message.
+     *
+     * @return false if the digest buffer is full and the message was dropped
+     */
+    public static boolean collect(
+            Context context,
+            IncomingMessage message,
+            Map<String, DigestPolicy> digests
+    ) {
+        if (digests == null || digests.isEmpty()) {
+            return true;
         }
 
-        preface += "\n" + sender;
-
-        String finalMessage = preface + "\n\n" + body;
-        Log.e(TAG, "Final message:\n" + finalMessage);
-
-        ArrayList<String> parts = sms.divideMessage(finalMessage);
-        Log.e(TAG, "Message parts: " + parts.size());
+        return OutboxDispatcher.buffer(context, message, digests);
+    }
 
-        for (String recipient : recipients) {
-            try {
-                Log.e(TAG, "📤 Sending to: " + recipient);
-                sms.sendMultipartTextMessage(recipient, null, parts, null, null);
-                Log.e(TAG, "✅ Sent to: " + recipient);
-            } catch (Exception e) {
-                Log.e(TAG, "❌ Failed sending to: " + recipient, e);
+    /**
+     * Sends one claimed outbox job on the best subscription that has rate limit tokens left, or
+     * defers it when none has. The transport reports every part as sent and delivered to
+     * {@link OutboxDispatcher}, which completes or retries the job.
+     */
+    static void send(Context context, Outbox outbox, SendRateLimiter limiter, SubscriptionRouter router, Outbox.Job job) {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+
+        int[] candidates = router.order(Preferences.getRuleSet(context).getSimSlot(job.recipient), now);
+        PreparedMessage prepared = getPrepared(context, router.transport(candidates[0]), job);
+        ArrayList<String> parts = prepared.parts;
+
+        long chosen = limiter.reserveFirst(candidates, job.recipient, parts.size(), now, router.balancer());
+        if (chosen < 0) {
+            if (DEBUG) Log.d(TAG, "Rate limited, sending job " + job.id + " in " + -chosen + " ms");
+            outbox.defer(job.id, job.attempt, now - chosen);
+            return;
+        }
+        int subscription = candidates[(int) chosen];
+
+        outbox.setPartCount(job.id, job.attempt, parts.size());
+        router.onSending(job.id, job.attempt, subscription, parts.size(), now);
+
+        try {
+            if (DEBUG) Log.d(TAG, "Sending job " + job.id + " on subscription " + subscription + " as " + parts.size()
+                    + (prepared.encoding == SmsMessage.ENCODING_16BIT ? " UCS-2" : " GSM 7-bit") + " part(s)");
+            router.transport(subscription).send(job.id, job.attempt, job.recipient, parts);
+            Metrics.increment(Metrics.Counter.FORWARDED);
+            Metrics.recordSince(Metrics.Stage.SEND, start);
+            if (job.attempt == 1 && !job.digest) {
+                Metrics.record(Metrics.Stage.END_TO_END, (System.currentTimeMillis() - job.receivedAt) * 1_000_000L);
             }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed sending job " + job.id, e);
+            Metrics.increment(Metrics.Counter.FAILED);
+            router.onAttemptFailed(job.id, job.attempt, System.currentTimeMillis());
+            outbox.onPartFailed(job.id, job.attempt, SmsManager.RESULT_ERROR_GENERIC_FAILURE, false, System.currentTimeMillis());
+        }
+    }
+
+    // Prepared texts of recently sent messages, keyed by outbox message id, so recipients and
+    // retries of one message share it. Only touched from the outbox thread.
+    private static final int PREPARED_CACHE_SIZE = 64;
+    private static final LinkedHashMap<Long, PreparedMessage> PREPARED =
+            new LinkedHashMap<Long, PreparedMessage>(PREPARED_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, PreparedMessage> eldest) {
+                    return size() > PREPARED_CACHE_SIZE;
+                }
+            };
+
+    private static PreparedMessage getPrepared(Context context, SmsTransport transport, Outbox.Job job) {
+        PreparedMessage prepared = PREPARED.get(job.messageId);
+        if (prepared == null) {
+            prepared = job.digest
+                    ? PreparedMessage.verbatim(transport, job.body)
+                    : PreparedMessage.prepare(
+                            context, transport, job.sender, job.senderName, job.body, Preferences.isCompactPreface(context));
+            PREPARED.put(job.messageId, prepared);
         }
+        return prepared;
     }
 }
@@ -0,0 +1,149 @@
+package com.example.forwarding.event;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.forwarding.R;
+import com.example.forwarding.data_model.Outbox;
+import com.example.forwarding.data_model.Preferences;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Delivers the outbox jobs of webhook and mailto: recipients through their {@link Sink}s, on a
+ * thread of their own so a slow server never holds up SMS sends.
+ *
+ * Each claimed batch becomes one request per webhook URL and one SMTP session for all mail. The
+ * sinks are kept between batches, with their connections.
+ */
+final class SinkDispatcher {
+
+    private static final String TAG = "SinkDispatcher";
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+
+    private static final int MAX_WEBHOOKS = 16;
+    private static final String MAIL = "mailto:";
+
+    private final ExecutorService executor =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "sms-sinks"));
+
+    // Sink thread only
+    private final LinkedHashMap<String, WebhookSink> webhooks =
+            new LinkedHashMap<String, WebhookSink>(MAX_WEBHOOKS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, WebhookSink> eldest) {
+                    return size() > MAX_WEBHOOKS;
+                }
+            };
+    private SmtpSink smtp;
+
+    /**
+     * Records each claimed job as a single part and starts delivering them. Called on the outbox
+     * thread; results come back through {@code callbacks} on the sink thread.
+     */
+    void send(Context context, Outbox outbox, List<Outbox.Job> jobs, Sink.Callbacks callbacks) {
+        final SmtpSink.Config smtpConfig = Preferences.getSmtpConfig(context);
+        final String subject = context.getString(R.string.mail_subject);
+        final String digestSubject = context.getString(R.string.mail_subject_digest);
+
+        final ArrayList<SinkMessage> messages = new ArrayList<>(jobs.size());
+        for (Outbox.Job job : jobs) {
+            outbox.setPartCount(job.id, job.attempt, 1);
+            messages.add(new SinkMessage(job.id, job.attempt, job.messageId, job.recipient,
+                    job.sender, job.senderName, job.body, job.receivedAt, job.digest));
+        }
+
+        executor.execute(() -> deliver(messages, smtpConfig, subject, digestSubject, callbacks));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Internals (sink thread only)
+    // ---------------------------------------------------------------------------------------------
+
+    private void deliver(
+            List<SinkMessage> messages,
+            SmtpSink.Config smtpConfig,
+            String subject,
+            String digestSubject,
+            Sink.Callbacks callbacks
+    ) {
+        LinkedHashMap<String, ArrayList<SinkMessage>> batches = new LinkedHashMap<>();
+        for (SinkMessage message : messages) {
+            String key = Sink.isMail(message.recipient) ? MAIL : message.recipient;
+            ArrayList<SinkMessage> batch = batches.get(key);
+            if (batch == null) {
+                batch = new ArrayList<>();
+                batches.put(key, batch);
+            }
+            batch.add(message);
+        }
+
+        for (Map.Entry<String, ArrayList<SinkMessage>> entry : batches.entrySet()) {
+            List<SinkMessage> batch = entry.getValue();
+            Sink sink = MAIL.equals(entry.getKey())
+                    ? getSmtp(smtpConfig, subject, digestSubject)
+                    : getWebhook(entry.getKey());
+
+            if (sink == null) {
+                for (SinkMessage message : batch) {
+                    callbacks.onFailed(message.jobId, message.attempt, Sink.ERROR_IO, true);
+                }
+                continue;
+            }
+
+            try {
+                if (DEBUG) Log.d(TAG, "Delivering " + batch.size() + " forward(s) to " + describe(entry.getKey()));
+                sink.deliver(batch, callbacks);
+            } catch (RuntimeException e) {
+                // A message already reported is not touched again: the outbox ignores stale results
+                Log.e(TAG, "Sink failed for " + describe(entry.getKey()), e);
+                for (SinkMessage message : batch) {
+                    callbacks.onFailed(message.jobId, message.attempt, Sink.ERROR_IO, false);
+                }
+            }
+        }
+    }
+
+    private Sink getWebhook(String url) {
+        WebhookSink sink = webhooks.get(url);
+        if (sink == null) {
+            try {
+                sink = new WebhookSink(url);
+            } catch (MalformedURLException e) {
+                Log.e(TAG, "Not a valid webhook URL: " + describe(url));
+                return null;
+            }
+            webhooks.put(url, sink);
+        }
+        return sink;
+    }
+
+    private Sink getSmtp(SmtpSink.Config config, String subject, String digestSubject) {
+        if (config == null) {
+            Log.e(TAG, "No mail server is set up, dropping mailto: forwards");
+            if (smtp != null) {
+                smtp.close();
+                smtp = null;
+            }
+            return null;
+        }
+        if (smtp == null || !smtp.getConfig().equals(config)) {
+            if (smtp != null) smtp.close();
+            smtp = new SmtpSink(config, subject, digestSubject);
+        }
+        return smtp;
+    }
+
+    // Webhook URLs may carry credentials, which must not end up in the log
+    private static String describe(String key) {
+        int at = key.indexOf('@');
+        int slash = key.indexOf('/', 8);
+        return (at >= 0 && (slash < 0 || at < slash)) ? "https://" + key.substring(at + 1) : key;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.forwarding.event;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.telephony.SmsManager;
+
+import java.util.ArrayList;
+
+/**
+ * {@link SmsTransport} over the radio, through one subscription's {@code SmsManager}. Sent and
+ * delivered reports arrive as broadcasts to {@link OutboxReceiver}, which hands them to
+ * {@link OutboxDispatcher}.
+ */
+final class SmsManagerTransport implements SmsTransport {
+
+    private final Context context;
+    private final SmsManager sms;
+    private final int subscriptionId; // -1 = the default SMS subscription
+
+    SmsManagerTransport(Context context) {
+        this(context, -1);
+    }
+
+    SmsManagerTransport(Context context, int subscriptionId) {
+        this.context = context.getApplicationContext();
+        this.subscriptionId = subscriptionId;
+        this.sms = (subscriptionId < 0) ? SmsManager.getDefault() : SmsManager.getSmsManagerForSubscriptionId(subscriptionId);
+    }
+
+    @Override
+    public int getSubscriptionId() {
+        return (subscriptionId < 0) ? SmsManager.getDefaultSmsSubscriptionId() : subscriptionId;
+    }
+
+    @Override
+    public ArrayList<String> divideMessage(String text) {
+        return sms.divideMessage(text);
+    }
+
+    @Override
+    public void send(long jobId, int attempt, String destination, ArrayList<String> parts) {
+        ArrayList<PendingIntent> sentIntents = new ArrayList<>(parts.size());
+        ArrayList<PendingIntent> deliveryIntents = new ArrayList<>(parts.size());
+        for (int part = 0; part < parts.size(); part++) {
+            sentIntents.add(callback(OutboxDispatcher.ACTION_SENT, jobId, attempt, part));
+            deliveryIntents.add(callback(OutboxDispatcher.ACTION_DELIVERED, jobId, attempt, part));
+        }
+
+        sms.sendMultipartTextMessage(destination, null, parts, sentIntents, deliveryIntents);
+    }
+
+    private PendingIntent callback(String action, long jobId, int attempt, int part) {
+        // The data URI keeps the PendingIntent of every part and attempt distinct
+        Intent intent = new Intent(context, OutboxReceiver.class)
+                .setAction(action)
+                .setData(Uri.parse("outbox://job/" + jobId + "/" + attempt + "/" + part))
+                .putExtra(OutboxDispatcher.EXTRA_JOB_ID, jobId)
+                .putExtra(OutboxDispatcher.EXTRA_ATTEMPT, attempt);
+
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_ONE_SHOT);
+    }
+}
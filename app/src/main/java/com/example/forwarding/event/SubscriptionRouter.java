@@ -0,0 +1,190 @@
+package com.example.forwarding.event;
+
+import android.content.Context;
+import android.telephony.SmsManager;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.util.Log;
+
+import com.example.forwarding.data_model.Preferences;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The subscriptions (SIMs) forwards can go out on, one {@link SmsTransport} each, and the
+ * {@link SubscriptionBalancer} that spreads jobs over them and tracks their health.
+ *
+ * Only touched from the outbox thread.
+ */
+final class SubscriptionRouter {
+
+    private static final String TAG = "SubscriptionRouter";
+
+    // Jobs whose reports may still arrive, so a result is charged to the SIM it was sent on
+    private static final int MAX_TRACKED_JOBS = 256;
+
+    private volatile SubscriptionBalancer balancer; // also read by describe(), from any thread
+    private int[] subscriptions = new int[0];
+    private int[] slots = new int[0];          // 1-based SIM slot of each subscription, 0 = unknown
+    private SmsTransport[] transports = new SmsTransport[0];
+    private SmsTransport replacement;
+
+    private final LinkedHashMap<Long, Attempt> sending =
+            new LinkedHashMap<Long, Attempt>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Attempt> eldest) {
+                    return size() > MAX_TRACKED_JOBS;
+                }
+            };
+
+    /**
+     * Re-reads the balancing strategy and the active subscriptions, keeping the transports and
+     * health state when nothing changed.
+     *
+     * @param replacement a single transport to use instead of the radio, or null
+     */
+    void refresh(Context context, SmsTransport replacement) {
+        SubscriptionBalancer.Strategy strategy = Preferences.getSimStrategy(context);
+        if (balancer == null || balancer.getStrategy() != strategy) {
+            balancer = new SubscriptionBalancer(strategy);
+        }
+
+        if (replacement != null) {
+            if (replacement != this.replacement) {
+                this.replacement = replacement;
+                subscriptions = new int[] { replacement.getSubscriptionId() };
+                slots = new int[1];
+                transports = new SmsTransport[] { replacement };
+            }
+            return;
+        }
+
+        int[][] active = activeSubscriptions(context);
+        if (this.replacement == null && Arrays.equals(active[0], subscriptions)) {
+            slots = active[1];
+            return;
+        }
+
+        this.replacement = null;
+        subscriptions = active[0];
+        slots = active[1];
+        transports = new SmsTransport[subscriptions.length];
+        for (int i = 0; i < subscriptions.length; i++) {
+            transports[i] = new SmsManagerTransport(context, subscriptions[i]);
+        }
+    }
+
+    /**
+     * Candidate subscriptions for one send, best first.
+     *
+     * @param pinnedSlot 1-based SIM slot a rule pinned the recipient to, or 0
+     */
+    int[] order(int pinnedSlot, long now) {
+        int pinned = -1;
+        if (pinnedSlot > 0) {
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] == pinnedSlot) pinned = subscriptions[i];
+            }
+        }
+        return balancer.order(subscriptions, pinned, now);
+    }
+
+    SmsTransport transport(int subscription) {
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i] == subscription) return transports[i];
+        }
+        return transports[0];
+    }
+
+    SubscriptionBalancer balancer() {
+        return balancer;
+    }
+
+    void onSending(long jobId, int attempt, int subscription, int parts, long now) {
+        Attempt previous = sending.put(jobId, new Attempt(attempt, subscription, parts));
+        // A failed part can get the job retried before the rest of its parts are reported
+        if (previous != null && previous.failed) report(previous, now);
+    }
+
+    /**
+     * A part of {@code jobId} was reported sent ({@code ok}) or failed. The subscription is
+     * charged once per attempt, when its last part is reported: one success, or one failure however
+     * many of its parts failed.
+     */
+    void onPartResult(long jobId, int attempt, boolean ok, long now) {
+        Attempt sent = sending.get(jobId);
+        if (sent == null || sent.attempt != attempt) return;
+
+        if (!ok) sent.failed = true;
+        if (--sent.partsPending > 0) return;
+        sending.remove(jobId);
+        report(sent, now);
+    }
+
+    /** The attempt failed before any part reached the radio. */
+    void onAttemptFailed(long jobId, int attempt, long now) {
+        Attempt sent = sending.get(jobId);
+        if (sent == null || sent.attempt != attempt) return;
+
+        sending.remove(jobId);
+        sent.failed = true;
+        report(sent, now);
+    }
+
+    private void report(Attempt sent, long now) {
+        if (!sent.failed) {
+            balancer.onSent(sent.subscription);
+            return;
+        }
+        balancer.onFailed(sent.subscription, now);
+        if (!balancer.isHealthy(sent.subscription, now)) {
+            Log.w(TAG, "Draining subscription " + sent.subscription + " after repeated failures");
+        }
+    }
+
+    /** The balancer's health of each subscription; unlike the rest, callable from any thread. */
+    String describe(long now) {
+        SubscriptionBalancer balancer = this.balancer;
+        return balancer == null ? "" : balancer.describe(now);
+    }
+
+    private static final class Attempt {
+        final int attempt;
+        final int subscription;
+        int partsPending;
+        boolean failed;
+
+        Attempt(int attempt, int subscription, int parts) {
+            this.attempt = attempt;
+            this.subscription = subscription;
+            this.partsPending = parts;
+        }
+    }
+
+    // { subscription ids, SIM slots }, ordered by slot. Without READ_PHONE_STATE, or on a
+    // device with one SIM, this is just the default SMS subscription.
+    private static int[][] activeSubscriptions(Context context) {
+        try {
+            SubscriptionManager manager = context.getSystemService(SubscriptionManager.class);
+            List<SubscriptionInfo> infos = (manager == null) ? null : manager.getActiveSubscriptionInfoList();
+            if (infos != null && infos.size() > 1) {
+                SubscriptionInfo[] sorted = infos.toArray(new SubscriptionInfo[0]);
+                Arrays.sort(sorted, (a, b) -> Integer.compare(a.getSimSlotIndex(), b.getSimSlotIndex()));
+
+                int[] ids = new int[sorted.length];
+                int[] slots = new int[sorted.length];
+                for (int i = 0; i < sorted.length; i++) {
+                    ids[i] = sorted[i].getSubscriptionId();
+                    slots[i] = sorted[i].getSimSlotIndex() + 1;
+                }
+                return new int[][] { ids, slots };
+            }
+        } catch (SecurityException e) {
+            Log.w(TAG, "No READ_PHONE_STATE, sending on the default SIM only");
+        }
+        return new int[][] { { SmsManager.getDefaultSmsSubscriptionId() }, { 0 } };
+    }
+}
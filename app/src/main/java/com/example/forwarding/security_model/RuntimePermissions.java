@@ -3,11 +3,18 @@ package com.example.forwarding.security_model;
 import android.app.Activity;
 import android.content.pm.PackageManager;
 import android.os.Build;
+
+import com.example.forwarding.data_model.Preferences;
+
 import java.util.ArrayList;
 
 public final class RuntimePermissions {
     private static final int REQUEST_CODE = 0;
 
+    // Lists every SIM so forwards can be spread over them; without it the default SIM is used.
+    // Asked for until the user refuses it once.
+    private static final String PERMISSION_OPTIONAL = "android.permission.READ_PHONE_STATE";
+
     protected static String[] getMissingPermissions(Activity activity, String[] permissions_all) {
         ArrayList<String> permissions_req = new ArrayList<String>();
 
@@ -29,12 +36,27 @@ public final class RuntimePermissions {
             return true;
 
         final String[] permissions_all = new String[]{ "android.permission.RECEIVE_SMS", "android.permission.SEND_SMS" };
+        final String[] permissions_opt = new String[]{ PERMISSION_OPTIONAL };
+
         final String[] permissions_req = RuntimePermissions.getMissingPermissions(activity, permissions_all);
+        final String[] permissions_opt_req = Preferences.isPhoneStateDeclined(activity)
+                ? null
+                : RuntimePermissions.getMissingPermissions(activity, permissions_opt);
 
-        if (permissions_req == null)
+        if (permissions_req == null) {
+            if (permissions_opt_req != null)
+                activity.requestPermissions(permissions_opt_req, REQUEST_CODE);
             return true;
+        }
+
+        String[] permissions_ask = permissions_req;
+        if (permissions_opt_req != null) {
+            permissions_ask = new String[permissions_req.length + permissions_opt_req.length];
+            System.arraycopy(permissions_req, 0, permissions_ask, 0, permissions_req.length);
+            System.arraycopy(permissions_opt_req, 0, permissions_ask, permissions_req.length, permissions_opt_req.length);
+        }
 
-        activity.requestPermissions(permissions_req, REQUEST_CODE);
+        activity.requestPermissions(permissions_ask, REQUEST_CODE);
         return false;
     }
 
@@ -45,10 +67,20 @@ public final class RuntimePermissions {
         if (grantResults.length == 0)
             return;
 
-        for (int result : grantResults) {
-            if (result != PackageManager.PERMISSION_GRANTED) return;
+        // The activity only waits for the required permissions; the optional one may be denied
+        boolean required = false;
+        for (int i = 0; i < grantResults.length && i < permissions.length; i++) {
+            if (PERMISSION_OPTIONAL.equals(permissions[i])) {
+                if (grantResults[i] != PackageManager.PERMISSION_GRANTED) {
+                    Preferences.setPhoneStateDeclined(activity, true);
+                }
+                continue;
+            }
+            if (grantResults[i] != PackageManager.PERMISSION_GRANTED) return;
+            required = true;
         }
 
-        activity.recreate();
+        if (required)
+            activity.recreate();
     }
 }
@@ -15,33 +15,82 @@ package com.example.forwarding.ui;
 
 import com.example.forwarding.R;
 import com.example.forwarding.data_model.Preferences;
+import com.example.forwarding.data_model.RecipientGroup;
 import com.example.forwarding.data_model.RecipientListItem;
+import com.example.forwarding.data_model.RuleExpression;
+import com.example.forwarding.data_model.RuleIndex;
+import com.example.forwarding.data_model.RuleSet;
+import com.example.forwarding.event.ForwardingService;
+import com.example.forwarding.event.OutboxDispatcher;
+import com.example.forwarding.event.Sink;
+import com.example.forwarding.event.SmtpSink;
+import com.example.forwarding.metrics.Metrics;
 import com.example.forwarding.security_model.RuntimePermissions;
 
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.Dialog;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.PowerManager;
+import android.provider.Settings;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.Window;
-import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.EditText;
-import android.widget.ListView;
+import android.widget.Spinner;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
 
 public class RecipientListActivity extends Activity {
 
+    private static final String TAG = "RecipientListActivity";
+
+    private static final String PERMISSION_NOTIFICATIONS = "android.permission.POST_NOTIFICATIONS";
+    private static final int REQUEST_NOTIFICATIONS = 1; // RuntimePermissions uses 0
+    private static final int REQUEST_EXPORT = 2;
+    private static final int REQUEST_IMPORT = 3;
+
+    // Reads, saves and indexes the rules off the main thread; one thread, so results arrive in
+    // order
+    private static final ExecutorService LOADER =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "rule-list"));
+
     private CheckBox inputEnable;
-    private ListView listView;
+    private EditText inputSearch;
+    private RecyclerView recyclerView;
 
-    private ArrayList<RecipientListItem> listItems;
-    private ArrayAdapter<RecipientListItem> listAdapter;
+    // Main thread only. Rules in it are replaced on edit, never changed, so the loader and the
+    // adapter's diff can read them from other threads.
+    private ArrayList<RecipientListItem> listItems = new ArrayList<>();
+    private RuleIndex ruleIndex; // null until the rules are loaded
+    private int indexVersion;
+    private RuleListAdapter listAdapter;
 
     // ---------------------------------------------------------------------------------------------
     // Lifecycle
@@ -60,21 +109,35 @@ public class RecipientListActivity extends Activity {
         setContentView(R.layout.activity_recipient_list);
 
         inputEnable = findViewById(R.id.input_enable);
-        listView = findViewById(R.id.listview);
+        inputSearch = findViewById(R.id.input_search);
+        recyclerView = findViewById(R.id.recyclerview);
 
-        listItems = Preferences.getRecipientListItems(this);
-        listAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, listItems);
-        listView.setAdapter(listAdapter);
+        listAdapter = new RuleListAdapter(this::showEditDialog);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        recyclerView.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+        recyclerView.setAdapter(listAdapter);
 
-        listView.setOnItemClickListener(
-                (AdapterView<?> parent, View view, int position, long id) ->
-                        showEditDialog(position)
-        );
+        inputSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                showRules();
+            }
+        });
+
+        loadRules();
 
         // Forwarding is ALWAYS enabled
         inputEnable.setChecked(true);
         inputEnable.setEnabled(false);
         inputEnable.setClickable(false);
+
+        ForwardingService.startIfEnabled(this);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -105,27 +168,423 @@ public class RecipientListActivity extends Activity {
             getActionBar().setDisplayShowHomeEnabled(false);
         }
         getMenuInflater().inflate(R.menu.activity_recipient_list, menu);
+        menu.findItem(R.id.menu_gateway_mode).setChecked(Preferences.isGatewayMode(this));
+        menu.findItem(R.id.menu_adaptive_order)
+                .setChecked(Preferences.getRuleOrder(this) == RuleSet.Order.ADAPTIVE);
         return true;
     }
 
     @Override
     public boolean onOptionsItemSelected(MenuItem menuItem) {
         if (menuItem.getItemId() == R.id.menu_add) {
-            showEditDialog(-1);
+            if (ruleIndex != null) showEditDialog(null); // not before the rules are loaded
+            return true;
+        }
+        if (menuItem.getItemId() == R.id.menu_metrics) {
+            loadMetrics();
+            return true;
+        }
+        if (menuItem.getItemId() == R.id.menu_groups) {
+            loadGroups();
+            return true;
+        }
+        if (menuItem.getItemId() == R.id.menu_smtp) {
+            showSmtpDialog(Preferences.getSmtpConfig(this));
+            return true;
+        }
+        if (menuItem.getItemId() == R.id.menu_export) {
+            exportRules();
+            return true;
+        }
+        if (menuItem.getItemId() == R.id.menu_import) {
+            if (ruleIndex != null) confirmImport();
+            return true;
+        }
+        if (menuItem.getItemId() == R.id.menu_gateway_mode) {
+            boolean enabled = !menuItem.isChecked();
+            menuItem.setChecked(enabled);
+            setGatewayMode(enabled);
+            return true;
+        }
+        if (menuItem.getItemId() == R.id.menu_adaptive_order) {
+            boolean adaptive = !menuItem.isChecked();
+            menuItem.setChecked(adaptive);
+            Preferences.setRuleOrder(this, adaptive ? RuleSet.Order.ADAPTIVE : RuleSet.Order.LIST);
             return true;
         }
         return super.onOptionsItemSelected(menuItem);
     }
 
+    // ---------------------------------------------------------------------------------------------
+    // Rule list
+    // ---------------------------------------------------------------------------------------------
+
+    private void loadRules() {
+        final Context appContext = getApplicationContext();
+        final int version = ++indexVersion;
+
+        LOADER.execute(() -> {
+            final ArrayList<RecipientListItem> items = Preferences.getRecipientListItems(appContext);
+            final RuleIndex index = new RuleIndex(items, RuleSet.DEFAULT_FOLDING);
+            runOnUiThread(() -> {
+                if (isDestroyed() || version != indexVersion) return;
+                listItems = items;
+                ruleIndex = index;
+                showRules();
+            });
+        });
+    }
+
+    // After an edit; the list on screen follows as soon as the new index is built
+    private void reindexRules() {
+        final ArrayList<RecipientListItem> snapshot = new ArrayList<>(listItems);
+        final int version = ++indexVersion;
+
+        LOADER.execute(() -> {
+            final RuleIndex index = new RuleIndex(snapshot, RuleSet.DEFAULT_FOLDING);
+            runOnUiThread(() -> {
+                if (isDestroyed() || version != indexVersion) return;
+                ruleIndex = index;
+                showRules();
+            });
+        });
+    }
+
+    private void showRules() {
+        if (ruleIndex == null) return;
+        listAdapter.submitList(ruleIndex.search(inputSearch.getText().toString()));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Export / import
+    // ---------------------------------------------------------------------------------------------
+
+    // As JSON, the format older versions kept the rules in, so either can read a backup
+    private void exportRules() {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT)
+                .addCategory(Intent.CATEGORY_OPENABLE)
+                .setType("application/json")
+                .putExtra(Intent.EXTRA_TITLE, "forwarding-rules.json");
+        startActivityForResult(intent, REQUEST_EXPORT);
+    }
+
+    private void confirmImport() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.title_import)
+                .setMessage(getString(R.string.message_import))
+                .setPositiveButton(R.string.label_button_import, (dialog, which) -> {
+                    Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT)
+                            .addCategory(Intent.CATEGORY_OPENABLE)
+                            .setType("application/json");
+                    startActivityForResult(intent, REQUEST_IMPORT);
+                })
+                .setNegativeButton(R.string.label_button_cancel, null)
+                .show();
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) return;
+
+        final Context appContext = getApplicationContext();
+        final ContentResolver resolver = getContentResolver();
+        final Uri uri = data.getData();
+
+        if (requestCode == REQUEST_EXPORT) {
+            LOADER.execute(() -> {
+                final ArrayList<RecipientListItem> items = Preferences.getRecipientListItems(appContext);
+                final boolean exported = writeJson(resolver, uri, RecipientListItem.toJson(items));
+                runOnUiThread(() -> Toast.makeText(
+                        appContext,
+                        exported ? R.string.message_exported : R.string.error_export,
+                        Toast.LENGTH_SHORT
+                ).show());
+            });
+        } else if (requestCode == REQUEST_IMPORT) {
+            LOADER.execute(() -> {
+                ArrayList<RecipientListItem> items = readJson(resolver, uri);
+                final int error = (items == null) ? R.string.error_import
+                        : !Preferences.setRecipientListItems(appContext, items) ? R.string.error_save_rules
+                        : 0;
+                runOnUiThread(() -> {
+                    if (error != 0) {
+                        Toast.makeText(appContext, error, Toast.LENGTH_LONG).show();
+                    } else if (!isDestroyed()) {
+                        loadRules();
+                    }
+                });
+            });
+        }
+    }
+
+    private static boolean writeJson(ContentResolver resolver, Uri uri, String json) {
+        try (OutputStream out = resolver.openOutputStream(uri, "wt")) {
+            if (out == null) return false;
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not export the rules", e);
+            return false;
+        }
+    }
+
+    // The rules in the file with their ids cleared, so they get new ones; null if not a rule list
+    private static ArrayList<RecipientListItem> readJson(ContentResolver resolver, Uri uri) {
+        try (InputStream in = resolver.openInputStream(uri)) {
+            if (in == null) return null;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int count; (count = in.read(buffer)) > 0; ) {
+                bytes.write(buffer, 0, count);
+            }
+
+            ArrayList<RecipientListItem> items = RecipientListItem.fromJson(bytes.toString("UTF-8"));
+            if (items == null) return null;
+            items.removeIf(item -> item == null || item.recipient == null);
+            for (RecipientListItem item : items) {
+                item.id = 0;
+            }
+            return items;
+        } catch (IOException | RuntimeException e) { // Gson reports malformed JSON unchecked
+            Log.e(TAG, "Could not import the rules", e);
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Gateway mode
+    // ---------------------------------------------------------------------------------------------
+
+    private void setGatewayMode(boolean enabled) {
+        Preferences.setGatewayMode(this, enabled);
+        if (!enabled) {
+            ForwardingService.stop(this);
+            return;
+        }
+
+        // The notification is what keeps the service in the foreground on Android 13+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && checkSelfPermission(PERMISSION_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+            requestPermissions(new String[]{ PERMISSION_NOTIFICATIONS }, REQUEST_NOTIFICATIONS);
+        }
+        ForwardingService.start(this);
+
+        // Wake locks are ignored in Doze unless the app is exempt from battery optimization
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        if (powerManager != null && !powerManager.isIgnoringBatteryOptimizations(getPackageName())) {
+            startActivity(new Intent(Settings.ACTION_IGNORE_BATTERY_OPTIMIZATION_SETTINGS));
+        }
+
+        // Otherwise outbox retries run on inexact alarms, which may be minutes late
+        if (!OutboxDispatcher.canScheduleExactAlarms(this)) {
+            startActivity(new Intent(Settings.ACTION_REQUEST_SCHEDULE_EXACT_ALARM,
+                    Uri.parse("package:" + getPackageName())));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Metrics
+    // ---------------------------------------------------------------------------------------------
+
+    // The rule stats may still have to be read from disk
+    private void loadMetrics() {
+        final Context appContext = getApplicationContext();
+        final ArrayList<RecipientListItem> items = new ArrayList<>(listItems);
+
+        LOADER.execute(() -> {
+            // SIM health and per-rule counts after the pipeline totals, to find drained SIMs and
+            // rules that never fire
+            long now = System.currentTimeMillis();
+            String subscriptions = OutboxDispatcher.describeSubscriptions(now);
+            final String snapshot = Metrics.dump() + "\n"
+                    + (subscriptions.isEmpty() ? "" : subscriptions + "\n")
+                    + Preferences.getRuleStats(appContext).describe(items, now);
+            runOnUiThread(() -> {
+                if (!isDestroyed()) showMetricsDialog(snapshot);
+            });
+        });
+    }
+
+    private void showMetricsDialog(final String snapshot) {
+        final View view = getLayoutInflater().inflate(R.layout.dialog_metrics, null);
+        final TextView textMetrics = view.findViewById(R.id.text_metrics);
+        textMetrics.setText(snapshot);
+        final Context appContext = getApplicationContext();
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.title_metrics)
+                .setView(view)
+                .setPositiveButton(R.string.label_button_share, (dialog, which) -> shareMetrics(snapshot))
+                .setNeutralButton(R.string.label_button_reset, (dialog, which) -> {
+                    Metrics.reset();
+                    LOADER.execute(() -> Preferences.resetRuleStats(appContext));
+                })
+                .setNegativeButton(R.string.label_button_close, null)
+                .show();
+    }
+
+    // Plain-text export, e.g. to attach to a bug report
+    private void shareMetrics(String snapshot) {
+        Intent intent = new Intent(Intent.ACTION_SEND)
+                .setType("text/plain")
+                .putExtra(Intent.EXTRA_SUBJECT, getString(R.string.title_metrics))
+                .putExtra(Intent.EXTRA_TEXT, snapshot);
+        startActivity(Intent.createChooser(intent, getString(R.string.label_button_share)));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Recipient groups
+    // ---------------------------------------------------------------------------------------------
+
+    private void loadGroups() {
+        final Context appContext = getApplicationContext();
+
+        LOADER.execute(() -> {
+            final String text = RecipientGroup.format(Preferences.getRecipientGroups(appContext));
+            runOnUiThread(() -> {
+                if (!isDestroyed()) showGroupsDialog(text);
+            });
+        });
+    }
+
+    private void showGroupsDialog(String text) {
+        final View view = getLayoutInflater().inflate(R.layout.dialog_recipient_groups, null);
+        final EditText inputGroups = view.findViewById(R.id.input_groups);
+        inputGroups.setText(text);
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.title_groups)
+                .setView(view)
+                .setPositiveButton(R.string.label_button_save, (dialog, which) -> saveGroups(inputGroups.getText().toString()))
+                .setNegativeButton(R.string.label_button_cancel, null)
+                .show();
+    }
+
+    private void saveGroups(final String text) {
+        final ArrayList<RecipientGroup> groups;
+        try {
+            groups = RecipientGroup.parse(text);
+        } catch (IllegalArgumentException e) {
+            Toast.makeText(
+                    this,
+                    getResources().getString(R.string.error_invalid_groups, e.getMessage()),
+                    Toast.LENGTH_LONG
+            ).show();
+            showGroupsDialog(text); // so the edit is not lost
+            return;
+        }
+        for (RecipientGroup group : groups) {
+            String unsupported = Sink.findUnsupported(group.members);
+            if (unsupported != null) {
+                Toast.makeText(
+                        this,
+                        getResources().getString(R.string.error_unsupported_recipient, unsupported),
+                        Toast.LENGTH_LONG
+                ).show();
+                showGroupsDialog(text);
+                return;
+            }
+        }
+
+        final Context appContext = getApplicationContext();
+        LOADER.execute(() -> {
+            final boolean saved = Preferences.setRecipientGroups(appContext, groups);
+            runOnUiThread(() -> {
+                if (saved || isDestroyed()) return;
+                Toast.makeText(this, R.string.error_save_rules, Toast.LENGTH_LONG).show();
+                showGroupsDialog(text);
+            });
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Mail server
+    // ---------------------------------------------------------------------------------------------
+
+    // config: the values to show, null for empty fields
+    private void showSmtpDialog(SmtpSink.Config config) {
+        final View view = getLayoutInflater().inflate(R.layout.dialog_smtp, null);
+        final EditText inputHost = view.findViewById(R.id.input_smtp_host);
+        final EditText inputPort = view.findViewById(R.id.input_smtp_port);
+        final Spinner inputSecurity = view.findViewById(R.id.input_smtp_security);
+        final EditText inputUsername = view.findViewById(R.id.input_smtp_username);
+        final EditText inputPassword = view.findViewById(R.id.input_smtp_password);
+        final EditText inputFrom = view.findViewById(R.id.input_smtp_from);
+
+        SmtpSink.Security security = (config == null) ? SmtpSink.Security.STARTTLS : config.security;
+        inputSecurity.setSelection(security.ordinal());
+        if (config != null) {
+            inputHost.setText(config.host);
+            if (config.port > 0) inputPort.setText(String.valueOf(config.port));
+            inputUsername.setText(config.username);
+            inputPassword.setText(config.password);
+            inputFrom.setText(config.from);
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.title_smtp)
+                .setView(view)
+                .setPositiveButton(R.string.label_button_save, (dialog, which) -> saveSmtpConfig(
+                        inputHost.getText().toString().trim(),
+                        inputPort.getText().toString().trim(),
+                        SmtpSink.Security.values()[inputSecurity.getSelectedItemPosition()],
+                        inputUsername.getText().toString().trim(),
+                        inputPassword.getText().toString(),
+                        inputFrom.getText().toString().trim()
+                ))
+                .setNeutralButton(R.string.label_button_delete,
+                        (dialog, which) -> Preferences.setSmtpConfig(this, null))
+                .setNegativeButton(R.string.label_button_cancel, null)
+                .show();
+    }
+
+    private void saveSmtpConfig(
+            String host,
+            String port,
+            SmtpSink.Security security,
+            String username,
+            String password,
+            String from
+    ) {
+        int portNumber;
+        if (port.isEmpty()) {
+            portNumber = (security == SmtpSink.Security.TLS) ? 465 : 587;
+        } else {
+            try {
+                portNumber = Integer.parseInt(port);
+            } catch (NumberFormatException e) {
+                portNumber = 0;
+            }
+        }
+
+        // Username empty: the server takes mail without AUTH
+        SmtpSink.Config config = new SmtpSink.Config(
+                host,
+                portNumber,
+                security,
+                username.isEmpty() ? null : username,
+                username.isEmpty() ? null : password,
+                from
+        );
+        if (host.isEmpty() || portNumber < 1 || portNumber > 65535 || from.indexOf('@') < 1) {
+            Toast.makeText(this, R.string.error_invalid_smtp, Toast.LENGTH_LONG).show();
+            showSmtpDialog(config); // so the edit is not lost
+            return;
+        }
+        Preferences.setSmtpConfig(this, config);
+    }
+
     // ---------------------------------------------------------------------------------------------
     // Add / Edit Dialog
     // ---------------------------------------------------------------------------------------------
 
-    private void showEditDialog(final int position) {
+    private void showEditDialog(final RecipientListItem original) {
 
-        final boolean isAdd = (position < 0);
+        // Edit a copy: the list diff compares the old rule with the new one
+        final boolean isAdd = (original == null);
         final RecipientListItem listItem =
-                isAdd ? new RecipientListItem() : listItems.get(position);
+                isAdd ? new RecipientListItem() : new RecipientListItem(original);
+        final Context appContext = getApplicationContext();
 
         final Dialog dialog = new Dialog(this, R.style.app_theme);
         dialog.requestWindowFeature(Window.FEATURE_NO_TITLE);
@@ -135,6 +594,11 @@ public class RecipientListActivity extends Activity {
         final EditText inputSender = dialog.findViewById(R.id.input_sender);
         final EditText inputKeywords = dialog.findViewById(R.id.input_keywords);
         final EditText inputBlacklist = dialog.findViewById(R.id.input_blacklist);
+        final EditText inputExpression = dialog.findViewById(R.id.input_expression);
+        final EditText inputDigestWindow = dialog.findViewById(R.id.input_digest_window);
+        final EditText inputDigestCount = dialog.findViewById(R.id.input_digest_count);
+        final EditText inputSimSlot = dialog.findViewById(R.id.input_sim_slot);
+        final CheckBox inputStopProcessing = dialog.findViewById(R.id.input_stop_processing);
 
         final Button buttonDelete = dialog.findViewById(R.id.button_delete);
         final Button buttonSave = dialog.findViewById(R.id.button_save);
@@ -146,6 +610,11 @@ public class RecipientListActivity extends Activity {
         );
         inputKeywords.setText(listItem.keywords == null ? "" : listItem.keywords);
         inputBlacklist.setText(listItem.blacklist == null ? "" : listItem.blacklist);
+        inputExpression.setText(listItem.expression == null ? "" : listItem.expression);
+        inputDigestWindow.setText(listItem.digestWindowSeconds > 0 ? Integer.toString(listItem.digestWindowSeconds) : "");
+        inputDigestCount.setText(listItem.digestMaxMessages > 0 ? Integer.toString(listItem.digestMaxMessages) : "");
+        inputSimSlot.setText(listItem.simSlot > 0 ? Integer.toString(listItem.simSlot) : "");
+        inputStopProcessing.setChecked(listItem.stopProcessing);
 
         if (isAdd) {
             buttonDelete.setText(R.string.label_button_cancel);
@@ -153,12 +622,16 @@ public class RecipientListActivity extends Activity {
 
         // Delete / Cancel
         buttonDelete.setOnClickListener(v -> {
-            if (!isAdd) {
-                listItems.remove(position);
-                listAdapter.notifyDataSetChanged();
-                Preferences.setRecipientListItems(this, listItems);
+            if (isAdd) {
+                dialog.dismiss();
+                return;
             }
-            dialog.dismiss();
+            saveRule(dialog,
+                    () -> Preferences.removeRecipientListItem(appContext, listItem.id),
+                    () -> {
+                        int at = indexOfRule(listItem.id);
+                        if (at >= 0) listItems.remove(at);
+                    });
         });
 
         // Save
@@ -168,6 +641,7 @@ public class RecipientListActivity extends Activity {
             String newSender = inputSender.getText().toString().trim();
             String newKeywords = inputKeywords.getText().toString().trim();
             String newBlacklist = inputBlacklist.getText().toString().trim();
+            String newExpression = inputExpression.getText().toString().trim();
 
             if (newRecipient.isEmpty()) {
                 Toast.makeText(
@@ -178,6 +652,26 @@ public class RecipientListActivity extends Activity {
                 return;
             }
 
+            // e.g. http://, which would otherwise go out as an SMS to a number that does not exist
+            String unsupported = Sink.findUnsupported(newRecipient);
+            if (unsupported != null) {
+                inputRecipient.setError(getResources().getString(R.string.error_unsupported_recipient, unsupported));
+                inputRecipient.requestFocus();
+                return;
+            }
+
+            if (!newExpression.isEmpty()) {
+                String error = RuleExpression.validate(newExpression);
+                if (error != null) {
+                    Toast.makeText(
+                            this,
+                            getResources().getString(R.string.error_invalid_expression, error),
+                            Toast.LENGTH_LONG
+                    ).show();
+                    return;
+                }
+            }
+
             if (newSender.isEmpty()) {
                 newSender = "*";
             }
@@ -186,16 +680,73 @@ public class RecipientListActivity extends Activity {
             listItem.sender = newSender;
             listItem.keywords = newKeywords;
             listItem.blacklist = newBlacklist;
+            listItem.expression = newExpression.isEmpty() ? null : newExpression;
+            listItem.digestWindowSeconds = parseCount(inputDigestWindow);
+            listItem.digestMaxMessages = parseCount(inputDigestCount);
+            listItem.simSlot = parseCount(inputSimSlot);
+            listItem.stopProcessing = inputStopProcessing.isChecked();
+
+            saveRule(dialog,
+                    () -> isAdd
+                            ? Preferences.addRecipientListItem(appContext, listItem)
+                            : Preferences.updateRecipientListItem(appContext, listItem),
+                    () -> putRule(listItem));
+        });
 
-            if (isAdd) {
-                listItems.add(listItem);
-            }
+        dialog.show();
+    }
 
-            listAdapter.notifyDataSetChanged();
-            Preferences.setRecipientListItems(this, listItems);
-            dialog.dismiss();
+    /**
+     * Runs {@code save} on the loader thread, and only once it is on disk updates the list and
+     * closes the dialog; if it could not be saved the dialog stays open so the edit is not lost.
+     */
+    private void saveRule(final Dialog dialog, final BooleanSupplier save, final Runnable onSaved) {
+        final Button buttonSave = dialog.findViewById(R.id.button_save);
+        final Button buttonDelete = dialog.findViewById(R.id.button_delete);
+        buttonSave.setEnabled(false);
+        buttonDelete.setEnabled(false);
+
+        LOADER.execute(() -> {
+            final boolean saved = save.getAsBoolean();
+            runOnUiThread(() -> {
+                if (isDestroyed()) return;
+                buttonSave.setEnabled(true);
+                buttonDelete.setEnabled(true);
+                if (!saved) {
+                    Toast.makeText(this, R.string.error_save_rules, Toast.LENGTH_LONG).show();
+                    return;
+                }
+                onSaved.run();
+                reindexRules();
+                dialog.dismiss();
+            });
         });
+    }
 
-        dialog.show();
+    // By id: the list may have been reloaded while the rule was saved, and then holds other
+    // copies of the rules, or already the saved rule itself
+    private void putRule(RecipientListItem listItem) {
+        int at = indexOfRule(listItem.id);
+        if (at >= 0) {
+            listItems.set(at, listItem);
+        } else {
+            listItems.add(listItem);
+        }
+    }
+
+    private int indexOfRule(long id) {
+        for (int i = 0; i < listItems.size(); i++) {
+            if (listItems.get(i).id == id) return i;
+        }
+        return -1;
+    }
+
+    // Empty or unparsable means 0, i.e. not set
+    private static int parseCount(EditText input) {
+        try {
+            return Math.max(Integer.parseInt(input.getText().toString().trim()), 0);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
     }
 }
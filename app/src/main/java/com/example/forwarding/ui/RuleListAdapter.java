@@ -0,0 +1,110 @@
+package com.example.forwarding.ui;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.forwarding.R;
+import com.example.forwarding.data_model.RecipientListItem;
+
+import java.util.Objects;
+
+/**
+ * Rows of the rule list: recipients, and below them what the rule listens for.
+ *
+ * Lists are diffed by rule id on a background thread, so an edit or a search rebinds only the
+ * rows that changed. Rules are never changed in place once submitted; an edit submits a copy,
+ * otherwise the diff would see no change.
+ */
+final class RuleListAdapter extends ListAdapter<RecipientListItem, RuleListAdapter.Holder> {
+
+    interface OnRuleClickListener {
+        void onRuleClick(RecipientListItem item);
+    }
+
+    private static final DiffUtil.ItemCallback<RecipientListItem> DIFF = new DiffUtil.ItemCallback<RecipientListItem>() {
+        @Override
+        public boolean areItemsTheSame(RecipientListItem a, RecipientListItem b) {
+            return a.id == b.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(RecipientListItem a, RecipientListItem b) {
+            return Objects.equals(a.recipient, b.recipient)
+                    && Objects.equals(a.sender, b.sender)
+                    && Objects.equals(a.keywords, b.keywords)
+                    && Objects.equals(a.blacklist, b.blacklist)
+                    && Objects.equals(a.expression, b.expression)
+                    && a.digestWindowSeconds == b.digestWindowSeconds
+                    && a.digestMaxMessages == b.digestMaxMessages
+                    && a.stopProcessing == b.stopProcessing;
+        }
+    };
+
+    private final OnRuleClickListener listener;
+
+    RuleListAdapter(OnRuleClickListener listener) {
+        super(DIFF);
+        this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).id;
+    }
+
+    @Override
+    public Holder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.listitem_rule, parent, false);
+        Holder holder = new Holder(view);
+        // By position, not the bound rule: a row is not rebound when only unshown fields change
+        view.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) listener.onRuleClick(getItem(position));
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(Holder holder, int position) {
+        RecipientListItem item = getItem(position);
+        holder.textRecipient.setText(item.recipient);
+        holder.textCriteria.setText(describe(item));
+    }
+
+    // "sbi, pnb · otp, code · not jio", with the expression in place of the keywords
+    private static String describe(RecipientListItem item) {
+        StringBuilder text = new StringBuilder();
+        text.append(isSet(item.sender) ? item.sender : "*");
+        if (isSet(item.expression)) {
+            text.append(" · ").append(item.expression);
+        } else if (isSet(item.keywords)) {
+            text.append(" · ").append(item.keywords);
+        }
+        if (isSet(item.blacklist)) text.append(" · not ").append(item.blacklist);
+        if (item.digestWindowSeconds > 0 || item.digestMaxMessages > 0) text.append(" · digest");
+        if (item.stopProcessing) text.append(" · stop");
+        return text.toString();
+    }
+
+    private static boolean isSet(String value) {
+        return value != null && !value.trim().isEmpty();
+    }
+
+    static final class Holder extends RecyclerView.ViewHolder {
+        final TextView textRecipient;
+        final TextView textCriteria;
+
+        Holder(View view) {
+            super(view);
+            textRecipient = view.findViewById(R.id.text_recipient);
+            textCriteria = view.findViewById(R.id.text_criteria);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.forwarding.benchmark;
+
+import com.example.forwarding.data_model.RecipientListItem;
+import com.example.forwarding.data_model.RuleCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/** Cold-load cost of the binary rule file against the Gson JSON it replaced. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RuleCodecBenchmark {
+
+    @Param({ "100", "1000", "10000" })
+    public int rules;
+
+    private ArrayList<RecipientListItem> items;
+    private String json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() {
+        items = SyntheticRules.rules(rules);
+        json = RecipientListItem.toJson(items);
+        binary = RuleCodec.encode(items);
+    }
+
+    @Benchmark
+    public ArrayList<RecipientListItem> decodeBinary() throws IOException {
+        return RuleCodec.decode(ByteBuffer.wrap(binary));
+    }
+
+    @Benchmark
+    public ArrayList<RecipientListItem> decodeGson() {
+        return RecipientListItem.fromJson(json);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return RuleCodec.encode(items);
+    }
+
+    @Benchmark
+    public String encodeGson() {
+        return RecipientListItem.toJson(items);
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.forwarding.benchmark;
+
+import com.example.forwarding.data_model.RecipientListItem;
+import com.example.forwarding.data_model.RuleSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message cost of rule evaluation, i.e. what the receiver pays for every SMS, and the
+ * one-off cost of compiling the rules when they are saved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RuleMatchBenchmark {
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int rules;
+
+    @Param({ "otp", "multipart", "unicode" })
+    public String body;
+
+    private ArrayList<RecipientListItem> items;
+    private RuleSet ruleSet;
+    private String message;
+
+    @Setup
+    public void setUp() {
+        items = SyntheticRules.rules(rules);
+        ruleSet = RuleSet.compile(items);
+        message = SyntheticRules.body(body);
+    }
+
+    @Benchmark
+    public ArrayList<String> match() {
+        return RecipientListItem.match(ruleSet, SyntheticRules.SENDER, message);
+    }
+
+    @Benchmark
+    public RuleSet compile() {
+        return RuleSet.compile(items);
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.forwarding.benchmark;
+
+import com.example.forwarding.data_model.DigestPolicy;
+import com.example.forwarding.data_model.RuleSet;
+import com.example.forwarding.event.DuplicateWindow;
+import com.example.forwarding.event.IncomingMessage;
+import com.example.forwarding.event.LoopbackTransport;
+import com.example.forwarding.event.MatchStage;
+import com.example.forwarding.event.SendRateLimiter;
+import com.example.forwarding.event.SmsTransport;
+import com.example.forwarding.event.SubscriptionBalancer;
+import com.example.forwarding.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes synthetic SMS through receive → match → dedup → send off-device and reports end-to-end
+ * throughput and latency.
+ *
+ * The match and dedup stages are the app's own {@link MatchStage} and {@link DuplicateWindow},
+ * run on a two-thread bounded pool as in {@code ForwardingPipeline}. Its outbound is an in-memory
+ * outbox that refuses jobs past the app's limit, and a single outbox thread sends each forward
+ * through {@link SubscriptionBalancer} and an unlimited {@link SendRateLimiter} as
+ * {@code SMSSender} does, without the SQLite writes. A {@link LoopbackTransport} reports on its
+ * own "radio" thread. A forward's latency runs from receipt until its last part is reported
+ * delivered.
+ *
+ * <pre>
+ *   ./gradlew :benchmark:loadTest -PloadTestArgs="--messages 100000 --rules 100"
+ * </pre>
+ */
+public final class LoadHarness {
+
+    private static final int PIPELINE_THREADS = 2;
+    private static final int PIPELINE_QUEUE_CAPACITY = 256;
+    private static final int MAX_QUEUED_JOBS = 10_000; // as the app's Outbox
+    private static final long DUPLICATE_WINDOW_MILLIS = 300_000L; // the app's default
+
+    private final RuleSet rules;
+
+    // Rejections are not expected: run() blocks for a free slot instead of submitting
+    private final ThreadPoolExecutor pipeline = new ThreadPoolExecutor(
+            PIPELINE_THREADS, PIPELINE_THREADS,
+            30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY)
+    );
+    private final ExecutorService outbox = Executors.newSingleThreadExecutor();
+    private final ExecutorService radio = Executors.newSingleThreadExecutor();
+
+    private final SmsTransport transport;
+    private final MatchStage stage;
+    private final SubscriptionBalancer balancer = new SubscriptionBalancer(SubscriptionBalancer.Strategy.ROUND_ROBIN);
+    private final SendRateLimiter limiter =
+            new SendRateLimiter(Integer.MAX_VALUE, 1, Integer.MAX_VALUE, 1);
+
+    private final AtomicLong nextJobId = new AtomicLong();
+    private final AtomicInteger queuedJobs = new AtomicInteger();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong digested = new AtomicLong();
+    private final ConcurrentHashMap<IncomingMessage, Long> receivedAt = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    // Only touched on the radio thread, then read once it has terminated
+    private long[] latencies = new long[1024];
+    private int latencyCount;
+
+    LoadHarness(RuleSet rules) {
+        this.rules = rules;
+        this.transport = new LoopbackTransport(new Reports(), radio);
+        this.stage = new MatchStage(new DuplicateWindow(), new MemoryOutbox());
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int messageCount = 100_000;
+        int ruleCount = 100;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--messages": messageCount = Integer.parseInt(args[i + 1]); break;
+                case "--rules":    ruleCount = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        ArrayList<IncomingMessage> messages = new MessageGenerator(42).generate(messageCount);
+        RuleSet rules = RuleSet.compile(SyntheticRules.rules(ruleCount));
+
+        // Warm up the JIT on a slice of the traffic, then measure a fresh harness
+        new LoadHarness(rules).run(messages.subList(0, Math.min(messageCount, 10_000)));
+        Metrics.reset();
+        LoadHarness harness = new LoadHarness(rules);
+        long elapsedNanos = harness.run(messages);
+
+        System.out.println(harness.report(messageCount, ruleCount, elapsedNanos));
+    }
+
+    /** Runs every message through the stages and returns once all reports are in. */
+    long run(List<IncomingMessage> messages) throws InterruptedException {
+        long start = System.nanoTime();
+
+        for (IncomingMessage message : messages) {
+            receivedAt.put(message, System.nanoTime());
+            Runnable task = () -> {
+                stage.process(rules, message, DUPLICATE_WINDOW_MILLIS, System.currentTimeMillis());
+                receivedAt.remove(message);
+            };
+            if (pipeline.getQueue().offer(task)) {
+                pipeline.prestartCoreThread();
+            } else {
+                // Full: wait here for a slot, never running it inline; the app's overflow thread
+                // waits a bounded time and then drops, which a load test should not
+                Metrics.increment(Metrics.Counter.OVERFLOWED);
+                pipeline.getQueue().put(task);
+            }
+        }
+
+        // Each stage only feeds the next one, so draining them in order drains everything
+        shutdown(pipeline);
+        shutdown(outbox);
+        shutdown(radio);
+
+        return System.nanoTime() - start;
+    }
+
+    /** The outbox, in memory: bounded like the app's, sending on one thread. */
+    private final class MemoryOutbox implements MatchStage.Outbound {
+
+        @Override
+        public boolean enqueue(IncomingMessage message, ArrayList<String> recipients) {
+            if (queuedJobs.addAndGet(recipients.size()) > MAX_QUEUED_JOBS) {
+                queuedJobs.addAndGet(-recipients.size());
+                refused.incrementAndGet();
+                return false;
+            }
+            long received = receivedAt.get(message);
+
+            outbox.execute(() -> {
+                // One prepared text shared by every recipient, as SMSSender does
+                ArrayList<String> parts = transport.divideMessage("Fwd " + message.sender + ":\n" + message.body);
+                int[] subscriptions = { transport.getSubscriptionId() };
+                for (String recipient : recipients) {
+                    long now = System.currentTimeMillis();
+                    int[] candidates = balancer.order(subscriptions, -1, now);
+                    if (limiter.reserveFirst(candidates, recipient, parts.size(), now, balancer) < 0) {
+                        throw new IllegalStateException("Unlimited rates throttled a send");
+                    }
+                    long jobId = nextJobId.incrementAndGet();
+                    inFlight.put(jobId, new InFlight(received, parts.size()));
+                    transport.send(jobId, 0, recipient, parts);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public boolean buffer(IncomingMessage message, Map<String, DigestPolicy> digests) {
+            digested.addAndGet(digests.size());
+            return true;
+        }
+    }
+
+    private static void shutdown(ExecutorService executor) throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Load test did not finish");
+        }
+    }
+
+    private static final class InFlight {
+        final long receivedAt;
+        int partsPending;
+
+        InFlight(long receivedAt, int parts) {
+            this.receivedAt = receivedAt;
+            this.partsPending = parts;
+        }
+    }
+
+    private final class Reports implements SmsTransport.Callbacks {
+        @Override
+        public void onPartSent(long jobId, int attempt, int part, int resultCode) {
+        }
+
+        @Override
+        public void onPartDelivered(long jobId, int attempt, int part) {
+            InFlight job = inFlight.get(jobId);
+            if (job == null || --job.partsPending > 0) return;
+
+            inFlight.remove(jobId);
+            queuedJobs.decrementAndGet();
+            if (latencyCount == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencyCount * 2);
+            }
+            latencies[latencyCount++] = System.nanoTime() - job.receivedAt;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Report
+    // ---------------------------------------------------------------------------------------------
+
+    String report(int messageCount, int ruleCount, long elapsedNanos) {
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+        LoopbackTransport loopback = (LoopbackTransport) transport;
+
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.US, "%,d messages, %,d rules, %.2f s%n", messageCount, ruleCount, seconds));
+        out.append(String.format(Locale.US, "  matched    %,d, %,d duplicate forwards dropped, %,d digested%n",
+                Metrics.get(Metrics.Counter.MATCHED), Metrics.get(Metrics.Counter.DUPLICATE), digested.get()));
+        out.append(String.format(Locale.US, "  refused    %,d by the full outbox, %,d waited for the pipeline%n",
+                refused.get(), Metrics.get(Metrics.Counter.OVERFLOWED)));
+        out.append(String.format(Locale.US, "  forwards   %,d (%,d parts)%n", loopback.getMessagesSent(), loopback.getPartsSent()));
+        out.append(String.format(Locale.US, "  throughput %,.0f messages/s, %,.0f forwards/s%n",
+                messageCount / seconds, loopback.getMessagesSent() / seconds));
+        out.append("  latency   ");
+        for (double p : new double[] { 0.50, 0.90, 0.99, 0.999 }) {
+            out.append(String.format(Locale.US, " p%s %s", trim(p * 100), millis(percentile(sorted, p))));
+        }
+        out.append(String.format(Locale.US, " max %s", millis(sorted.length == 0 ? 0 : sorted[sorted.length - 1])));
+        return out.toString();
+    }
+
+    static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.3f ms", nanos / 1e6);
+    }
+
+    private static String trim(double percent) {
+        return percent == Math.rint(percent) ? String.valueOf((long) percent) : String.valueOf(percent);
+    }
+}
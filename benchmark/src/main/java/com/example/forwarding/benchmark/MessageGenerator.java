@@ -0,0 +1,61 @@
+package com.example.forwarding.benchmark;
+
+import com.example.forwarding.event.IncomingMessage;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Deterministic stream of received SMS, already merged the way {@code SMSReceiver} merges
+ * PDUs: mostly bank and telecom alerts from alphanumeric senders, some person-to-person traffic,
+ * a share of multipart and Unicode bodies.
+ */
+final class MessageGenerator {
+
+    private static final String[] SHORT_CODES = {
+            "VM-SBIINB", "AD-HDFCBK", "JM-ICICIB", "VK-AXISBK", "BP-PNBSMS", "AX-KOTAKB",
+            "JD-JIOINF", "AD-AIRTEL", "VM-VIINFO", "BZ-AMAZON", "VK-FLPKRT", "TM-SWIGGY"
+    };
+
+    private static final String[] TEMPLATES = {
+            "%06d is your OTP for txn of INR %d.00. Valid for 10 mins. Do not share it with anyone.",
+            "Your A/c XX%04d is debited by INR %d.00 via UPI. If not done by you, call 1800-11-2211.",
+            "INR %2$d.00 credited to A/c XX%1$04d by NEFT. Available balance INR 42,317.55.",
+            "Use verification code %06d to login. Never share it. Ref %d",
+            "Recharge of Rs %2$d successful for %1$d. Enjoy unlimited calls and 2GB/day.",
+            "Hey, are we still on for dinner at %d? Table booked for %d people.",
+    };
+
+    private final Random random;
+
+    MessageGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    ArrayList<IncomingMessage> generate(int count) {
+        ArrayList<IncomingMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(next());
+        }
+        return messages;
+    }
+
+    IncomingMessage next() {
+        int kind = random.nextInt(100);
+        String sender = (kind < 85)
+                ? SHORT_CODES[random.nextInt(SHORT_CODES.length)]
+                : "+9198" + (10_000_000 + random.nextInt(90_000_000));
+
+        String body;
+        if (kind < 10) {
+            body = SyntheticRules.MULTIPART_BODY;
+        } else if (kind < 20) {
+            body = SyntheticRules.UNICODE_BODY;
+        } else {
+            String template = TEMPLATES[random.nextInt(TEMPLATES.length)];
+            body = String.format(template, random.nextInt(1_000_000), 100 + random.nextInt(50_000));
+        }
+
+        return new IncomingMessage(sender, body, System.currentTimeMillis());
+    }
+}
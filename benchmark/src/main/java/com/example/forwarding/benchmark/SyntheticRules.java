@@ -0,0 +1,61 @@
+package com.example.forwarding.benchmark;
+
+import com.example.forwarding.data_model.RecipientListItem;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/** Deterministic rule sets and message bodies shaped like gateway traffic. */
+final class SyntheticRules {
+
+    static final String SENDER = "VM-SBIINB";
+
+    static final String OTP_BODY =
+            "482913 is your OTP for txn of INR 1,250.00 at AMAZON. Valid for 10 mins. Do not share it with anyone.";
+
+    static final String MULTIPART_BODY = repeat(
+            "Dear customer, your A/c XX1234 is debited by INR 5,000.00 on 12-03 towards NEFT ref 1234567890. "
+                    + "Available balance INR 42,317.55. If not done by you, call 1800-11-2211 to block. ", 4);
+
+    static final String UNICODE_BODY = repeat(
+            "प्रिय ग्राहक, आपका ओटीपी 482913 है। इसे किसी के साथ साझा न करें। ", 3);
+
+    private static final String[] WORDS = {
+            "otp", "debited", "credited", "verification", "code", "upi", "neft", "imps", "balance", "alert",
+            "login", "password", "transaction", "refund", "emi", "due", "ओटीपी", "खाता", "bill", "recharge"
+    };
+
+    private static final String[] SENDERS = {
+            "sbi", "hdfc", "icici", "axis", "pnb", "kotak", "jio", "airtel", "vi", "bsnl", "amazon", "flipkart"
+    };
+
+    static ArrayList<RecipientListItem> rules(int count) {
+        Random random = new Random(count);
+        ArrayList<RecipientListItem> items = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            items.add(new RecipientListItem(
+                    "98" + (10_000_000 + i) + ", 97" + (10_000_000 + random.nextInt(1000)),
+                    (i % 4 == 0) ? "*" : SENDERS[random.nextInt(SENDERS.length)] + ", " + SENDERS[random.nextInt(SENDERS.length)],
+                    WORDS[random.nextInt(WORDS.length)] + " " + i + ", " + WORDS[random.nextInt(WORDS.length)],
+                    (i % 3 == 0) ? "" : "promo" + i
+            ));
+        }
+        return items;
+    }
+
+    static String body(String kind) {
+        switch (kind) {
+            case "otp":       return OTP_BODY;
+            case "multipart": return MULTIPART_BODY;
+            case "unicode":   return UNICODE_BODY;
+            default: throw new IllegalArgumentException(kind);
+        }
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder(s.length() * times);
+        for (int i = 0; i < times; i++) sb.append(s);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.forwarding.data_model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Multi-pattern substring matcher.
+ *
+ * Every pattern carries one or more integer payloads (for {@link RuleSet} a rule index). A single
+ * left-to-right pass over the text sets the bit of every payload whose pattern occurs anywhere in
+ * it, so the cost of a scan depends on the text length and the number of hits, not on how many
+ * patterns were added.
+ */
+final class AhoCorasick {
+
+    private static final int ROOT = 0;
+
+    // Goto function, flattened: the edges of state s are
+    // edgeChars/edgeTargets[edgeStart[s] .. edgeStart[s + 1])
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+
+    private final int[] fail;
+    private final int[] output;      // first state on the suffix chain that has payloads, or -1
+    private final int[] dictLink;    // next state with payloads on the suffix chain, or -1
+    private final int[][] payloads;  // payloads of patterns ending exactly at a state
+
+    private AhoCorasick(int[] edgeStart, char[] edgeChars, int[] edgeTargets,
+                        int[] fail, int[] output, int[] dictLink, int[][] payloads) {
+        this.edgeStart = edgeStart;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.fail = fail;
+        this.output = output;
+        this.dictLink = dictLink;
+        this.payloads = payloads;
+    }
+
+    boolean isEmpty() {
+        return edgeChars.length == 0;
+    }
+
+    /**
+     * Sets bit {@code payload} in {@code hits} for every pattern found in {@code text}. Text is
+     * folded character by character with {@link CaseFold}; patterns must have been added folded
+     * the same way.
+     */
+    void scan(CharSequence text, int folding, long[] hits) {
+        if (isEmpty()) return;
+
+        int state = ROOT;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = CaseFold.fold(text.charAt(i), folding);
+            if (c == CaseFold.IGNORED) continue;
+
+            int next;
+            while ((next = step(state, c)) < 0 && state != ROOT) {
+                state = fail[state];
+            }
+            state = next < 0 ? ROOT : next;
+
+            for (int s = output[state]; s >= 0; s = dictLink[s]) {
+                for (int payload : payloads[s]) {
+                    hits[payload >>> 6] |= 1L << payload;
+                }
+            }
+        }
+    }
+
+    private int step(int state, char c) {
+        int lo = edgeStart[state];
+        int hi = edgeStart[state + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char m = edgeChars[mid];
+            if (m < c) lo = mid + 1;
+            else if (m > c) hi = mid - 1;
+            else return edgeTargets[mid];
+        }
+        return -1;
+    }
+
+    static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    static long[] newBitSet(int size) {
+        return new long[(size + 63) >>> 6];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Builder
+    // ---------------------------------------------------------------------------------------------
+
+    static final class Builder {
+
+        private final ArrayList<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        private final HashMap<Integer, ArrayList<Integer>> terminals = new HashMap<>();
+
+        Builder() {
+            trie.add(new TreeMap<>());
+        }
+
+        Builder add(String pattern, int payload) {
+            if (pattern.isEmpty()) return this;
+
+            int state = ROOT;
+            for (int i = 0; i < pattern.length(); i++) {
+                TreeMap<Character, Integer> edges = trie.get(state);
+                Integer next = edges.get(pattern.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    edges.put(pattern.charAt(i), next);
+                    trie.add(new TreeMap<>());
+                }
+                state = next;
+            }
+
+            ArrayList<Integer> list = terminals.get(state);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                terminals.put(state, list);
+            }
+            if (!list.contains(payload)) list.add(payload);
+            return this;
+        }
+
+        AhoCorasick build() {
+            int states = trie.size();
+
+            int edgeCount = 0;
+            for (TreeMap<Character, Integer> edges : trie) edgeCount += edges.size();
+
+            int[] edgeStart = new int[states + 1];
+            char[] edgeChars = new char[edgeCount];
+            int[] edgeTargets = new int[edgeCount];
+
+            int e = 0;
+            for (int s = 0; s < states; s++) {
+                edgeStart[s] = e;
+                for (Map.Entry<Character, Integer> edge : trie.get(s).entrySet()) {
+                    edgeChars[e] = edge.getKey();
+                    edgeTargets[e] = edge.getValue();
+                    e++;
+                }
+            }
+            edgeStart[states] = e;
+
+            int[][] payloads = new int[states][];
+            int[] empty = new int[0];
+            Arrays.fill(payloads, empty);
+            for (Map.Entry<Integer, ArrayList<Integer>> t : terminals.entrySet()) {
+                ArrayList<Integer> list = t.getValue();
+                int[] values = new int[list.size()];
+                for (int i = 0; i < values.length; i++) values[i] = list.get(i);
+                payloads[t.getKey()] = values;
+            }
+
+            AhoCorasick partial = new AhoCorasick(
+                    edgeStart, edgeChars, edgeTargets, new int[states], new int[states], new int[states], payloads
+            );
+
+            // Breadth-first, so a state's fail target is always resolved before the state itself
+            int[] fail = partial.fail;
+            int[] output = partial.output;
+            int[] dictLink = partial.dictLink;
+            output[ROOT] = -1;
+            dictLink[ROOT] = -1;
+
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int i = edgeStart[ROOT]; i < edgeStart[ROOT + 1]; i++) {
+                int child = edgeTargets[i];
+                fail[child] = ROOT;
+                queue.add(child);
+            }
+
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+
+                int f = fail[state];
+                dictLink[state] = output[f];
+                output[state] = payloads[state].length > 0 ? state : dictLink[state];
+
+                for (int i = edgeStart[state]; i < edgeStart[state + 1]; i++) {
+                    char c = edgeChars[i];
+                    int child = edgeTargets[i];
+
+                    int s = fail[state];
+                    int next;
+                    while ((next = partial.step(s, c)) < 0 && s != ROOT) {
+                        s = fail[s];
+                    }
+                    fail[child] = (next < 0 || next == child) ? ROOT : next;
+                    queue.add(child);
+                }
+            }
+
+            return partial;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.forwarding.data_model;
+
+import java.text.Normalizer;
+
+/**
+ * Per-character folding used for case-insensitive matching, so an incoming SMS can be compared
+ * against pre-folded rule tokens without creating a lower-cased copy of it.
+ *
+ * Case folding (Unicode simple folding, e.g. "OTP", "ｏｔｐ" and "Σ"/"ς"/"σ" compare equal) is
+ * always applied. Width and diacritic folding are optional: see {@link RuleSet#FOLD_WIDTH} and
+ * {@link RuleSet#FOLD_DIACRITICS}.
+ */
+final class CaseFold {
+
+    /** Returned for characters that the fold drops entirely, e.g. a combining accent. */
+    static final char IGNORED = '\uFFFF';
+
+    private static final char[] ASCII = new char[0x80];
+
+    static {
+        for (char c = 0; c < 0x80; c++) {
+            ASCII[c] = (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+        }
+    }
+
+    private CaseFold() {}
+
+    static char fold(char c, int flags) {
+        if (c < 0x80) return ASCII[c];
+
+        if ((flags & RuleSet.FOLD_DIACRITICS) != 0) {
+            c = Diacritics.TABLE[c];
+            if (c == IGNORED) return IGNORED;
+            if (c < 0x80) return ASCII[c];
+        }
+
+        if ((flags & RuleSet.FOLD_WIDTH) != 0) {
+            if (c >= 0xFF01 && c <= 0xFF5E) return ASCII[c - 0xFEE0]; // fullwidth ASCII
+            if (c == 0x3000) return ' ';                              // ideographic space
+        }
+
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /** Folds a whole token; only used when rules are compiled. */
+    static String fold(CharSequence s, int flags) {
+        StringBuilder folded = new StringBuilder(s.length());
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = fold(s.charAt(i), flags);
+            if (c != IGNORED) folded.append(c);
+        }
+        return folded.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Diacritics
+    // ---------------------------------------------------------------------------------------------
+
+    // Built on first use only, since diacritic folding is off by default
+    private static final class Diacritics {
+        static final char[] TABLE = build();
+
+        private static char[] build() {
+            char[] table = new char[0x10000];
+            for (int c = 0; c < table.length; c++) {
+                table[c] = (char) c;
+            }
+
+            for (int c = 0x80; c < table.length; c++) {
+                // CJK, Hangul, surrogates and private use have no diacritics to fold
+                if (c >= 0x3400 && c < 0xF900) continue;
+
+                if (isDiacritic((char) c)) {
+                    table[c] = IGNORED;
+                    continue;
+                }
+
+                String decomposed = Normalizer.normalize(String.valueOf((char) c), Normalizer.Form.NFD);
+                if (decomposed.length() < 2) continue;
+
+                boolean onlyDiacritics = true;
+                for (int i = 1; i < decomposed.length() && onlyDiacritics; i++) {
+                    onlyDiacritics = isDiacritic(decomposed.charAt(i));
+                }
+                if (onlyDiacritics) table[c] = decomposed.charAt(0);
+            }
+            return table;
+        }
+
+        // Accents and vowel points, but not the dependent vowel signs of Indic scripts, which
+        // change a word rather than decorate it
+        private static boolean isDiacritic(char c) {
+            return (c >= 0x0300 && c <= 0x036F)     // combining diacritical marks
+                    || (c >= 0x0591 && c <= 0x05C7  // Hebrew points, except the punctuation among them:
+                        && c != 0x05BE              // maqaf
+                        && c != 0x05C0              // paseq
+                        && c != 0x05C3              // sof pasuq
+                        && c != 0x05C6)             // nun hafukha
+                    || (c >= 0x064B && c <= 0x065F) // Arabic harakat
+                    || c == 0x0670                  // Arabic superscript alef
+                    || c == 0x093C                  // Devanagari nukta
+                    || (c >= 0x1AB0 && c <= 0x1AFF)
+                    || (c >= 0x1DC0 && c <= 0x1DFF)
+                    || (c >= 0x20D0 && c <= 0x20FF)
+                    || (c >= 0xFE20 && c <= 0xFE2F);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.forwarding.data_model;
+
+/**
+ * How a rule's forwards are collected into one digest SMS per recipient instead of being sent
+ * one by one: the digest goes out {@link #windowSeconds} after the first buffered message, or
+ * as soon as {@link #maxMessages} are buffered, whichever comes first.
+ */
+public final class DigestPolicy {
+
+    /** Window used when a rule only sets a message count, so a digest is never held forever. */
+    public static final int DEFAULT_WINDOW_SECONDS = 300;
+    public static final int MAX_WINDOW_SECONDS = 24 * 60 * 60;
+
+    public final int windowSeconds;
+    public final int maxMessages; // 0 = no limit, only the window
+
+    private DigestPolicy(int windowSeconds, int maxMessages) {
+        this.windowSeconds = windowSeconds;
+        this.maxMessages = maxMessages;
+    }
+
+    /** @return the policy for a rule's settings, or null when the rule forwards immediately */
+    public static DigestPolicy of(int windowSeconds, int maxMessages) {
+        if (windowSeconds <= 0 && maxMessages <= 0) {
+            return null;
+        }
+        if (windowSeconds <= 0) {
+            windowSeconds = DEFAULT_WINDOW_SECONDS;
+        }
+        return new DigestPolicy(Math.min(windowSeconds, MAX_WINDOW_SECONDS), Math.max(maxMessages, 0));
+    }
+
+    public long windowMillis() {
+        return windowSeconds * 1000L;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DigestPolicy)) return false;
+        DigestPolicy other = (DigestPolicy) o;
+        return windowSeconds == other.windowSeconds && maxMessages == other.maxMessages;
+    }
+
+    @Override
+    public int hashCode() {
+        return windowSeconds * 31 + maxMessages;
+    }
+
+    @Override
+    public String toString() {
+        return windowSeconds + "s/" + maxMessages;
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.forwarding.data_model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Sender lookup by normalized phone number (see {@link PhoneNumbers}).
+ *
+ * Whole numbers go into an open-addressing hash table keyed by the number itself, and number
+ * prefixes ("+91140*") into a digit trie, so a lookup costs one hash probe plus one step per
+ * digit no matter how many thousands of numbers a blacklist holds.
+ */
+final class NumberIndex {
+
+    private static final int[] NO_PAYLOADS = new int[0];
+
+    static final NumberIndex EMPTY = new Builder().build();
+
+    // Exact numbers: linear probing, key 0 = free slot (no E.164 number is 0)
+    private final long[] keys;
+    private final int[][] keyPayloads;
+
+    // Prefixes: children[node * 10 + digit] is the child node, 0 = none (the root is never a child)
+    private final int[] children;
+    private final int[][] prefixPayloads;
+
+    private NumberIndex(long[] keys, int[][] keyPayloads, int[] children, int[][] prefixPayloads) {
+        this.keys = keys;
+        this.keyPayloads = keyPayloads;
+        this.children = children;
+        this.prefixPayloads = prefixPayloads;
+    }
+
+    boolean isEmpty() {
+        return keys.length == 0 && prefixPayloads.length <= 1;
+    }
+
+    /** Sets the bit of every payload whose number or prefix matches {@code number}. */
+    void lookup(long number, long[] hits) {
+        if (number <= 0 || isEmpty()) return;
+
+        if (keys.length > 0) {
+            int mask = keys.length - 1;
+            for (int slot = hash(number) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == number) {
+                    set(keyPayloads[slot], hits);
+                    break;
+                }
+            }
+        }
+
+        if (prefixPayloads.length > 1) {
+            int node = 0;
+            for (long divisor = PhoneNumbers.pow10(PhoneNumbers.digitCount(number) - 1); divisor > 0; divisor /= 10) {
+                node = children[node * 10 + (int) (number / divisor % 10)];
+                if (node == 0) break;
+                set(prefixPayloads[node], hits);
+            }
+        }
+    }
+
+    private static void set(int[] payloads, long[] hits) {
+        for (int payload : payloads) {
+            hits[payload >>> 6] |= 1L << payload;
+        }
+    }
+
+    private static int hash(long number) {
+        long h = number * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Builder
+    // ---------------------------------------------------------------------------------------------
+
+    static final class Builder {
+        private final ArrayList<long[]> numbers = new ArrayList<>();  // {number, payload}
+        private final ArrayList<long[]> prefixes = new ArrayList<>(); // {prefix, payload}
+
+        Builder add(long number, boolean prefix, int payload) {
+            (prefix ? prefixes : numbers).add(new long[] { number, payload });
+            return this;
+        }
+
+        NumberIndex build() {
+            // Hash table at most half full
+            int capacity = 0;
+            if (!numbers.isEmpty()) {
+                capacity = Integer.highestOneBit(Math.max(2, numbers.size() * 2 - 1)) << 1;
+            }
+            long[] keys = new long[capacity];
+            int[][] keyPayloads = new int[capacity][];
+            for (long[] entry : numbers) {
+                int mask = capacity - 1;
+                int slot = hash(entry[0]) & mask;
+                while (keys[slot] != 0 && keys[slot] != entry[0]) slot = (slot + 1) & mask;
+                keys[slot] = entry[0];
+                keyPayloads[slot] = append(keyPayloads[slot], (int) entry[1]);
+            }
+            for (int i = 0; i < capacity; i++) {
+                if (keyPayloads[i] == null) keyPayloads[i] = NO_PAYLOADS;
+            }
+
+            int[] children = new int[10];
+            ArrayList<int[]> payloads = new ArrayList<>();
+            payloads.add(NO_PAYLOADS); // root
+            for (long[] entry : prefixes) {
+                long prefix = entry[0];
+                int node = 0;
+                for (long divisor = PhoneNumbers.pow10(PhoneNumbers.digitCount(prefix) - 1); divisor > 0; divisor /= 10) {
+                    int edge = node * 10 + (int) (prefix / divisor % 10);
+                    if (children[edge] == 0) {
+                        children[edge] = payloads.size();
+                        payloads.add(NO_PAYLOADS);
+                        if (children.length < payloads.size() * 10) {
+                            children = Arrays.copyOf(children, children.length * 2);
+                        }
+                    }
+                    node = children[edge];
+                }
+                payloads.set(node, append(payloads.get(node), (int) entry[1]));
+            }
+
+            return new NumberIndex(keys, keyPayloads,
+                    Arrays.copyOf(children, payloads.size() * 10), payloads.toArray(new int[0][]));
+        }
+
+        private static int[] append(int[] payloads, int payload) {
+            if (payloads == null) return new int[] { payload };
+            int[] grown = Arrays.copyOf(payloads, payloads.length + 1);
+            grown[payloads.length] = payload;
+            return grown;
+        }
+    }
+}
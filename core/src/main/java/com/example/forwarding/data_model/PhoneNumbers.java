@@ -0,0 +1,152 @@
+package com.example.forwarding.data_model;
+
+import java.util.Locale;
+
+/**
+ * Normalizes originating addresses to E.164 so that "+91 98765 43210", "098765 43210" and
+ * "9876543210" (with country code 91) are recognised as the same number.
+ *
+ * A normalized number is returned as a {@code long} holding its digits (country code first,
+ * without the "+"), which fits every E.164 number and needs no allocation. Alphanumeric sender
+ * IDs ("VM-SBIINB") and short codes are not phone numbers and are left to substring matching.
+ *
+ * Some carriers deliver international senders without "+" ("919876543210"). A number without a
+ * prefix is taken as international when it is longer than the country's national numbers and
+ * starts with its calling code.
+ */
+public final class PhoneNumbers {
+
+    public static final long NOT_A_NUMBER = -1;
+
+    /** Shortest national or international number treated as a phone number, not a short code. */
+    static final int MIN_DIGITS = 7;
+    private static final int MAX_DIGITS = 15; // E.164, country code included
+
+    private PhoneNumbers() {}
+
+    /**
+     * @param countryCode calling code applied to national numbers (e.g. 91), or 0 if unknown,
+     *                    in which case only international forms are recognised
+     * @return the E.164 digits, or {@link #NOT_A_NUMBER}
+     */
+    public static long parse(CharSequence address, int countryCode) {
+        return parse(address, countryCode, MIN_DIGITS);
+    }
+
+    static long parse(CharSequence address, int countryCode, int minDigits) {
+        if (address == null) return NOT_A_NUMBER;
+
+        boolean international = false;
+        boolean leadingZero = false;
+        boolean seenDigit = false;
+        long value = 0;
+        int digits = 0;
+
+        for (int i = 0, n = address.length(); i < n; i++) {
+            char c = address.charAt(i);
+
+            if (c == '+' && !seenDigit && !international) {
+                international = true;
+                continue;
+            }
+            if (c == ' ' || c == '-' || c == '.' || c == '(' || c == ')' || c == '/') continue;
+
+            int digit = Character.digit(c, 10); // also Devanagari, fullwidth, ... digits
+            if (digit < 0) return NOT_A_NUMBER;
+
+            if (!seenDigit && !international && digit == 0) {
+                // "00" international prefix or "0" trunk prefix
+                if (leadingZero) {
+                    international = true;
+                    leadingZero = false;
+                } else {
+                    leadingZero = true;
+                }
+                continue;
+            }
+
+            seenDigit = true;
+            if (++digits > MAX_DIGITS) return NOT_A_NUMBER;
+            value = value * 10 + digit;
+        }
+
+        if (digits < minDigits) return NOT_A_NUMBER;
+        if (international) return value;
+        if (countryCode <= 0) return NOT_A_NUMBER;
+
+        int codeDigits = digitCount(countryCode);
+        if (!leadingZero && digits > nationalLength(countryCode) && digits - codeDigits >= minDigits
+                && value / pow10(digits - codeDigits) == countryCode) {
+            return value;
+        }
+        if (codeDigits + digits > MAX_DIGITS) return NOT_A_NUMBER;
+        return countryCode * pow10(digits) + value;
+    }
+
+    /** "+" followed by the digits of a parsed number. */
+    public static String format(long number) {
+        return "+" + number;
+    }
+
+    static int digitCount(long value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+
+    static long pow10(int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) result *= 10;
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Country calling codes
+    // ---------------------------------------------------------------------------------------------
+
+    // Region, calling code and the longest national number (without trunk prefix) in digits
+    private static final String CALLING_CODES =
+            "IN91/10 US1/10 CA1/10 GB44/10 AU61/9 NZ64/10 IE353/9 ZA27/9 NG234/10 KE254/9 GH233/9 EG20/10 "
+                    + "MA212/9 AE971/9 SA966/9 QA974/8 KW965/8 OM968/8 BH973/8 PK92/10 BD880/10 LK94/9 "
+                    + "NP977/10 BT975/8 MV960/7 AF93/9 IR98/10 IQ964/10 TR90/10 IL972/9 JO962/9 LB961/8 "
+                    + "CN86/11 HK852/8 TW886/9 JP81/10 KR82/10 SG65/8 MY60/10 ID62/12 TH66/9 VN84/10 PH63/10 "
+                    + "MM95/10 KH855/9 DE49/11 FR33/9 IT39/11 ES34/9 PT351/9 NL31/9 BE32/9 CH41/9 AT43/13 "
+                    + "SE46/10 NO47/8 DK45/8 FI358/12 PL48/9 CZ420/9 GR30/10 RO40/9 HU36/9 UA380/9 RU7/10 "
+                    + "KZ7/10 BR55/11 MX52/10 AR54/11 CL56/9 CO57/10 PE51/9 VE58/10";
+
+    // Calling code -> longest national number, 0 if not in the table
+    private static final byte[] NATIONAL_LENGTHS = new byte[1000];
+
+    private static final int DEFAULT_NATIONAL_LENGTH = 10;
+
+    static {
+        for (String entry : CALLING_CODES.split(" ")) {
+            int slash = entry.indexOf('/');
+            NATIONAL_LENGTHS[Integer.parseInt(entry.substring(2, slash))] =
+                    Byte.parseByte(entry.substring(slash + 1));
+        }
+    }
+
+    /** Calling code of an ISO 3166 region such as the SIM's ("in" → 91), or 0 if unknown. */
+    public static int callingCode(String region) {
+        if (region == null || region.length() != 2) return 0;
+
+        String key = region.toUpperCase(Locale.US);
+        int at = -1;
+        while ((at = CALLING_CODES.indexOf(key, at + 1)) >= 0) {
+            if (at == 0 || CALLING_CODES.charAt(at - 1) == ' ') {
+                return Integer.parseInt(CALLING_CODES.substring(at + 2, CALLING_CODES.indexOf('/', at)));
+            }
+        }
+        return 0;
+    }
+
+    /** Digits in the longest national number of a calling code's country, excluding trunk "0". */
+    static int nationalLength(int countryCode) {
+        int length = (countryCode > 0 && countryCode < NATIONAL_LENGTHS.length) ? NATIONAL_LENGTHS[countryCode] : 0;
+        return length > 0 ? length : DEFAULT_NATIONAL_LENGTH;
+    }
+}
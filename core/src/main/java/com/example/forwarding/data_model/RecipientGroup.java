@@ -0,0 +1,102 @@
+package com.example.forwarding.data_model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A named list of recipients, stored once and referenced from any number of rules as
+ * {@code @name} in {@link RecipientListItem#recipient}, e.g. {@code "@family, +919876543210"}.
+ *
+ * {@link RuleSet} expands references when it compiles the rules, so a group costs nothing per
+ * message. Members are recipients as a rule would list them; a member that is itself a
+ * {@code @name} is ignored, groups do not nest.
+ */
+public final class RecipientGroup {
+
+    /** Marks a group reference among a rule's recipients. */
+    public static final char REFERENCE = '@';
+
+    public String name;    // without the '@'; matched ignoring case
+    public String members; // comma-separated
+
+    public RecipientGroup() {
+        this("", "");
+    }
+
+    public RecipientGroup(String name, String members) {
+        this.name = name;
+        this.members = members;
+    }
+
+    public RecipientGroup(RecipientGroup other) {
+        this(other.name, other.members);
+    }
+
+    @Override
+    public String toString() {
+        return REFERENCE + name;
+    }
+
+    /** Whether a trimmed recipient token names a group rather than a destination. */
+    public static boolean isReference(String recipient) {
+        return recipient.length() > 1 && recipient.charAt(0) == REFERENCE;
+    }
+
+    /** The group {@code reference} names (with or without the '@'), or null. */
+    public static RecipientGroup find(List<RecipientGroup> groups, String reference) {
+        int from = (!reference.isEmpty() && reference.charAt(0) == REFERENCE) ? 1 : 0;
+        int length = reference.length() - from;
+        for (RecipientGroup group : groups) {
+            if (group.name != null && group.name.length() == length
+                    && group.name.regionMatches(true, 0, reference, from, length)) {
+                return group;
+            }
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Text form
+    // ---------------------------------------------------------------------------------------------
+
+    /** One group per line, {@code name: member, member}, as edited in the groups dialog. */
+    public static String format(List<RecipientGroup> groups) {
+        StringBuilder text = new StringBuilder();
+        for (RecipientGroup group : groups) {
+            if (text.length() > 0) text.append('\n');
+            text.append(group.name).append(": ").append(group.members == null ? "" : group.members);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Reads what {@link #format} writes. Blank lines are skipped; a leading '@' on a name is
+     * dropped, and a later line with the same name replaces the earlier one.
+     *
+     * @throws IllegalArgumentException naming the first line without a name or a colon
+     */
+    public static ArrayList<RecipientGroup> parse(String text) {
+        ArrayList<RecipientGroup> groups = new ArrayList<>();
+        String[] lines = text.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty()) continue;
+
+            int colon = line.indexOf(':');
+            String name = (colon < 0) ? "" : line.substring(0, colon).trim();
+            if (!name.isEmpty() && name.charAt(0) == REFERENCE) name = name.substring(1).trim();
+            if (name.isEmpty() || name.indexOf(',') >= 0) {
+                throw new IllegalArgumentException("line " + (i + 1) + ": expected \"name: members\"");
+            }
+
+            RecipientGroup group = new RecipientGroup(name, line.substring(colon + 1).trim());
+            RecipientGroup existing = find(groups, name);
+            if (existing != null) {
+                groups.set(groups.indexOf(existing), group);
+            } else {
+                groups.add(group);
+            }
+        }
+        return groups;
+    }
+}
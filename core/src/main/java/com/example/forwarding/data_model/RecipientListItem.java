@@ -0,0 +1,148 @@
+package com.example.forwarding.data_model;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Map;
+
+public final class RecipientListItem {
+
+    public long id;            // stable, assigned when the rule is first saved; 0 = not saved yet
+
+    // Stored as raw strings (comma-separated)
+    public String recipient;   // recipients to forward to, or @name of a RecipientGroup
+    public String sender;      // sender whitelist (* or comma-separated)
+    public String keywords;    // message body keywords (*, empty, or comma-separated)
+    public String blacklist;   // sender blacklist
+    public String expression;  // optional body expression, used instead of keywords (see RuleExpression)
+
+    // Digest mode (see DigestPolicy); both 0 = forward every message immediately
+    public int digestWindowSeconds;
+    public int digestMaxMessages;
+
+    public int simSlot;        // 1-based SIM slot to send on, 0 = any (see SubscriptionBalancer)
+
+    public boolean stopProcessing; // when this rule fires, the rules after it are not applied
+
+    public RecipientListItem() {
+        this("", "*", "", "");
+    }
+
+    public RecipientListItem(String recipient, String sender, String keywords, String blacklist) {
+        this.recipient = recipient;
+        this.sender = sender;
+        this.keywords = keywords;
+        this.blacklist = blacklist;
+    }
+
+    public RecipientListItem(
+            String recipient,
+            String sender,
+            String keywords,
+            String blacklist,
+            String expression
+    ) {
+        this(recipient, sender, keywords, blacklist);
+        this.expression = expression;
+    }
+
+    public RecipientListItem(RecipientListItem other) {
+        this(other.recipient, other.sender, other.keywords, other.blacklist, other.expression);
+        this.id = other.id;
+        this.digestWindowSeconds = other.digestWindowSeconds;
+        this.digestMaxMessages = other.digestMaxMessages;
+        this.simSlot = other.simSlot;
+        this.stopProcessing = other.stopProcessing;
+    }
+
+    @Override
+    public String toString() {
+        return recipient;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // JSON helpers
+    // ---------------------------------------------------------------------------------------------
+
+    // Rules are stored with RuleCodec; JSON is kept to import the old LISTITEMS preference and
+    // for export, so the Gson instance and list type are built once instead of per call.
+    private static final Gson GSON = new Gson();
+    private static final Type LIST_TYPE = new TypeToken<ArrayList<RecipientListItem>>() {}.getType();
+
+    public static ArrayList<RecipientListItem> fromJson(String json) {
+        return GSON.fromJson(json, LIST_TYPE);
+    }
+
+    public static String toJson(ArrayList<RecipientListItem> arrayList) {
+        return GSON.toJson(arrayList);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Match recipients (sender + keywords)
+    // ---------------------------------------------------------------------------------------------
+
+    public static ArrayList<String> match(
+            ArrayList<RecipientListItem> items,
+            String sender,
+            String message
+    ) {
+        return match(RuleSet.compile(items), sender, message);
+    }
+
+    /**
+     * Evaluates the whole rule set against one message in a single pass.
+     *
+     * @return the recipients of every rule that fired, without duplicates and never the sender
+     */
+    public static ArrayList<String> match(
+            RuleSet rules,
+            String sender,
+            String message
+    ) {
+        return match(rules, sender, message, null);
+    }
+
+    /**
+     * Like {@link #match(RuleSet, String, String)}, but recipients that only digest rules fired
+     * for go into {@code digests} with their {@link DigestPolicy} instead of the result.
+     *
+     * @param digests filled in, or null to forward to every recipient immediately
+     */
+    public static ArrayList<String> match(
+            RuleSet rules,
+            String sender,
+            String message,
+            Map<String, DigestPolicy> digests
+    ) {
+        // The rule set adds each recipient once already
+        ArrayList<String> recipients = new ArrayList<>();
+        match(rules, sender, message, recipients, digests);
+        return recipients;
+    }
+
+    /**
+     * Like {@link #match(RuleSet, String, String, Map)}, adding the recipients to {@code out}.
+     *
+     * @return true if a sender blacklist kept at least one rule from firing
+     */
+    public static boolean match(
+            RuleSet rules,
+            String sender,
+            String message,
+            ArrayList<String> out,
+            Map<String, DigestPolicy> digests
+    ) {
+        boolean blacklisted = rules.match(sender, message, out, digests);
+
+        // Never forward back to sender; numbers are excluded by the rule set, this catches IDs
+        if (sender != null) {
+            String trimmed = sender.trim();
+            out.remove(trimmed);
+            if (digests != null) digests.remove(trimmed);
+        }
+
+        return blacklisted;
+    }
+}
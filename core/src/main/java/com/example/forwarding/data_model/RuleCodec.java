@@ -0,0 +1,341 @@
+package com.example.forwarding.data_model;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary encoding of the rule list, of the change log that records single-rule edits
+ * between two full writes of the list, and of the recipient groups.
+ *
+ * <pre>
+ * int    magic   "SFRL"
+ * int    version
+ * int    rule count
+ * rule*  recipient, sender, keywords, blacklist, expression (version 2+),
+ *        int digest window seconds, int digest max messages (version 3+),
+ *        int SIM slot (version 4+),
+ *        long id (version 5+),
+ *        int flags (version 6+): {@link #FLAG_STOP}
+ * </pre>
+ *
+ * Every string is an int byte length (-1 for null) followed by that many UTF-8 bytes, so a
+ * reader can decode straight out of a memory-mapped file without reflection.
+ *
+ * A change log is a sequence of records, each an int payload length, the payload's CRC-32 and
+ * the payload: a byte {@link #CHANGE_PUT} and a rule in the current version's layout, or a byte
+ * {@link #CHANGE_REMOVE} and a long rule id. Fields added after version 5 are optional in a
+ * change record, so a log written by an older version still replays. A record torn by a crash
+ * fails its length or CRC check, and it and everything after it are ignored.
+ *
+ * <pre>
+ * int    magic   "SFRG"
+ * int    version
+ * int    group count
+ * group* name, members
+ * </pre>
+ */
+public final class RuleCodec {
+
+    static final int MAGIC = 0x5346524C; // "SFRL"
+    static final int VERSION = 6;
+
+    static final int FLAG_STOP = 1; // RecipientListItem.stopProcessing
+
+    static final int GROUPS_MAGIC = 0x53465247; // "SFRG"
+    static final int GROUPS_VERSION = 1;
+
+    static final byte CHANGE_PUT = 1;    // add the rule, or replace the one with its id
+    static final byte CHANGE_REMOVE = 2; // remove the rule with this id
+
+    private static final int HEADER_SIZE = 12;
+    private static final int STRINGS_PER_RULE = 5;
+    private static final int FIXED_RULE_SIZE = 24; // three ints, the id and the flags
+
+    public static byte[] encode(List<RecipientListItem> items) {
+        byte[][] strings = new byte[items.size() * STRINGS_PER_RULE][];
+        int size = HEADER_SIZE;
+        for (int i = 0; i < items.size(); i++) {
+            size += measureRule(strings, i * STRINGS_PER_RULE, items.get(i));
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            putRule(buffer, strings, i * STRINGS_PER_RULE, items.get(i));
+        }
+        return buffer.array();
+    }
+
+    public static ArrayList<RecipientListItem> decode(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a rule file");
+            }
+            int version = buffer.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported rule file version: " + version);
+            }
+
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / 16) {
+                throw new IOException("Corrupt rule count: " + count);
+            }
+
+            ArrayList<RecipientListItem> items = new ArrayList<>(count);
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < count; i++) {
+                items.add(readRule(buffer, version, scratch, false));
+            }
+            return items;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated rule file", e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Change log
+    // ---------------------------------------------------------------------------------------------
+
+    /** A change log record that adds {@code item}, or replaces the rule with the same id. */
+    public static byte[] encodePut(RecipientListItem item) {
+        byte[][] strings = new byte[STRINGS_PER_RULE][];
+        int payload = 1 + measureRule(strings, 0, item);
+
+        ByteBuffer buffer = startRecord(payload);
+        buffer.put(CHANGE_PUT);
+        putRule(buffer, strings, 0, item);
+        return finishRecord(buffer);
+    }
+
+    /** A change log record that removes the rule with {@code id}. */
+    public static byte[] encodeRemove(long id) {
+        ByteBuffer buffer = startRecord(1 + 8);
+        buffer.put(CHANGE_REMOVE);
+        buffer.putLong(id);
+        return finishRecord(buffer);
+    }
+
+    /**
+     * Applies the records of a change log to {@code items}, in order, up to the first torn or
+     * corrupt one.
+     *
+     * @return the number of records applied
+     */
+    public static int applyChanges(ByteBuffer log, List<RecipientListItem> items) {
+        byte[] scratch = new byte[256];
+        CRC32 crc = new CRC32();
+        int applied = 0;
+
+        while (log.remaining() >= 8) {
+            int length = log.getInt();
+            int checksum = log.getInt();
+            if (length < 1 || length > log.remaining()) break;
+
+            ByteBuffer payload = log.slice();
+            payload.limit(length);
+            log.position(log.position() + length);
+
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) break;
+
+            try {
+                byte op = payload.get();
+                if (op == CHANGE_PUT) {
+                    put(items, readRule(payload, VERSION, scratch, true));
+                } else if (op == CHANGE_REMOVE) {
+                    remove(items, payload.getLong());
+                } else {
+                    break;
+                }
+            } catch (IOException | BufferUnderflowException e) {
+                break;
+            }
+            applied++;
+        }
+        return applied;
+    }
+
+    private static void put(List<RecipientListItem> items, RecipientListItem item) {
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i).id == item.id) {
+                items.set(i, item);
+                return;
+            }
+        }
+        items.add(item);
+    }
+
+    private static void remove(List<RecipientListItem> items, long id) {
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i).id == id) {
+                items.remove(i);
+                return;
+            }
+        }
+    }
+
+    private static ByteBuffer startRecord(int payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + payload);
+        buffer.position(8);
+        return buffer;
+    }
+
+    private static byte[] finishRecord(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 8, buffer.capacity() - 8);
+        buffer.putInt(0, buffer.capacity() - 8);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Recipient groups
+    // ---------------------------------------------------------------------------------------------
+
+    public static byte[] encodeGroups(List<RecipientGroup> groups) {
+        byte[][] strings = new byte[groups.size() * 2][];
+        int size = HEADER_SIZE;
+        for (int i = 0; i < groups.size(); i++) {
+            size += measure(strings, i * 2, groups.get(i).name) + measure(strings, i * 2 + 1, groups.get(i).members);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(GROUPS_MAGIC);
+        buffer.putInt(GROUPS_VERSION);
+        buffer.putInt(groups.size());
+        for (byte[] bytes : strings) {
+            if (bytes == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+            }
+        }
+        return buffer.array();
+    }
+
+    public static ArrayList<RecipientGroup> decodeGroups(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != GROUPS_MAGIC) {
+                throw new IOException("Not a group file");
+            }
+            int version = buffer.getInt();
+            if (version < 1 || version > GROUPS_VERSION) {
+                throw new IOException("Unsupported group file version: " + version);
+            }
+
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / 8) {
+                throw new IOException("Corrupt group count: " + count);
+            }
+
+            ArrayList<RecipientGroup> groups = new ArrayList<>(count);
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < count; i++) {
+                String name = readString(buffer, scratch);
+                groups.add(new RecipientGroup(name, readString(buffer, scratch)));
+            }
+            return groups;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated group file", e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Rules
+    // ---------------------------------------------------------------------------------------------
+
+    // Encodes the rule's strings into strings[first..first + 4] and returns the rule's size
+    private static int measureRule(byte[][] strings, int first, RecipientListItem item) {
+        return FIXED_RULE_SIZE
+                + measure(strings, first, item.recipient)
+                + measure(strings, first + 1, item.sender)
+                + measure(strings, first + 2, item.keywords)
+                + measure(strings, first + 3, item.blacklist)
+                + measure(strings, first + 4, item.expression);
+    }
+
+    private static void putRule(ByteBuffer buffer, byte[][] strings, int first, RecipientListItem item) {
+        for (int s = first; s < first + STRINGS_PER_RULE; s++) {
+            byte[] bytes = strings[s];
+            if (bytes == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+            }
+        }
+        buffer.putInt(item.digestWindowSeconds);
+        buffer.putInt(item.digestMaxMessages);
+        buffer.putInt(item.simSlot);
+        buffer.putLong(item.id);
+        buffer.putInt(item.stopProcessing ? FLAG_STOP : 0);
+    }
+
+    // optionalTail: the rule ends its buffer, and fields after version 5 may be missing
+    private static RecipientListItem readRule(
+            ByteBuffer buffer,
+            int version,
+            byte[] scratch,
+            boolean optionalTail
+    ) throws IOException {
+        String recipient = readString(buffer, scratch);
+        String sender = readString(buffer, scratch);
+        String keywords = readString(buffer, scratch);
+        String blacklist = readString(buffer, scratch);
+        String expression = (version >= 2) ? readString(buffer, scratch) : null;
+        RecipientListItem item = new RecipientListItem(recipient, sender, keywords, blacklist, expression);
+        if (version >= 3) {
+            item.digestWindowSeconds = buffer.getInt();
+            item.digestMaxMessages = buffer.getInt();
+        }
+        if (version >= 4) {
+            item.simSlot = buffer.getInt();
+        }
+        if (version >= 5) {
+            item.id = buffer.getLong();
+        }
+        if (version >= 6 && (!optionalTail || buffer.remaining() >= 4)) {
+            item.stopProcessing = (buffer.getInt() & FLAG_STOP) != 0;
+        }
+        return item;
+    }
+
+    private static int measure(byte[][] strings, int index, String value) {
+        if (value == null) {
+            return 4;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        strings[index] = bytes;
+        return 4 + bytes.length;
+    }
+
+    private static String readString(ByteBuffer buffer, byte[] scratch) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0) {
+            if (length == -1) return null;
+            throw new IOException("Corrupt string length: " + length);
+        }
+        if (length > buffer.remaining()) {
+            throw new IOException("Truncated rule file");
+        }
+
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset() + buffer.position();
+            buffer.position(buffer.position() + length);
+            return new String(buffer.array(), offset, length, StandardCharsets.UTF_8);
+        }
+
+        byte[] bytes = (length <= scratch.length) ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,443 @@
+package com.example.forwarding.data_model;
+
+import com.example.forwarding.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Optional body condition of a rule, used instead of its keyword list:
+ *
+ * <pre>
+ *   otp AND (debited OR credited) AND NOT promo
+ *   "verification code" OR /\b\d{6}\b/
+ *   otp -promo -"cash back"
+ * </pre>
+ *
+ * Words and "quoted phrases" are case-insensitive substrings, {@code /.../} is a case-insensitive
+ * regular expression. Upper-case {@code AND}/{@code &}, {@code OR}/{@code |} and
+ * {@code NOT}/{@code !}/{@code -} combine them; terms side by side are ANDed, and NOT binds
+ * tighter than AND, AND than OR.
+ *
+ * An expression is parsed once when the rules are compiled. Its words and phrases are scanned
+ * together with every other keyword by {@link RuleSet}'s automaton, so only regular expressions
+ * cost extra per message, and each of those runs under a step budget so a pathological pattern
+ * cannot stall the pipeline.
+ */
+public final class RuleExpression {
+
+    // charAt calls one regex evaluation may make before it is abandoned as runaway backtracking
+    static final int REGEX_STEP_BUDGET = 250_000;
+
+    private RuleExpression() {}
+
+    /** @return null if {@code expression} is valid, otherwise a message saying what is wrong */
+    public static String validate(String expression) {
+        try {
+            parse(expression, RuleSet.DEFAULT_FOLDING);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    static boolean isSet(String expression) {
+        return expression != null && !expression.trim().isEmpty();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Predicate tree
+    // ---------------------------------------------------------------------------------------------
+
+    abstract static class Node {
+        abstract boolean test(long[] keywordHits, Evaluation evaluation);
+
+        // Cheap nodes are evaluated first, so a regex only runs when it can change the result
+        abstract boolean hasRegex();
+
+        void collect(List<Term> terms, List<Regex> regexes) {}
+    }
+
+    /** A word or phrase; {@link #id} is its payload in the keyword automaton. */
+    static final class Term extends Node {
+        final String folded;
+        int id;
+
+        Term(String folded) {
+            this.folded = folded;
+        }
+
+        @Override
+        boolean test(long[] keywordHits, Evaluation evaluation) {
+            return AhoCorasick.isSet(keywordHits, id);
+        }
+
+        @Override
+        boolean hasRegex() {
+            return false;
+        }
+
+        @Override
+        void collect(List<Term> terms, List<Regex> regexes) {
+            terms.add(this);
+        }
+    }
+
+    /** A regular expression; {@link #id} indexes the per-thread matchers. */
+    static final class Regex extends Node {
+        final Pattern pattern;
+        int id;
+
+        Regex(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        boolean test(long[] keywordHits, Evaluation evaluation) {
+            return evaluation.find(this);
+        }
+
+        @Override
+        boolean hasRegex() {
+            return true;
+        }
+
+        @Override
+        void collect(List<Term> terms, List<Regex> regexes) {
+            regexes.add(this);
+        }
+    }
+
+    static final class Not extends Node {
+        final Node operand;
+
+        Not(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean test(long[] keywordHits, Evaluation evaluation) {
+            return !operand.test(keywordHits, evaluation);
+        }
+
+        @Override
+        boolean hasRegex() {
+            return operand.hasRegex();
+        }
+
+        @Override
+        void collect(List<Term> terms, List<Regex> regexes) {
+            operand.collect(terms, regexes);
+        }
+    }
+
+    static final class Junction extends Node {
+        final boolean and;
+        final Node[] operands;
+
+        Junction(boolean and, List<Node> operands) {
+            this.and = and;
+            this.operands = operands.toArray(new Node[0]);
+            // Stable: regex-free operands first, otherwise as written
+            Arrays.sort(this.operands, (a, b) -> Boolean.compare(a.hasRegex(), b.hasRegex()));
+        }
+
+        @Override
+        boolean test(long[] keywordHits, Evaluation evaluation) {
+            for (Node operand : operands) {
+                if (operand.test(keywordHits, evaluation) != and) return !and;
+            }
+            return and;
+        }
+
+        @Override
+        boolean hasRegex() {
+            for (Node operand : operands) {
+                if (operand.hasRegex()) return true;
+            }
+            return false;
+        }
+
+        @Override
+        void collect(List<Term> terms, List<Regex> regexes) {
+            for (Node operand : operands) operand.collect(terms, regexes);
+        }
+    }
+
+    /** Stands in for an expression that does not parse: the rule never fires. */
+    static final Node NEVER = new Node() {
+        @Override
+        boolean test(long[] keywordHits, Evaluation evaluation) {
+            return false;
+        }
+
+        @Override
+        boolean hasRegex() {
+            return false;
+        }
+    };
+
+    // ---------------------------------------------------------------------------------------------
+    // Evaluation (one per thread, reused)
+    // ---------------------------------------------------------------------------------------------
+
+    /** Per-thread state for evaluating regexes against one message without allocating. */
+    static final class Evaluation {
+        private final Matcher[] matchers;
+        private final BudgetedText text = new BudgetedText();
+
+        Evaluation(int regexCount) {
+            matchers = new Matcher[regexCount];
+        }
+
+        void reset(CharSequence body) {
+            text.body = body;
+        }
+
+        boolean find(Regex regex) {
+            Matcher matcher = matchers[regex.id];
+            if (matcher == null) {
+                matcher = regex.pattern.matcher(text);
+                matchers[regex.id] = matcher;
+            } else {
+                matcher.reset(text);
+            }
+
+            text.budget = REGEX_STEP_BUDGET;
+            try {
+                return matcher.find();
+            } catch (BudgetExceeded e) {
+                Metrics.increment(Metrics.Counter.REGEX_ABORTED);
+                return false;
+            }
+        }
+    }
+
+    // Counts every character the regex engine reads and gives up once the budget is spent
+    private static final class BudgetedText implements CharSequence {
+        CharSequence body = "";
+        int budget;
+
+        @Override
+        public char charAt(int index) {
+            if (--budget < 0) throw BudgetExceeded.INSTANCE;
+            return body.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return body.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return body.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return body.toString();
+        }
+    }
+
+    private static final class BudgetExceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        static final BudgetExceeded INSTANCE = new BudgetExceeded();
+
+        private BudgetExceeded() {
+            super("Regex step budget exceeded", null, false, false);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Parser
+    // ---------------------------------------------------------------------------------------------
+
+    // Regexes by source, so saving the rules again does not recompile unchanged patterns
+    private static final int PATTERN_CACHE_SIZE = 128;
+    private static final Map<String, Pattern> PATTERNS =
+            new LinkedHashMap<String, Pattern>(PATTERN_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+                    return size() > PATTERN_CACHE_SIZE;
+                }
+            };
+
+    /** @throws IllegalArgumentException if the expression is malformed */
+    static Node parse(String expression, int folding) {
+        Parser parser = new Parser(expression, folding);
+        Node node = parser.parseOr();
+        parser.skipSpaces();
+        if (parser.pos < expression.length()) {
+            throw parser.error("Unexpected '" + expression.charAt(parser.pos) + "'");
+        }
+        return node;
+    }
+
+    private static Pattern compile(String regex) {
+        synchronized (PATTERNS) {
+            Pattern pattern = PATTERNS.get(regex);
+            if (pattern == null) {
+                pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+                PATTERNS.put(regex, pattern);
+            }
+            return pattern;
+        }
+    }
+
+    private static final class Parser {
+        private final String text;
+        private final int folding;
+        private int pos;
+
+        Parser(String text, int folding) {
+            this.text = text;
+            this.folding = folding;
+        }
+
+        Node parseOr() {
+            ArrayList<Node> operands = new ArrayList<>();
+            operands.add(parseAnd());
+            while (acceptOperator("OR", '|')) {
+                operands.add(parseAnd());
+            }
+            return operands.size() == 1 ? operands.get(0) : new Junction(false, operands);
+        }
+
+        Node parseAnd() {
+            ArrayList<Node> operands = new ArrayList<>();
+            operands.add(parseUnary());
+            while (true) {
+                if (acceptOperator("AND", '&')) {
+                    operands.add(parseUnary());
+                } else if (startsOperand()) {
+                    operands.add(parseUnary()); // implicit AND
+                } else {
+                    break;
+                }
+            }
+            return operands.size() == 1 ? operands.get(0) : new Junction(true, operands);
+        }
+
+        Node parseUnary() {
+            skipSpaces();
+            if (acceptOperator("NOT", '!') || accept('-')) {
+                return new Not(parseUnary());
+            }
+            return parsePrimary();
+        }
+
+        Node parsePrimary() {
+            skipSpaces();
+            if (pos >= text.length()) throw error("Missing term at end");
+
+            char c = text.charAt(pos);
+            if (c == '(') {
+                pos++;
+                Node inner = parseOr();
+                skipSpaces();
+                if (!accept(')')) throw error("Missing ')'");
+                return inner;
+            }
+            if (c == '"') {
+                int end = text.indexOf('"', pos + 1);
+                if (end < 0) throw error("Missing closing '\"'");
+                String phrase = text.substring(pos + 1, end);
+                pos = end + 1;
+                return term(phrase);
+            }
+            if (c == '/') {
+                return regex();
+            }
+
+            int start = pos;
+            while (pos < text.length() && !isDelimiter(text.charAt(pos))) pos++;
+            if (start == pos) throw error("Unexpected '" + c + "'");
+            return term(text.substring(start, pos));
+        }
+
+        private Node term(String value) {
+            String folded = CaseFold.fold(value, folding);
+            if (folded.isEmpty()) throw error("Empty term");
+            return new Term(folded);
+        }
+
+        private Node regex() {
+            StringBuilder source = new StringBuilder();
+            int i = pos + 1;
+            for (; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\\' && i + 1 < text.length() && text.charAt(i + 1) == '/') {
+                    source.append('/');
+                    i++;
+                } else if (c == '/') {
+                    break;
+                } else {
+                    source.append(c);
+                }
+            }
+            if (i >= text.length()) throw error("Missing closing '/'");
+            if (source.length() == 0) throw error("Empty regular expression");
+            pos = i + 1;
+
+            try {
+                return new Regex(compile(source.toString()));
+            } catch (PatternSyntaxException e) {
+                throw error("Invalid regular expression: " + e.getDescription());
+            }
+        }
+
+        private boolean startsOperand() {
+            skipSpaces();
+            if (pos >= text.length()) return false;
+            char c = text.charAt(pos);
+            if (c == ')' || c == '|' || c == '&') return false;
+            return !peekWord("OR") && !peekWord("AND");
+        }
+
+        private boolean acceptOperator(String word, char symbol) {
+            skipSpaces();
+            if (accept(symbol)) return true;
+            if (peekWord(word)) {
+                pos += word.length();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean peekWord(String word) {
+            int end = pos + word.length();
+            return end <= text.length()
+                    && text.regionMatches(false, pos, word, 0, word.length())
+                    && (end == text.length() || isDelimiter(text.charAt(end)));
+        }
+
+        private boolean accept(char c) {
+            if (pos < text.length() && text.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        void skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+        }
+
+        private static boolean isDelimiter(char c) {
+            return Character.isWhitespace(c) || c == '(' || c == ')' || c == '"' || c == '|' || c == '&';
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(String.format(Locale.US, "%s (at %d)", message, pos + 1));
+        }
+    }
+}
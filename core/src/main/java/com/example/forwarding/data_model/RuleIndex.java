@@ -0,0 +1,134 @@
+package com.example.forwarding.data_model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Search over the rules as the rule list shows them: recipients, senders, keywords, blacklist
+ * and expression. Built once per version of the list, off the UI thread.
+ *
+ * Every whitespace-separated word of a query must occur, case-folded, somewhere in a rule. Each
+ * rule's text is folded once here, and a trigram index narrows a query of three or more
+ * characters down to the rules that contain all of its trigrams before any substring test, so
+ * a search over thousands of rules answers between two keystrokes.
+ */
+public final class RuleIndex {
+
+    private static final int[] NO_RULES = new int[0];
+
+    private final List<RecipientListItem> items;
+    private final String[] texts; // per rule, folded, fields separated by '\n'
+    private final HashMap<Long, int[]> postings; // trigram -> ascending rule indexes
+    private final int folding;
+
+    public RuleIndex(List<RecipientListItem> items, int folding) {
+        this.items = items;
+        this.folding = folding;
+        this.texts = new String[items.size()];
+
+        HashMap<Long, Posting> building = new HashMap<>();
+        for (int i = 0; i < texts.length; i++) {
+            RecipientListItem item = items.get(i);
+            texts[i] = CaseFold.fold(join(item.recipient, item.sender, item.keywords, item.blacklist, item.expression), folding);
+
+            String text = texts[i];
+            for (int c = 0; c + 3 <= text.length(); c++) {
+                Long trigram = trigram(text, c);
+                Posting posting = building.get(trigram);
+                if (posting == null) {
+                    posting = new Posting();
+                    building.put(trigram, posting);
+                }
+                posting.add(i);
+            }
+        }
+
+        postings = new HashMap<>(building.size() * 2);
+        for (Map.Entry<Long, Posting> entry : building.entrySet()) {
+            postings.put(entry.getKey(), Arrays.copyOf(entry.getValue().rules, entry.getValue().size));
+        }
+    }
+
+    public int size() {
+        return texts.length;
+    }
+
+    /** The rules that match {@code query}, in list order; every rule for a blank query. */
+    public ArrayList<RecipientListItem> search(String query) {
+        String[] words = CaseFold.fold(query == null ? "" : query, folding).trim().split("\\s+");
+        if (words.length == 0 || words[0].isEmpty()) {
+            return new ArrayList<>(items);
+        }
+
+        int[] candidates = null; // null = every rule
+        for (String word : words) {
+            for (int c = 0; c + 3 <= word.length(); c++) {
+                int[] rules = postings.get(trigram(word, c));
+                if (rules == null) return new ArrayList<>();
+                candidates = (candidates == null) ? rules : intersect(candidates, rules);
+                if (candidates.length == 0) return new ArrayList<>();
+            }
+        }
+
+        ArrayList<RecipientListItem> found = new ArrayList<>();
+        int count = (candidates == null) ? texts.length : candidates.length;
+        for (int n = 0; n < count; n++) {
+            int i = (candidates == null) ? n : candidates[n];
+            if (containsAll(texts[i], words)) found.add(items.get(i));
+        }
+        return found;
+    }
+
+    private static boolean containsAll(String text, String[] words) {
+        for (String word : words) {
+            if (!text.contains(word)) return false;
+        }
+        return true;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return count == 0 ? NO_RULES : Arrays.copyOf(out, count);
+    }
+
+    private static Long trigram(String text, int at) {
+        return ((long) text.charAt(at) << 32) | ((long) text.charAt(at + 1) << 16) | text.charAt(at + 2);
+    }
+
+    private static String join(String... fields) {
+        StringBuilder text = new StringBuilder();
+        for (String field : fields) {
+            if (field == null || field.isEmpty()) continue;
+            if (text.length() > 0) text.append('\n');
+            text.append(field);
+        }
+        return text.toString();
+    }
+
+    // Rule indexes of one trigram while the index is built; rules are added in ascending order
+    private static final class Posting {
+        int[] rules = new int[4];
+        int size;
+
+        void add(int rule) {
+            if (size > 0 && rules[size - 1] == rule) return; // trigram seen before in this rule
+            if (size == rules.length) rules = Arrays.copyOf(rules, size * 2);
+            rules[size++] = rule;
+        }
+    }
+}
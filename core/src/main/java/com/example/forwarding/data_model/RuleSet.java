@@ -0,0 +1,630 @@
+package com.example.forwarding.data_model;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, pre-compiled form of the forwarding rules.
+ *
+ * Every comma-separated field of a {@link RecipientListItem} is split, trimmed and case-folded
+ * exactly once here. The incoming SMS is folded character by character while it is scanned, so
+ * evaluating the rules does no splitting, no regex and allocates nothing but the result.
+ *
+ * Keywords of all rules are folded into one {@link AhoCorasick} automaton and sender whitelist
+ * and blacklist fragments into a second one, so {@link #match} scans the body and the sender
+ * once each no matter how many rules and keywords there are. Sender entries that are phone
+ * numbers are matched by normalized number instead, through a {@link NumberIndex}.
+ *
+ * A rule marked {@link RecipientListItem#stopProcessing} ends the list when it fires: rules after
+ * it are skipped. Hits, blocks and expression costs are counted into a {@link RuleStats}.
+ *
+ * Recipients of all rules, with {@link RecipientGroup} references expanded, are interned into one
+ * table; phone numbers spelled differently share an entry. Each rule holds its recipients as a
+ * bitset over that table, so collecting the recipients of the rules that fired is a bitwise OR
+ * and needs no set to remove duplicates.
+ */
+public final class RuleSet {
+
+    /** The order rules are evaluated in; the result is the same either way. */
+    public enum Order {
+        LIST,      // as listed, stopping at the first stop rule that fires
+        ADAPTIVE,  // stop rules likeliest to fire and cheapest to test first, so a stop skips more
+    }
+
+    /** Also match fullwidth forms ("ＯＴＰ") against their ASCII equivalents. */
+    public static final int FOLD_WIDTH = 1;
+    /** Also ignore accents and vowel points ("é" = "e", "क़" = "क"); off by default. */
+    public static final int FOLD_DIACRITICS = 2;
+
+    public static final int DEFAULT_FOLDING = FOLD_WIDTH;
+
+    private static final String[] NO_TOKENS = new String[0]; // before EMPTY, which uses it
+
+    public static final RuleSet EMPTY = new RuleSet(new Rule[0], DEFAULT_FOLDING, 0, new RuleStats(), Order.LIST);
+
+    // Messages between two recomputations of the adaptive order
+    private static final int REORDER_INTERVAL = 1024;
+
+    private final Rule[] rules;
+    private final AhoCorasick keywordMatcher; // payload: rule index, or expression term id
+    private final AhoCorasick senderMatcher;  // payload: rule index * 2 (+1 for blacklist)
+    private final NumberIndex senderNumbers;  // payload: rule index * 2 (+1 for blacklist)
+    private final HashMap<String, Integer> simSlots; // recipient -> SIM slot of its first pinned rule
+    private final String[] recipients;        // interned, in order of first appearance
+    private final long[] recipientNumbers;    // sorted E.164 digits of the recipients that are numbers
+    private final int[] recipientNumberIds;   // their index in recipients
+    private final int folding;
+    private final int countryCode;
+    private final RuleStats stats;
+    private final Order orderMode;
+    private volatile int[] order; // rule indexes in evaluation order
+
+    // Hit bitsets and regex matchers, reused by every match on the same thread
+    private final ThreadLocal<Scratch> scratch;
+
+    private RuleSet(Rule[] rules, int folding, int countryCode, RuleStats stats, Order order) {
+        this.rules = rules;
+        this.folding = folding;
+        this.countryCode = countryCode;
+        this.stats = stats;
+        this.orderMode = order;
+
+        AhoCorasick.Builder keywords = new AhoCorasick.Builder();
+        AhoCorasick.Builder senders = new AhoCorasick.Builder();
+        NumberIndex.Builder numbers = new NumberIndex.Builder();
+        simSlots = new HashMap<>();
+
+        // Expression words and phrases share the keyword automaton, numbered after the rules
+        ArrayList<RuleExpression.Term> terms = new ArrayList<>();
+        ArrayList<RuleExpression.Regex> regexes = new ArrayList<>();
+
+        // Numbers are interned by value, anything else (URLs, mailto:, short codes) as written
+        HashMap<Object, Integer> interned = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>();
+        HashMap<Long, Integer> numbered = new HashMap<>();
+        int[][] recipientIds = new int[rules.length][];
+        for (int i = 0; i < rules.length; i++) {
+            String[] ruleRecipients = rules[i].recipients;
+            recipientIds[i] = new int[ruleRecipients.length];
+            for (int r = 0; r < ruleRecipients.length; r++) {
+                long number = PhoneNumbers.parse(ruleRecipients[r], countryCode);
+                Object key = (number == PhoneNumbers.NOT_A_NUMBER) ? ruleRecipients[r] : (Object) number;
+                Integer id = interned.get(key);
+                if (id == null) {
+                    id = names.size();
+                    interned.put(key, id);
+                    names.add(ruleRecipients[r]);
+                    if (number != PhoneNumbers.NOT_A_NUMBER) numbered.put(number, id);
+                }
+                recipientIds[i][r] = id;
+            }
+        }
+        recipients = names.toArray(NO_TOKENS);
+        recipientNumbers = new long[numbered.size()];
+        recipientNumberIds = new int[numbered.size()];
+        int numberCount = 0;
+        for (Long number : numbered.keySet()) recipientNumbers[numberCount++] = number;
+        Arrays.sort(recipientNumbers);
+        for (int n = 0; n < recipientNumbers.length; n++) recipientNumberIds[n] = numbered.get(recipientNumbers[n]);
+
+        for (int i = 0; i < rules.length; i++) {
+            Rule rule = rules[i];
+            rule.recipientBits = AhoCorasick.newBitSet(recipients.length);
+            for (int id : recipientIds[i]) set(rule.recipientBits, id);
+
+            if (rule.expression != null) {
+                int firstTerm = terms.size();
+                int firstRegex = regexes.size();
+                rule.expression.collect(terms, regexes);
+                for (int t = firstTerm; t < terms.size(); t++) {
+                    RuleExpression.Term term = terms.get(t);
+                    term.id = rules.length + t;
+                    keywords.add(term.folded, term.id);
+                }
+                for (int r = firstRegex; r < regexes.size(); r++) {
+                    regexes.get(r).id = r;
+                }
+            } else if (!rule.anyKeyword) {
+                for (String kw : rule.keywordList) keywords.add(kw, i);
+            }
+            if (!rule.anySender) {
+                rule.senderWhitelist.addTo(senders, numbers, i * 2);
+            }
+            rule.senderBlacklist.addTo(senders, numbers, i * 2 + 1);
+            if (rule.simSlot > 0) {
+                for (int id : recipientIds[i]) simSlots.putIfAbsent(recipients[id], rule.simSlot);
+            }
+            rule.counters = stats.counters(rule.id);
+        }
+        this.order = (order == Order.ADAPTIVE) ? adaptiveOrder(rules) : listOrder(rules.length);
+
+        keywordMatcher = keywords.build();
+        senderMatcher = senders.build();
+        senderNumbers = numbers.build();
+
+        final int keywordBits = rules.length + terms.size();
+        final int regexCount = regexes.size();
+        final int recipientCount = recipients.length;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(keywordBits, rules.length, regexCount, recipientCount));
+    }
+
+    public static RuleSet compile(List<RecipientListItem> items) {
+        return compile(items, DEFAULT_FOLDING);
+    }
+
+    /** @param folding any of {@link #FOLD_WIDTH} and {@link #FOLD_DIACRITICS} */
+    public static RuleSet compile(List<RecipientListItem> items, int folding) {
+        return compile(items, folding, 0);
+    }
+
+    /**
+     * @param folding any of {@link #FOLD_WIDTH} and {@link #FOLD_DIACRITICS}
+     * @param countryCode calling code for national numbers in rules and senders (e.g. 91), or 0
+     *                    to recognise only international numbers
+     */
+    public static RuleSet compile(List<RecipientListItem> items, int folding, int countryCode) {
+        return compile(items, folding, countryCode, new RuleStats(), Order.LIST);
+    }
+
+    /**
+     * @param stats counters to update, kept by rule id across compilations; also what the
+     *              adaptive order is computed from
+     */
+    public static RuleSet compile(
+            List<RecipientListItem> items,
+            int folding,
+            int countryCode,
+            RuleStats stats,
+            Order order
+    ) {
+        return compile(items, Collections.<RecipientGroup>emptyList(), folding, countryCode, stats, order);
+    }
+
+    /**
+     * @param groups what {@code @name} recipients of the rules refer to; a reference to a group
+     *               that does not exist adds no recipient
+     */
+    public static RuleSet compile(
+            List<RecipientListItem> items,
+            List<RecipientGroup> groups,
+            int folding,
+            int countryCode,
+            RuleStats stats,
+            Order order
+    ) {
+        if (items == null || items.isEmpty()) {
+            return EMPTY;
+        }
+
+        Rule[] rules = new Rule[items.size()];
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] = new Rule(items.get(i), groups, folding, countryCode);
+        }
+        return new RuleSet(rules, folding, countryCode, stats, order);
+    }
+
+    public int size() {
+        return rules.length;
+    }
+
+    public boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    public int getFolding() {
+        return folding;
+    }
+
+    public int getCountryCode() {
+        return countryCode;
+    }
+
+    public Order getOrder() {
+        return orderMode;
+    }
+
+    public RuleStats getStats() {
+        return stats;
+    }
+
+    /**
+     * The 1-based SIM slot forwards to {@code recipient} must go out on, or 0 for any. A
+     * recipient of several pinned rules uses the first one's slot.
+     */
+    public int getSimSlot(String recipient) {
+        Integer slot = simSlots.get(recipient);
+        return slot == null ? 0 : slot;
+    }
+
+    /**
+     * Evaluates the rules against one message and adds the recipients of all rules that fire, up
+     * to and including the first stop rule that fires. Each recipient is added once, in the order
+     * it first appears in the rules, and never the sender's own number. Sender and body are
+     * matched as received; case and the configured folding are applied on the fly.
+     *
+     * @return true if a sender blacklist kept at least one rule from firing
+     */
+    public boolean match(CharSequence sender, CharSequence body, Collection<String> out) {
+        return match(sender, body, out, null);
+    }
+
+    /**
+     * Like {@link #match(CharSequence, CharSequence, Collection)}, but the recipients of rules in
+     * digest mode go into {@code digests}, with the policy of the first such rule that fired for
+     * them. A recipient that an immediate rule also fired for is only added to {@code out}.
+     *
+     * @param digests filled in, or null to treat digest rules like any other
+     * @return true if a sender blacklist kept at least one rule from firing
+     */
+    public boolean match(
+            CharSequence sender,
+            CharSequence body,
+            Collection<String> out,
+            Map<String, DigestPolicy> digests
+    ) {
+        Scratch scratch = this.scratch.get();
+        long[] keywordHits = scratch.keywordHits;
+        long[] senderHits = scratch.senderHits;
+        long[] fired = scratch.fired;
+        long[] blocked = scratch.blocked;
+        long[] immediate = scratch.immediate;
+        long[] delayed = scratch.delayed;
+        Arrays.fill(keywordHits, 0);
+        Arrays.fill(senderHits, 0);
+        Arrays.fill(fired, 0);
+        Arrays.fill(blocked, 0);
+        Arrays.fill(immediate, 0);
+        Arrays.fill(delayed, 0);
+        scratch.evaluation.reset(body == null ? "" : body);
+
+        long senderNumber = PhoneNumbers.NOT_A_NUMBER;
+        if (body != null) keywordMatcher.scan(body, folding, keywordHits);
+        if (sender != null) {
+            senderNumber = PhoneNumbers.parse(sender, countryCode);
+            senderMatcher.scan(sender, folding, senderHits);
+            senderNumbers.lookup(senderNumber, senderHits);
+        }
+
+        // Rules past the first stop rule that fired are not applied, whatever order they are
+        // evaluated in; in list order every rule after it is simply skipped.
+        int cutoff = rules.length;
+        int[] order = this.order;
+        for (int n = 0; n < order.length; n++) {
+            int i = order[n];
+            if (i > cutoff) continue;
+            Rule rule = rules[i];
+
+            if (!rule.anySender && !AhoCorasick.isSet(senderHits, i * 2)) continue;
+            boolean isBlocked = AhoCorasick.isSet(senderHits, i * 2 + 1);
+
+            if (rule.expression != null) {
+                // Blacklist first, so a blocked sender never costs a regex evaluation
+                if (isBlocked) {
+                    set(blocked, i);
+                    continue;
+                }
+                long start = System.nanoTime();
+                boolean matched = rule.expression.test(keywordHits, scratch.evaluation);
+                rule.counters.evaluated(System.nanoTime() - start);
+                if (!matched) continue;
+            } else {
+                if (!rule.anyKeyword && !AhoCorasick.isSet(keywordHits, i)) continue;
+                if (isBlocked) {
+                    set(blocked, i);
+                    continue;
+                }
+            }
+
+            set(fired, i);
+            if (rule.stop) cutoff = i;
+        }
+
+        // Rules are applied in list order, so the result never depends on the evaluation order
+        long now = 0;
+        boolean blacklisted = false;
+        for (int w = 0; w < fired.length; w++) {
+            long bits = fired[w] | blocked[w];
+            while (bits != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (i > cutoff) break;
+
+                Rule rule = rules[i];
+                if (AhoCorasick.isSet(blocked, i)) {
+                    blacklisted = true;
+                    rule.counters.blocks.incrementAndGet();
+                    continue;
+                }
+
+                if (now == 0) now = System.currentTimeMillis();
+                rule.counters.hits.incrementAndGet();
+                rule.counters.lastHitAt = now;
+                long[] recipientBits = rule.recipientBits;
+                if (rule.digest != null && digests != null) {
+                    // A recipient keeps the policy of the first digest rule that fired for it
+                    int[] digestRule = scratch.digestRule;
+                    for (int r = 0; r < recipientBits.length; r++) {
+                        long fresh = recipientBits[r] & ~delayed[r];
+                        delayed[r] |= fresh;
+                        while (fresh != 0) {
+                            digestRule[(r << 6) + Long.numberOfTrailingZeros(fresh)] = i;
+                            fresh &= fresh - 1;
+                        }
+                    }
+                } else {
+                    for (int r = 0; r < recipientBits.length; r++) immediate[r] |= recipientBits[r];
+                }
+            }
+        }
+
+        // Never forward back to the sender, however either number is spelled
+        if (senderNumber != PhoneNumbers.NOT_A_NUMBER) {
+            int n = Arrays.binarySearch(recipientNumbers, senderNumber);
+            if (n >= 0) {
+                int id = recipientNumberIds[n];
+                immediate[id >>> 6] &= ~(1L << id);
+                delayed[id >>> 6] &= ~(1L << id);
+            }
+        }
+
+        for (int r = 0; r < immediate.length; r++) {
+            long bits = immediate[r];
+            // An immediate rule wins over a digest rule for the same recipient
+            long digestBits = (digests == null) ? 0 : delayed[r] & ~bits;
+            while (bits != 0) {
+                out.add(recipients[(r << 6) + Long.numberOfTrailingZeros(bits)]);
+                bits &= bits - 1;
+            }
+            while (digestBits != 0) {
+                int id = (r << 6) + Long.numberOfTrailingZeros(digestBits);
+                digests.putIfAbsent(recipients[id], rules[scratch.digestRule[id]].digest);
+                digestBits &= digestBits - 1;
+            }
+        }
+
+        long messages = stats.countMessage();
+        if (orderMode == Order.ADAPTIVE && messages % REORDER_INTERVAL == 0) {
+            this.order = adaptiveOrder(rules);
+        }
+        return blacklisted;
+    }
+
+    private static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Evaluation order
+    // ---------------------------------------------------------------------------------------------
+
+    private static int[] listOrder(int count) {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) order[i] = i;
+        return order;
+    }
+
+    /**
+     * Stop rules first, best score first, then every other rule in list order. A stop rule that
+     * fires early skips every rule after it in the list, so the ones that fire most often for
+     * the least expression cost go first. The order of the other rules cannot save any work:
+     * each one before the cutoff has to be evaluated anyway.
+     */
+    static int[] adaptiveOrder(Rule[] rules) {
+        int[] order = new int[rules.length];
+        double[] scores = new double[rules.length];
+        int stops = 0;
+        for (int i = 0; i < rules.length; i++) {
+            if (!rules[i].stop) continue;
+            RuleStats.Counters counters = rules[i].counters;
+            double score = (counters.hits.get() + 1.0) / (counters.meanNanos() + 100.0);
+
+            // Insertion sort: stop rules are few, and equal scores keep list order
+            int at = stops++;
+            while (at > 0 && scores[at - 1] < score) {
+                order[at] = order[at - 1];
+                scores[at] = scores[at - 1];
+                at--;
+            }
+            order[at] = i;
+            scores[at] = score;
+        }
+        int next = stops;
+        for (int i = 0; i < rules.length; i++) {
+            if (!rules[i].stop) order[next++] = i;
+        }
+        return order;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Normalization helpers
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Splits on commas without regex, trimming each token and dropping empty ones.
+     *
+     * @param folding how to fold the tokens, or -1 to keep them as they are
+     */
+    static String[] tokenize(String value, int folding) {
+        if (value == null) {
+            return NO_TOKENS;
+        }
+
+        ArrayList<String> tokens = null;
+        int length = value.length();
+        int start = 0;
+
+        while (start <= length) {
+            int end = value.indexOf(',', start);
+            if (end < 0) end = length;
+
+            int from = start;
+            int to = end;
+            while (from < to && value.charAt(from) <= ' ') from++;
+            while (to > from && value.charAt(to - 1) <= ' ') to--;
+
+            if (from < to) {
+                String token = value.substring(from, to);
+                if (tokens == null) tokens = new ArrayList<>();
+                if (folding >= 0) token = CaseFold.fold(token, folding);
+                if (!token.isEmpty()) tokens.add(token);
+            }
+            start = end + 1;
+        }
+
+        return tokens == null ? NO_TOKENS : tokens.toArray(NO_TOKENS);
+    }
+
+    private static boolean containsWildcard(String[] tokens) {
+        for (String token : tokens) {
+            if (token.equals("*")) return true;
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Compiled rule
+    // ---------------------------------------------------------------------------------------------
+
+    static final class Rule {
+
+        private final String[] recipients;       // trimmed, original case, groups expanded
+        private long[] recipientBits;            // over RuleSet.recipients, set by its constructor
+        private final SenderList senderWhitelist; // empty = any sender
+        private final SenderList senderBlacklist;
+        private final String[] keywordList;      // folded, empty = any message
+        private final RuleExpression.Node expression; // replaces keywordList when set
+        private final DigestPolicy digest;       // null = forward immediately
+        private final int simSlot;               // 0 = any
+        private final boolean stop;              // rules after this one are skipped when it fires
+        private final long id;
+        private RuleStats.Counters counters;     // set once by the RuleSet constructor
+        private final boolean anySender;
+        private final boolean anyKeyword;
+
+        Rule(RecipientListItem item, List<RecipientGroup> groups, int folding, int countryCode) {
+            recipients = expand(tokenize(item.recipient, -1), groups);
+            senderWhitelist = new SenderList(tokenize(item.sender, folding), countryCode);
+            senderBlacklist = new SenderList(tokenize(item.blacklist, folding), countryCode);
+            keywordList = tokenize(item.keywords, folding);
+            expression = RuleExpression.isSet(item.expression) ? parseExpression(item.expression, folding) : null;
+            anySender = senderWhitelist.isEmpty() || containsWildcard(senderWhitelist.fragments);
+            anyKeyword = keywordList.length == 0 || containsWildcard(keywordList);
+            digest = DigestPolicy.of(item.digestWindowSeconds, item.digestMaxMessages);
+            simSlot = Math.max(item.simSlot, 0);
+            stop = item.stopProcessing;
+            id = item.id;
+        }
+
+        // A rule whose expression does not parse never fires, rather than failing the whole set
+        private static RuleExpression.Node parseExpression(String expression, int folding) {
+            try {
+                return RuleExpression.parse(expression, folding);
+            } catch (IllegalArgumentException e) {
+                return RuleExpression.NEVER;
+            }
+        }
+
+        // Replaces each @name with the members of that group
+        private static String[] expand(String[] recipients, List<RecipientGroup> groups) {
+            boolean references = false;
+            for (String recipient : recipients) {
+                references |= RecipientGroup.isReference(recipient);
+            }
+            if (!references) return recipients;
+
+            ArrayList<String> expanded = new ArrayList<>();
+            for (String recipient : recipients) {
+                if (!RecipientGroup.isReference(recipient)) {
+                    expanded.add(recipient);
+                    continue;
+                }
+                RecipientGroup group = RecipientGroup.find(groups, recipient);
+                if (group == null) continue;
+                for (String member : tokenize(group.members, -1)) {
+                    if (!RecipientGroup.isReference(member)) expanded.add(member);
+                }
+            }
+            return expanded.toArray(NO_TOKENS);
+        }
+    }
+
+    private static final class Scratch {
+        final long[] keywordHits;
+        final long[] senderHits;
+        final long[] fired;   // rules that fired
+        final long[] blocked; // rules a blacklist stopped from firing
+        final long[] immediate; // recipients to forward to now
+        final long[] delayed;   // recipients of digest rules
+        final int[] digestRule; // per recipient in delayed: the first digest rule that fired
+        final RuleExpression.Evaluation evaluation;
+
+        Scratch(int keywordBits, int ruleCount, int regexCount, int recipientCount) {
+            keywordHits = AhoCorasick.newBitSet(keywordBits);
+            senderHits = AhoCorasick.newBitSet(ruleCount * 2);
+            fired = AhoCorasick.newBitSet(ruleCount);
+            blocked = AhoCorasick.newBitSet(ruleCount);
+            immediate = AhoCorasick.newBitSet(recipientCount);
+            delayed = AhoCorasick.newBitSet(recipientCount);
+            digestRule = new int[recipientCount];
+            evaluation = new RuleExpression.Evaluation(regexCount);
+        }
+    }
+
+    /**
+     * Sender whitelist or blacklist entries: phone numbers, optionally as a prefix with a
+     * trailing "*" ("+91140*"), are matched by normalized number; everything else (sender IDs,
+     * short codes, anything under seven digits) as a substring of the sender.
+     */
+    static final class SenderList {
+
+        // A number prefix needs this many digits, so a stray "0*" stays a plain fragment
+        private static final int MIN_PREFIX_DIGITS = 3;
+
+        final String[] fragments; // folded
+        final long[] numbers;     // E.164 digits
+        final long[] prefixes;    // E.164 digits
+
+        SenderList(String[] tokens, int countryCode) {
+            ArrayList<String> fragments = new ArrayList<>();
+            long[] numbers = new long[tokens.length];
+            long[] prefixes = new long[tokens.length];
+            int numberCount = 0;
+            int prefixCount = 0;
+
+            for (String token : tokens) {
+                boolean prefix = token.length() > 1 && token.endsWith("*");
+                long number = prefix
+                        ? PhoneNumbers.parse(token.substring(0, token.length() - 1), countryCode, MIN_PREFIX_DIGITS)
+                        : PhoneNumbers.parse(token, countryCode);
+
+                if (number == PhoneNumbers.NOT_A_NUMBER) {
+                    fragments.add(token);
+                } else if (prefix) {
+                    prefixes[prefixCount++] = number;
+                } else {
+                    numbers[numberCount++] = number;
+                }
+            }
+
+            this.fragments = fragments.toArray(NO_TOKENS);
+            this.numbers = Arrays.copyOf(numbers, numberCount);
+            this.prefixes = Arrays.copyOf(prefixes, prefixCount);
+        }
+
+        boolean isEmpty() {
+            return fragments.length == 0 && numbers.length == 0 && prefixes.length == 0;
+        }
+
+        void addTo(AhoCorasick.Builder substrings, NumberIndex.Builder index, int payload) {
+            for (String fragment : fragments) substrings.add(fragment, payload);
+            for (long number : numbers) index.add(number, false, payload);
+            for (long prefix : prefixes) index.add(prefix, true, payload);
+        }
+    }
+}
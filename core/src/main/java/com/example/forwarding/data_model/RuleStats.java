@@ -0,0 +1,219 @@
+package com.example.forwarding.data_model;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-rule counters: how often a rule fired, how often its blacklist blocked a message it would
+ * otherwise have forwarded, and what its expression costs to evaluate.
+ *
+ * Counters are kept by rule id, so they carry over when the rules are compiled again after an
+ * edit. {@link RuleSet} updates them lock-free and without allocating; they drive its
+ * {@link RuleSet.Order#ADAPTIVE} order, and {@link #describe} lists them so rules that never fire
+ * can be found and removed.
+ */
+public final class RuleStats {
+
+    static final int MAGIC = 0x53465253; // "SFRS"
+    static final int VERSION = 1;
+
+    private static final int ENTRY_SIZE = 6 * 8;
+
+    private final ConcurrentHashMap<Long, Counters> byId = new ConcurrentHashMap<>();
+    private final AtomicLong messages = new AtomicLong();
+    private volatile long since;
+
+    public RuleStats() {
+        this.since = System.currentTimeMillis();
+    }
+
+    static final class Counters {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong blocks = new AtomicLong();
+        final AtomicLong evaluations = new AtomicLong(); // expression rules only
+        final AtomicLong nanos = new AtomicLong();       // spent in those evaluations
+        volatile long lastHitAt;
+
+        void evaluated(long elapsedNanos) {
+            evaluations.incrementAndGet();
+            nanos.addAndGet(elapsedNanos);
+        }
+
+        // Mean expression cost; 0 for a rule matched by keywords alone
+        long meanNanos() {
+            long count = evaluations.get();
+            return count == 0 ? 0 : nanos.get() / count;
+        }
+    }
+
+    // Rules not saved yet (id 0) get counters of their own that are not kept
+    Counters counters(long id) {
+        if (id == 0) return new Counters();
+        Counters counters = byId.get(id);
+        if (counters == null) {
+            counters = new Counters();
+            Counters raced = byId.putIfAbsent(id, counters);
+            if (raced != null) counters = raced;
+        }
+        return counters;
+    }
+
+    /** Counts one evaluated message and returns the new total. */
+    long countMessage() {
+        return messages.incrementAndGet();
+    }
+
+    public long getMessages() {
+        return messages.get();
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    public long getHits(long id) {
+        Counters counters = byId.get(id);
+        return counters == null ? 0 : counters.hits.get();
+    }
+
+    public long getBlocks(long id) {
+        Counters counters = byId.get(id);
+        return counters == null ? 0 : counters.blocks.get();
+    }
+
+    public void remove(long id) {
+        byId.remove(id);
+    }
+
+    /** Forgets the counters of rules that no longer exist. */
+    public void retain(Collection<RecipientListItem> items) {
+        HashSet<Long> ids = new HashSet<>();
+        for (RecipientListItem item : items) ids.add(item.id);
+        byId.keySet().retainAll(ids);
+    }
+
+    public void reset() {
+        for (Counters counters : byId.values()) {
+            counters.hits.set(0);
+            counters.blocks.set(0);
+            counters.evaluations.set(0);
+            counters.nanos.set(0);
+            counters.lastHitAt = 0;
+        }
+        messages.set(0);
+        since = System.currentTimeMillis();
+    }
+
+    /**
+     * One line per rule, in list order: hits, blocks, mean expression cost and when it last
+     * fired. Recipients are shortened and webhook credentials left out, so the text can be
+     * shared.
+     */
+    public String describe(List<RecipientListItem> items, long now) {
+        StringBuilder out = new StringBuilder(64 + items.size() * 64);
+        long days = (now - since) / 86_400_000L;
+        long hours = (now - since) / 3_600_000L % 24;
+        out.append(String.format(Locale.US, "Rules over %dd %02dh, %,d messages%n%n", days, hours, messages.get()));
+        out.append(String.format(Locale.US, "%-4s %9s %7s %8s %8s  %s%n", "rule", "hits", "blocked", "expr µs", "last", "to"));
+
+        for (int i = 0; i < items.size(); i++) {
+            RecipientListItem item = items.get(i);
+            Counters counters = byId.get(item.id);
+            long hits = counters == null ? 0 : counters.hits.get();
+            long blocks = counters == null ? 0 : counters.blocks.get();
+            long mean = counters == null ? 0 : counters.meanNanos();
+            long lastHitAt = counters == null ? 0 : counters.lastHitAt;
+
+            out.append(String.format(Locale.US, "%-4s %,9d %,7d %8s %8s  %s%s%n",
+                    "#" + (i + 1), hits, blocks,
+                    mean == 0 ? "-" : String.format(Locale.US, "%.1f", mean / 1e3),
+                    lastHitAt == 0 ? "never" : age(now - lastHitAt),
+                    label(item.recipient),
+                    item.stopProcessing ? " (stop)" : ""));
+        }
+        return out.toString();
+    }
+
+    private static String age(long millis) {
+        long minutes = Math.max(0, millis) / 60_000L;
+        if (minutes < 60) return minutes + "m";
+        if (minutes < 48 * 60) return minutes / 60 + "h";
+        return minutes / (24 * 60) + "d";
+    }
+
+    // First recipient, without the user info of a webhook URL, at most 28 characters
+    private static String label(String recipient) {
+        String[] recipients = RuleSet.tokenize(recipient, -1);
+        if (recipients.length == 0) return "";
+
+        String label = recipients[0];
+        int at = label.indexOf('@');
+        int slash = label.indexOf('/', 8);
+        if (label.regionMatches(true, 0, "https://", 0, 8) && at >= 0 && (slash < 0 || at < slash)) {
+            label = label.substring(0, 8) + label.substring(at + 1);
+        }
+        if (label.length() > 28) label = label.substring(0, 27) + "…";
+        return recipients.length > 1 ? label + " +" + (recipients.length - 1) : label;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Encoding
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * <pre>
+     * int   magic "SFRS", int version, long since, long messages, int count,
+     * count * (long id, long hits, long blocks, long evaluations, long nanos, long last hit)
+     * </pre>
+     */
+    public byte[] encode() {
+        Long[] ids = byId.keySet().toArray(new Long[0]);
+        ByteBuffer buffer = ByteBuffer.allocate(28 + ids.length * ENTRY_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(since).putLong(messages.get()).putInt(ids.length);
+        for (Long id : ids) {
+            Counters counters = byId.get(id);
+            if (counters == null) counters = new Counters(); // removed meanwhile, keep the count right
+            buffer.putLong(id)
+                    .putLong(counters.hits.get())
+                    .putLong(counters.blocks.get())
+                    .putLong(counters.evaluations.get())
+                    .putLong(counters.nanos.get())
+                    .putLong(counters.lastHitAt);
+        }
+        return buffer.array();
+    }
+
+    public static RuleStats decode(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) throw new IOException("Not a rule stats file");
+            int version = buffer.getInt();
+            if (version != VERSION) throw new IOException("Unsupported rule stats version: " + version);
+
+            RuleStats stats = new RuleStats();
+            stats.since = buffer.getLong();
+            stats.messages.set(buffer.getLong());
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / ENTRY_SIZE) {
+                throw new IOException("Corrupt rule stats count: " + count);
+            }
+            for (int i = 0; i < count; i++) {
+                Counters counters = stats.counters(buffer.getLong());
+                counters.hits.set(buffer.getLong());
+                counters.blocks.set(buffer.getLong());
+                counters.evaluations.set(buffer.getLong());
+                counters.nanos.set(buffer.getLong());
+                counters.lastHitAt = buffer.getLong();
+            }
+            return stats;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated rule stats", e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.forwarding.event;
+
+/**
+ * Concatenation information element of a 3GPP SMS-DELIVER PDU (3GPP TS 23.040, 9.2.3.24.1 and
+ * 9.2.3.24.8): which message a part belongs to and where it goes.
+ *
+ * {@code SmsMessage} does not expose it, so {@link #parse} reads it straight from the PDU as
+ * delivered in the SMS_RECEIVED broadcast, which starts with the SMSC address.
+ */
+public final class ConcatHeader {
+
+    private static final int IEI_CONCAT_8BIT = 0x00;
+    private static final int IEI_CONCAT_16BIT = 0x08;
+
+    public final int reference; // same for every part of one message from one sender
+    public final int count;     // number of parts
+    public final int sequence;  // 1-based position of this part
+
+    ConcatHeader(int reference, int count, int sequence) {
+        this.reference = reference;
+        this.count = count;
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return the header, or null when the PDU is not an SMS-DELIVER with a valid concatenation
+     *         element (a single-part message, a 3GPP2 PDU or a malformed one)
+     */
+    public static ConcatHeader parse(byte[] pdu) {
+        if (pdu == null) return null;
+        try {
+            int i = (pdu[0] & 0xff) + 1;         // SMSC address
+
+            int firstOctet = pdu[i++] & 0xff;
+            if ((firstOctet & 0x03) != 0x00) return null; // not SMS-DELIVER
+            if ((firstOctet & 0x40) == 0) return null;    // no user data header
+
+            int addressDigits = pdu[i++] & 0xff;  // TP-OA, length in semi-octets
+            i += 1 + (addressDigits + 1) / 2;     // type of address, digits
+            i += 1 + 1 + 7;                       // TP-PID, TP-DCS, TP-SCTS
+            i += 1;                               // TP-UDL
+
+            int headerLength = pdu[i++] & 0xff;
+            int end = i + headerLength;
+            if (end > pdu.length) return null;
+
+            while (i + 2 <= end) {
+                int iei = pdu[i++] & 0xff;
+                int length = pdu[i++] & 0xff;
+                if (i + length > end) return null;
+
+                if (iei == IEI_CONCAT_8BIT && length == 3) {
+                    return valid(pdu[i] & 0xff, pdu[i + 1] & 0xff, pdu[i + 2] & 0xff);
+                }
+                if (iei == IEI_CONCAT_16BIT && length == 4) {
+                    return valid(((pdu[i] & 0xff) << 8) | (pdu[i + 1] & 0xff), pdu[i + 2] & 0xff, pdu[i + 3] & 0xff);
+                }
+                i += length;
+            }
+            return null;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    // Count 0 and sequence 0 or past the count are reserved; the element is then ignored
+    private static ConcatHeader valid(int reference, int count, int sequence) {
+        if (count < 1 || sequence < 1 || sequence > count) return null;
+        return new ConcatHeader(reference, count, sequence);
+    }
+}
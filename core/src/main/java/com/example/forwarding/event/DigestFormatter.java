@@ -0,0 +1,165 @@
+package com.example.forwarding.event;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Renders buffered messages as one compact digest text: a heading with the message count, the
+ * busiest senders with their counts, the first few bodies clipped to one line each, and how many
+ * were left out. The text never exceeds the configured number of segments, so a storm of any size
+ * costs the same few segments per recipient.
+ *
+ * The length is measured in the encoding the text will be sent in: three segments hold 459 GSM
+ * 7-bit septets but only 201 UCS-2 characters. Only plain ASCII is added around the senders and
+ * bodies, so a digest of GSM 7-bit messages stays GSM 7-bit.
+ */
+public final class DigestFormatter {
+
+    public static final int DEFAULT_MAX_SENDERS = 5;
+    public static final int DEFAULT_MAX_BODIES = 3;
+    public static final int DEFAULT_MAX_BODY_CHARS = 70;
+    public static final int DEFAULT_MAX_SEGMENTS = 3;
+
+    private static final String ELLIPSIS = "...";
+
+    private final String heading; // format with the message count, e.g. "Digest: %1$d messages"
+    private final String more;    // format with the number left out, e.g. "+%1$d more"
+    private final int maxSenders;
+    private final int maxBodies;
+    private final int maxBodyChars;
+    private final int maxSegments;
+
+    public DigestFormatter(String heading, String more) {
+        this(heading, more, DEFAULT_MAX_SENDERS, DEFAULT_MAX_BODIES, DEFAULT_MAX_BODY_CHARS, DEFAULT_MAX_SEGMENTS);
+    }
+
+    public DigestFormatter(
+            String heading,
+            String more,
+            int maxSenders,
+            int maxBodies,
+            int maxBodyChars,
+            int maxSegments
+    ) {
+        this.heading = heading;
+        this.more = more;
+        this.maxSenders = maxSenders;
+        this.maxBodies = maxBodies;
+        this.maxBodyChars = Math.max(maxBodyChars, ELLIPSIS.length() + 1);
+        this.maxSegments = maxSegments;
+    }
+
+    /** @param messages in the order they were received */
+    public String format(List<IncomingMessage> messages) {
+        StringBuilder text = new StringBuilder(SmsEncoding.capacity(maxSegments, true) + 16);
+        // Plain digits whatever the device locale, so the count never costs the GSM alphabet
+        text.append(String.format(Locale.ROOT, heading, messages.size()));
+
+        // Busiest senders first; the sort is stable, so ties keep the order they first appeared in
+        LinkedHashMap<String, int[]> counts = new LinkedHashMap<>();
+        for (IncomingMessage message : messages) {
+            counts.computeIfAbsent(String.valueOf(message.sender), sender -> new int[1])[0]++;
+        }
+        ArrayList<Map.Entry<String, int[]>> senders = new ArrayList<>(counts.entrySet());
+        senders.sort((a, b) -> Integer.compare(b.getValue()[0], a.getValue()[0]));
+
+        text.append('\n');
+        int shownSenders = Math.min(senders.size(), maxSenders);
+        for (int i = 0; i < shownSenders; i++) {
+            Map.Entry<String, int[]> sender = senders.get(i);
+            if (i > 0) text.append(", ");
+            text.append(sender.getKey()).append(" x").append(sender.getValue()[0]);
+        }
+        if (shownSenders < senders.size()) {
+            text.append(", ").append(String.format(Locale.ROOT, more, senders.size() - shownSenders));
+        }
+
+        if (!fits(text)) {
+            return clip(text);
+        }
+
+        // Bodies while they fit, keeping room for the "+n more" line
+        int shown = 0;
+        int limit = Math.min(messages.size(), maxBodies);
+        String moreLine = String.format(Locale.ROOT, more, messages.size());
+        for (; shown < limit; shown++) {
+            IncomingMessage message = messages.get(shown);
+            int mark = text.length();
+            text.append("\n- ").append(message.sender).append(": ");
+            appendOneLine(text, message.body);
+
+            boolean fits;
+            if (shown + 1 < messages.size()) {
+                int end = text.length();
+                fits = fits(text.append('\n').append(moreLine));
+                text.setLength(end);
+            } else {
+                fits = fits(text);
+            }
+            if (!fits) {
+                text.setLength(mark);
+                break;
+            }
+        }
+
+        if (shown < messages.size()) {
+            text.append('\n').append(String.format(Locale.ROOT, more, messages.size() - shown));
+        }
+        return fits(text) ? text.toString() : clip(text);
+    }
+
+    private boolean fits(CharSequence text) {
+        boolean gsm = SmsEncoding.isGsm(text);
+        return SmsEncoding.size(text, gsm) <= SmsEncoding.capacity(maxSegments, gsm);
+    }
+
+    // Collapses line breaks and runs of spaces, and clips the body to maxBodyChars
+    private void appendOneLine(StringBuilder text, String body) {
+        if (body == null) return;
+
+        int start = text.length();
+        boolean space = false;
+        for (int i = 0, n = body.length(); i < n; i++) {
+            char c = body.charAt(i);
+            if (c <= ' ') {
+                space = text.length() > start;
+                continue;
+            }
+            if (space) {
+                text.append(' ');
+                space = false;
+            }
+            text.append(c);
+            if (text.length() - start > maxBodyChars) {
+                cut(text, start + maxBodyChars - ELLIPSIS.length());
+                text.append(ELLIPSIS);
+                return;
+            }
+        }
+    }
+
+    // Cuts the text to the segments with room for the ellipsis, counting in its encoding's units
+    private String clip(StringBuilder text) {
+        boolean gsm = SmsEncoding.isGsm(text);
+        int room = Math.max(SmsEncoding.capacity(maxSegments, gsm) - ELLIPSIS.length(), 0);
+        int length = Math.min(room, text.length());
+        if (gsm) {
+            length = 0;
+            for (int used = 0; length < text.length(); length++) {
+                used += SmsEncoding.septets(text.charAt(length));
+                if (used > room) break;
+            }
+        }
+        cut(text, length);
+        return text.append(ELLIPSIS).toString();
+    }
+
+    // Never leaves half of a surrogate pair behind
+    private static void cut(StringBuilder text, int length) {
+        if (length > 0 && Character.isHighSurrogate(text.charAt(length - 1))) length--;
+        text.setLength(length);
+    }
+}
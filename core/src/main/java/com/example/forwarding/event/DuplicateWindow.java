@@ -0,0 +1,184 @@
+package com.example.forwarding.event;
+
+import com.example.forwarding.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The forwards of the last window, to drop a forward of a (sender, body, recipient) triple that
+ * was already made, e.g. carrier redeliveries or two gateways forwarding to each other.
+ *
+ * A forward only counts once the outbox has taken it: a message the full outbox refused is
+ * forwarded when it is delivered again, not suppressed as a duplicate of a forward that never
+ * happened.
+ *
+ * Only 64-bit fingerprints are kept, in a bounded LRU. {@link #encode} and {@link #decode} let a
+ * subclass keep it across restarts, saving it when {@link #onChanged} is called.
+ */
+public class DuplicateWindow {
+
+    public static final int MAX_ENTRIES = 4096;
+
+    static final int FILE_VERSION = 1;
+
+    // fingerprint -> time it was last forwarded
+    private final LinkedHashMap<Long, Long> seen = new LinkedHashMap<Long, Long>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private long windowMillis; // of the last record, for expire()
+
+    /**
+     * Hands the recipients that have not received this message within the window to
+     * {@code queue}, and records them as forwarded only if it took them.
+     *
+     * @param windowMillis 0 to forward every copy
+     * @return the recipients queued; empty if all were duplicates or the queue refused them
+     */
+    public ArrayList<String> forward(
+            IncomingMessage message,
+            List<String> recipients,
+            long now,
+            long windowMillis,
+            Predicate<ArrayList<String>> queue
+    ) {
+        ArrayList<String> fresh = filter(message, recipients, now, windowMillis);
+        if (fresh.isEmpty() || !queue.test(fresh)) {
+            return new ArrayList<>();
+        }
+        record(message, fresh, now, windowMillis);
+        return fresh;
+    }
+
+    /** Returns the recipients that have not received this message within the window. */
+    public ArrayList<String> filter(IncomingMessage message, List<String> recipients, long now, long windowMillis) {
+        ArrayList<String> fresh = new ArrayList<>(recipients.size());
+
+        if (windowMillis <= 0) {
+            fresh.addAll(recipients);
+            return fresh;
+        }
+
+        long base = fingerprint(message.sender, message.body);
+        synchronized (this) {
+            for (String recipient : recipients) {
+                if (isFresh(mix(base, recipient), now, windowMillis)) fresh.add(recipient);
+            }
+        }
+        Metrics.add(Metrics.Counter.DUPLICATE, recipients.size() - fresh.size());
+        return fresh;
+    }
+
+    /** Records the message as forwarded to {@code recipients} at {@code now}. */
+    public void record(IncomingMessage message, List<String> recipients, long now, long windowMillis) {
+        if (windowMillis <= 0) return;
+
+        long base = fingerprint(message.sender, message.body);
+        synchronized (this) {
+            this.windowMillis = windowMillis;
+            for (String recipient : recipients) {
+                seen.put(mix(base, recipient), now);
+            }
+            onChanged();
+        }
+    }
+
+    /** @return true, recording {@code now}, if the fingerprint was not seen within the window */
+    synchronized boolean checkAndRecord(long fingerprint, long now, long windowMillis) {
+        if (!isFresh(fingerprint, now, windowMillis)) {
+            return false;
+        }
+        seen.put(fingerprint, now);
+        return true;
+    }
+
+    private synchronized boolean isFresh(long fingerprint, long now, long windowMillis) {
+        Long last = seen.get(fingerprint);
+        return last == null || now - last >= windowMillis;
+    }
+
+    /** Called with the lock held after forwards were recorded. */
+    protected void onChanged() {
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Fingerprints (64-bit FNV-1a)
+    // ---------------------------------------------------------------------------------------------
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    static long fingerprint(String sender, String body) {
+        return mix(mix(FNV_OFFSET, sender), body);
+    }
+
+    static long mix(long hash, String value) {
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        // field separator, so ("ab", "c") and ("a", "bc") differ
+        return (hash ^ 0xff) * FNV_PRIME;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Encoding
+    // ---------------------------------------------------------------------------------------------
+
+    /** Forgets the forwards that fell out of the window, then encodes the rest. */
+    public synchronized byte[] encode(long now) {
+        expire(now, windowMillis);
+        return encode();
+    }
+
+    synchronized byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + seen.size() * 16);
+        buffer.putInt(FILE_VERSION);
+        buffer.putInt(seen.size());
+        // Oldest first, so decoding in order restores the LRU order
+        for (Map.Entry<Long, Long> entry : seen.entrySet()) {
+            buffer.putLong(entry.getKey());
+            buffer.putLong(entry.getValue());
+        }
+        return buffer.array();
+    }
+
+    public synchronized void decode(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != FILE_VERSION) {
+                throw new IOException("Unsupported duplicate window version");
+            }
+            int count = buffer.getInt();
+            seen.clear();
+            for (int i = 0; i < count; i++) {
+                seen.put(buffer.getLong(), buffer.getLong());
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated duplicate window", e);
+        }
+    }
+
+    synchronized int size() {
+        return seen.size();
+    }
+
+    /** Forgets fingerprints older than {@code windowMillis}. */
+    synchronized void expire(long now, long windowMillis) {
+        Iterator<Long> times = seen.values().iterator();
+        while (times.hasNext()) {
+            if (now - times.next() >= windowMillis) times.remove();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.forwarding.event;
+
+/**
+ * One received SMS after its PDUs have been merged, as handed from {@link SMSReceiver} to the
+ * background {@link ForwardingPipeline}.
+ */
+public final class IncomingMessage {
+
+    public final String sender;
+    public final String body;
+    public final long receivedAtMillis;
+
+    public IncomingMessage(String sender, String body, long receivedAtMillis) {
+        this.sender = sender;
+        this.body = body;
+        this.receivedAtMillis = receivedAtMillis;
+    }
+}
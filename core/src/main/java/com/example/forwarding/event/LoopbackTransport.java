@@ -0,0 +1,104 @@
+package com.example.forwarding.event;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory {@link SmsTransport} that sends nothing: every part is reported as sent and then
+ * delivered on {@code executor}, the way the radio reports them on a real device.
+ *
+ * Parts are split with the GSM 03.38 rules of {@link SmsEncoding}, so part counts and rate
+ * limiting match the real radio closely enough for load testing.
+ */
+public final class LoopbackTransport implements SmsTransport {
+
+    private final Callbacks callbacks;
+    private final Executor executor;
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong parts = new AtomicLong();
+
+    public LoopbackTransport(Callbacks callbacks, Executor executor) {
+        this.callbacks = callbacks;
+        this.executor = executor;
+    }
+
+    @Override
+    public int getSubscriptionId() {
+        return 1;
+    }
+
+    @Override
+    public ArrayList<String> divideMessage(String text) {
+        return divide(text);
+    }
+
+    @Override
+    public void send(long jobId, int attempt, String destination, ArrayList<String> parts) {
+        final int count = parts.size();
+        messages.incrementAndGet();
+        this.parts.addAndGet(count);
+
+        executor.execute(() -> {
+            for (int part = 0; part < count; part++) {
+                callbacks.onPartSent(jobId, attempt, part, RESULT_OK);
+            }
+            for (int part = 0; part < count; part++) {
+                callbacks.onPartDelivered(jobId, attempt, part);
+            }
+        });
+    }
+
+    public long getMessagesSent() {
+        return messages.get();
+    }
+
+    public long getPartsSent() {
+        return parts.get();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Segmentation
+    // ---------------------------------------------------------------------------------------------
+
+    static ArrayList<String> divide(String text) {
+        ArrayList<String> parts = new ArrayList<>();
+        int length = text.length();
+
+        if (SmsEncoding.isGsm(text)) {
+            if (SmsEncoding.septets(text, 0, length) <= SmsEncoding.GSM_SINGLE) {
+                parts.add(text);
+                return parts;
+            }
+            int start = 0;
+            while (start < length) {
+                int end = start;
+                int used = 0;
+                while (end < length) {
+                    int size = SmsEncoding.septets(text.charAt(end));
+                    if (used + size > SmsEncoding.GSM_PART) break;
+                    used += size;
+                    end++;
+                }
+                parts.add(text.substring(start, end));
+                start = end;
+            }
+            return parts;
+        }
+
+        if (length <= SmsEncoding.UCS2_SINGLE) {
+            parts.add(text);
+            return parts;
+        }
+        int start = 0;
+        while (start < length) {
+            int end = Math.min(start + SmsEncoding.UCS2_PART, length);
+            // Never split a surrogate pair across two parts
+            if (end < length && Character.isHighSurrogate(text.charAt(end - 1))) end--;
+            parts.add(text.substring(start, end));
+            start = end;
+        }
+        return parts;
+    }
+}
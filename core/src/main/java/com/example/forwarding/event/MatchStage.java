@@ -0,0 +1,67 @@
+package com.example.forwarding.event;
+
+import com.example.forwarding.data_model.DigestPolicy;
+import com.example.forwarding.data_model.RecipientListItem;
+import com.example.forwarding.data_model.RuleSet;
+import com.example.forwarding.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The match and dedup stages of forwarding one message: evaluates the rules, drops the recipients
+ * that already got it within the duplicate window, and hands the rest to an {@link Outbound}.
+ *
+ * The app's outbound is the SQLite outbox; the benchmark's is an in-memory queue, so both drive
+ * the same stages.
+ */
+public final class MatchStage {
+
+    /** Where matched recipients go; each call returns false if it could not take them. */
+    public interface Outbound {
+
+        /** Queues the message for immediate forwarding to {@code recipients}. */
+        boolean enqueue(IncomingMessage message, ArrayList<String> recipients);
+
+        /** Adds the message to the digest of each recipient in {@code digests}. */
+        boolean buffer(IncomingMessage message, Map<String, DigestPolicy> digests);
+    }
+
+    private final DuplicateWindow duplicates;
+    private final Outbound outbound;
+
+    public MatchStage(DuplicateWindow duplicates, Outbound outbound) {
+        this.duplicates = duplicates;
+        this.outbound = outbound;
+    }
+
+    /**
+     * @param windowMillis the duplicate window, 0 to forward every copy
+     * @return the number of recipients the message was queued or buffered for
+     */
+    public int process(RuleSet rules, IncomingMessage message, long windowMillis, long now) {
+        long start = System.nanoTime();
+        LinkedHashMap<String, DigestPolicy> digests = new LinkedHashMap<>();
+        ArrayList<String> recipients = new ArrayList<>();
+        boolean blacklisted = RecipientListItem.match(rules, message.sender, message.body, recipients, digests);
+        Metrics.recordSince(Metrics.Stage.MATCH, start);
+        if (blacklisted) Metrics.increment(Metrics.Counter.BLACKLISTED);
+        if (recipients.isEmpty() && digests.isEmpty()) return 0;
+        Metrics.increment(Metrics.Counter.MATCHED);
+
+        // Recipients count as forwarded for the duplicate window only once the outbound took them
+        int queued = 0;
+        if (!digests.isEmpty()) {
+            queued += duplicates.forward(message, new ArrayList<>(digests.keySet()), now, windowMillis, fresh -> {
+                digests.keySet().retainAll(fresh);
+                return outbound.buffer(message, digests);
+            }).size();
+        }
+        if (!recipients.isEmpty()) {
+            queued += duplicates.forward(message, recipients, now, windowMillis,
+                    fresh -> outbound.enqueue(message, fresh)).size();
+        }
+        return queued;
+    }
+}
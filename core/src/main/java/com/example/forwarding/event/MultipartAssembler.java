@@ -0,0 +1,191 @@
+package com.example.forwarding.event;
+
+import com.example.forwarding.metrics.Metrics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reassembles concatenated SMS from their parts, however they are spread over broadcasts.
+ *
+ * Parts are grouped by (sender, concatenation reference, part count) and a message is handed out
+ * exactly once, when its last part arrives. The buffer is bounded: past {@code maxPending}
+ * incomplete messages the oldest is handed out as it is, and so is any message still incomplete
+ * {@code timeoutMillis} after its first part, with {@link #GAP} where parts are missing. Parts
+ * of a message that was already handed out are dropped for a while, so a late or repeated part
+ * never causes a second forward.
+ *
+ * The buffer itself is in memory. A caller that keeps the parts {@link #add} holds elsewhere can
+ * forget them when the {@link Listener} hears their message was handed out, and re-add them after
+ * a restart with their original receipt times.
+ */
+public final class MultipartAssembler {
+
+    /** Stands in for each missing part of a message handed out incomplete. */
+    public static final String GAP = "(...)";
+
+    /** Called with the lock held, so it must not block. */
+    public interface Listener {
+        /** The message was handed out, complete or not; its parts are no longer held. */
+        void onHandedOut(String sender, int reference, int count);
+    }
+
+    private static final int MAX_COMPLETED = 256;
+
+    private final int maxPending;
+    private final long timeoutMillis;
+    private final Listener listener;
+
+    // In order of first part, so the oldest is first
+    private final LinkedHashMap<Key, Pending> pending = new LinkedHashMap<>();
+
+    // Messages already handed out -> when
+    private final LinkedHashMap<Key, Long> completed = new LinkedHashMap<Key, Long>(64, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+            return size() > MAX_COMPLETED;
+        }
+    };
+
+    public MultipartAssembler(int maxPending, long timeoutMillis) {
+        this(maxPending, timeoutMillis, null);
+    }
+
+    public MultipartAssembler(int maxPending, long timeoutMillis, Listener listener) {
+        this.maxPending = Math.max(1, maxPending);
+        this.timeoutMillis = timeoutMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Adds one part. Complete messages, and incomplete ones evicted to make room, are added to
+     * {@code out}.
+     *
+     * @param sequence 1-based position of the part among {@code count}
+     * @return true if the part is held until the rest of its message arrives or it times out
+     */
+    public synchronized boolean add(
+            String sender,
+            int reference,
+            int count,
+            int sequence,
+            String text,
+            long now,
+            List<IncomingMessage> out
+    ) {
+        if (count <= 1 || sequence < 1 || sequence > count) {
+            out.add(new IncomingMessage(sender, text, now));
+            return false;
+        }
+
+        Key key = new Key(sender, reference, count);
+        Long handedOutAt = completed.get(key);
+        if (handedOutAt != null) {
+            if (now - handedOutAt < timeoutMillis) return false;
+            completed.remove(key); // the reference has wrapped around, this is a new message
+        }
+
+        Pending message = pending.get(key);
+        if (message == null) {
+            while (pending.size() >= maxPending) {
+                Iterator<Map.Entry<Key, Pending>> eldest = pending.entrySet().iterator();
+                Map.Entry<Key, Pending> entry = eldest.next();
+                eldest.remove();
+                handOut(entry.getKey(), entry.getValue(), now, out);
+            }
+            message = new Pending(count, now);
+            pending.put(key, message);
+        }
+
+        if (message.parts[sequence - 1] == null) {
+            message.parts[sequence - 1] = text == null ? "" : text;
+            message.received++;
+        }
+
+        if (message.received == count) {
+            pending.remove(key);
+            handOut(key, message, now, out);
+            return false;
+        }
+        return true;
+    }
+
+    /** Hands out every message still incomplete {@code timeoutMillis} after its first part. */
+    public synchronized void expire(long now, List<IncomingMessage> out) {
+        Iterator<Map.Entry<Key, Pending>> entries = pending.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, Pending> entry = entries.next();
+            if (now - entry.getValue().firstAt < timeoutMillis) break;
+            entries.remove();
+            handOut(entry.getKey(), entry.getValue(), now, out);
+        }
+    }
+
+    /** When the oldest incomplete message times out, or -1 if there is none. */
+    public synchronized long nextExpiryAt() {
+        for (Pending message : pending.values()) {
+            return message.firstAt + timeoutMillis;
+        }
+        return -1;
+    }
+
+    /** Whether parts of the message are held, waiting for the rest. */
+    public synchronized boolean isPending(String sender, int reference, int count) {
+        return pending.containsKey(new Key(sender, reference, count));
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    // Caller holds the lock
+    private void handOut(Key key, Pending message, long now, List<IncomingMessage> out) {
+        completed.put(key, now);
+
+        StringBuilder body = new StringBuilder();
+        for (String part : message.parts) {
+            body.append(part != null ? part : GAP);
+        }
+        if (message.received < message.parts.length) Metrics.increment(Metrics.Counter.PARTIAL);
+        if (listener != null) listener.onHandedOut(key.sender, key.reference, key.count);
+
+        out.add(new IncomingMessage(key.sender, body.toString(), message.firstAt));
+    }
+
+    private static final class Pending {
+        final String[] parts;
+        final long firstAt;
+        int received;
+
+        Pending(int count, long firstAt) {
+            this.parts = new String[count];
+            this.firstAt = firstAt;
+        }
+    }
+
+    private static final class Key {
+        final String sender;
+        final int reference;
+        final int count;
+
+        Key(String sender, int reference, int count) {
+            this.sender = sender;
+            this.reference = reference;
+            this.count = count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return reference == other.reference && count == other.count && sender.equals(other.sender);
+        }
+
+        @Override
+        public int hashCode() {
+            return (sender.hashCode() * 31 + reference) * 31 + count;
+        }
+    }
+}
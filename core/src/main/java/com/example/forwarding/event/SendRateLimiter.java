@@ -0,0 +1,122 @@
+package com.example.forwarding.event;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Paces outbound SMS segments with one token bucket per subscription (the platform and carrier
+ * limit) and one per destination number (carrier flood protection).
+ *
+ * {@link #reserve} either takes the tokens from both buckets or takes nothing and says how long
+ * to wait, so a job is deferred instead of being sent into a throttle and failing.
+ */
+public final class SendRateLimiter {
+
+    // Idle destinations are forgotten first; a forgotten bucket just starts full again
+    private static final int MAX_DESTINATIONS = 1024;
+
+    private final int subscriptionCount;
+    private final long subscriptionWindowMillis;
+    private final int destinationCount;
+    private final long destinationWindowMillis;
+
+    private final HashMap<Integer, TokenBucket> subscriptions = new HashMap<>();
+    private final LinkedHashMap<String, TokenBucket> destinations =
+            new LinkedHashMap<String, TokenBucket>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+                    return size() > MAX_DESTINATIONS;
+                }
+            };
+
+    public SendRateLimiter(int subscriptionCount, long subscriptionWindowMillis,
+                           int destinationCount, long destinationWindowMillis) {
+        this.subscriptionCount = subscriptionCount;
+        this.subscriptionWindowMillis = subscriptionWindowMillis;
+        this.destinationCount = destinationCount;
+        this.destinationWindowMillis = destinationWindowMillis;
+    }
+
+    public boolean hasLimits(int subscriptionCount, long subscriptionWindowMillis,
+                             int destinationCount, long destinationWindowMillis) {
+        return this.subscriptionCount == subscriptionCount
+                && this.subscriptionWindowMillis == subscriptionWindowMillis
+                && this.destinationCount == destinationCount
+                && this.destinationWindowMillis == destinationWindowMillis;
+    }
+
+    /**
+     * How long before the destination alone could take {@code segments}; when it is not 0 no
+     * other subscription would help either.
+     */
+    public synchronized long destinationDelay(String destination, int segments, long now) {
+        return destination(destination, now).delayFor(segments, now);
+    }
+
+    /**
+     * Takes {@code segments} tokens for the subscription and the destination if both have them.
+     *
+     * @return 0 when the segments may be sent now, otherwise the delay in milliseconds after
+     *         which to try again (nothing has been taken in that case)
+     */
+    public synchronized long reserve(int subscriptionId, String destination, int segments, long now) {
+        TokenBucket subscription = subscriptions.get(subscriptionId);
+        if (subscription == null) {
+            subscription = new TokenBucket(subscriptionCount, subscriptionWindowMillis, now);
+            subscriptions.put(subscriptionId, subscription);
+        }
+
+        TokenBucket perDestination = destination(destination, now);
+
+        long delay = Math.max(
+                subscription.delayFor(segments, now),
+                perDestination.delayFor(segments, now)
+        );
+        if (delay > 0) {
+            return delay;
+        }
+
+        subscription.take(segments);
+        perDestination.take(segments);
+        return 0;
+    }
+
+    /**
+     * Picks the subscription for one send: the first of {@code candidates} (best first, see
+     * {@link SubscriptionBalancer#order}) that {@link #reserve} allows, reporting the ones it
+     * skips to {@code balancer}. The destination is checked first, since no other subscription
+     * helps when it is the limit.
+     *
+     * @return the index into {@code candidates} to send on, or minus the delay in milliseconds
+     *         after which to try again
+     */
+    public long reserveFirst(int[] candidates, String destination, int segments, long now,
+                             SubscriptionBalancer balancer) {
+        long delay = destinationDelay(destination, segments, now);
+        if (delay > 0) {
+            return -delay;
+        }
+
+        delay = Long.MAX_VALUE;
+        for (int i = 0; i < candidates.length; i++) {
+            long wait = reserve(candidates[i], destination, segments, now);
+            if (wait == 0) {
+                return i;
+            }
+            balancer.onThrottled(candidates[i], now);
+            delay = Math.min(delay, wait);
+        }
+        return -delay;
+    }
+
+    // Caller holds the lock
+    private TokenBucket destination(String destination, long now) {
+        TokenBucket perDestination = destinations.get(destination);
+        if (perDestination == null) {
+            perDestination = new TokenBucket(destinationCount, destinationWindowMillis, now);
+            destinations.put(destination, perDestination);
+        }
+        return perDestination;
+    }
+}
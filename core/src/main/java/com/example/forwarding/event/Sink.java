@@ -0,0 +1,93 @@
+package com.example.forwarding.event;
+
+import java.util.List;
+
+/**
+ * A destination other than SMS: a {@link WebhookSink} for {@code https://} recipients, an
+ * {@link SmtpSink} for {@code mailto:} ones. Forwards to a sink skip the SIM rate limits and
+ * cost no SMS segments.
+ *
+ * Unlike an {@link SmsTransport}, a sink is blocking: {@link #deliver} returns once the server
+ * has answered for the whole batch, and every message of the batch has been reported exactly
+ * once, as delivered or as failed.
+ */
+public interface Sink {
+
+    /**
+     * Error code of a message that failed without an answer from the server (connection refused,
+     * timeout, TLS error); the same value as {@code SmsManager.RESULT_ERROR_GENERIC_FAILURE}.
+     * Otherwise the error code is the server's HTTP status or SMTP reply code.
+     */
+    int ERROR_IO = 1;
+
+    /** Receives the per-message results of {@link #deliver}. */
+    interface Callbacks {
+        void onDelivered(long jobId, int attempt);
+
+        /** @param permanent retrying the same message cannot succeed */
+        void onFailed(long jobId, int attempt, int errorCode, boolean permanent);
+    }
+
+    /** Sends {@code batch} and reports every message in it to {@code callbacks}. */
+    void deliver(List<SinkMessage> batch, Callbacks callbacks);
+
+    /** Releases any connection kept open for the next batch. */
+    void close();
+
+    /**
+     * Whether forwards to {@code recipient} go to a webhook. Only {@code https://} is accepted;
+     * forwarded SMS are often one-time codes and must not cross the network in clear text.
+     */
+    static boolean isWebhook(String recipient) {
+        return recipient.regionMatches(true, 0, "https://", 0, 8);
+    }
+
+    /** Whether forwards to {@code recipient} go out as mail. */
+    static boolean isMail(String recipient) {
+        return recipient.regionMatches(true, 0, "mailto:", 0, 7);
+    }
+
+    static boolean isSink(String recipient) {
+        return isWebhook(recipient) || isMail(recipient);
+    }
+
+    /**
+     * Whether {@code recipient} starts with a URI scheme other than {@code https:} or
+     * {@code mailto:} ("http://...", "ftp://...", "tel:..."). Such a recipient is neither a sink
+     * nor a phone number, and must not be sent as an SMS.
+     */
+    static boolean isUnsupported(String recipient) {
+        int colon = recipient.indexOf(':');
+        if (colon <= 0 || isSink(recipient)) return false;
+
+        // RFC 3986: a letter, then letters, digits, '+', '-' or '.'
+        if (!isAsciiLetter(recipient.charAt(0))) return false;
+        for (int i = 1; i < colon; i++) {
+            char c = recipient.charAt(i);
+            if (!isAsciiLetter(c) && (c < '0' || c > '9') && c != '+' && c != '-' && c != '.') return false;
+        }
+        return true;
+    }
+
+    /** The first {@link #isUnsupported} recipient of a comma-separated list, or null. */
+    static String findUnsupported(String recipients) {
+        for (String recipient : recipients.split(",")) {
+            recipient = recipient.trim();
+            if (isUnsupported(recipient)) return recipient;
+        }
+        return null;
+    }
+
+    static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /** The address of a {@code mailto:} recipient, or null when it is not a usable address. */
+    static String mailAddress(String recipient) {
+        if (!isMail(recipient)) return null;
+
+        int end = recipient.indexOf('?');
+        String address = recipient.substring(7, end < 0 ? recipient.length() : end).trim();
+        return SmtpSink.isAddress(address) ? address : null;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.forwarding.event;
+
+/**
+ * One claimed outbox job bound for a {@link Sink}: the message as received, not the SMS text, so
+ * a webhook gets the fields separately and a mail gets its own subject.
+ */
+public final class SinkMessage {
+
+    public final long jobId;
+    public final int attempt;
+    public final long messageId;   // shared by the jobs of one received message
+    public final String recipient; // the URL or mailto: address of the rule
+    public final String sender;
+    public final String senderName; // may be null
+    public final String body;
+    public final long receivedAtMillis;
+    public final boolean digest;   // body is a finished digest text; sender is empty
+
+    public SinkMessage(
+            long jobId,
+            int attempt,
+            long messageId,
+            String recipient,
+            String sender,
+            String senderName,
+            String body,
+            long receivedAtMillis,
+            boolean digest
+    ) {
+        this.jobId = jobId;
+        this.attempt = attempt;
+        this.messageId = messageId;
+        this.recipient = recipient;
+        this.sender = sender;
+        this.senderName = senderName;
+        this.body = body;
+        this.receivedAtMillis = receivedAtMillis;
+        this.digest = digest;
+    }
+}
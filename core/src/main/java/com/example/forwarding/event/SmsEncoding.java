@@ -0,0 +1,55 @@
+package com.example.forwarding.event;
+
+/**
+ * GSM 03.38 sizing: a text is sent GSM 7-bit if every character is in the default alphabet or its
+ * extension table, and UCS-2 otherwise. A segment holds 160 septets or 70 UTF-16 units, and 153 or
+ * 67 once a message is split and each part carries a concatenation header.
+ */
+final class SmsEncoding {
+
+    static final int GSM_SINGLE = 160;
+    static final int GSM_PART = 153;
+    static final int UCS2_SINGLE = 70;
+    static final int UCS2_PART = 67;
+
+    private static final String GSM_BASIC =
+            "@£$¥èéùìòÇ\nØø\rÅåΔ_ΦΓΛΩΠΨΣΘΞÆæßÉ !\"#¤%&'()*+,-./0123456789:;<=>?"
+                    + "¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§¿abcdefghijklmnopqrstuvwxyzäöñüà";
+
+    // Characters that take an escape septet plus their own
+    private static final String GSM_EXTENSION = "\f^{}\\[~]|€";
+
+    private SmsEncoding() {}
+
+    static boolean isGsm(CharSequence text) {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (GSM_BASIC.indexOf(c) < 0 && GSM_EXTENSION.indexOf(c) < 0) return false;
+        }
+        return true;
+    }
+
+    /** Septets of one character of a GSM 7-bit text. */
+    static int septets(char c) {
+        return GSM_EXTENSION.indexOf(c) >= 0 ? 2 : 1;
+    }
+
+    static int septets(CharSequence text, int start, int end) {
+        int septets = 0;
+        for (int i = start; i < end; i++) {
+            septets += septets(text.charAt(i));
+        }
+        return septets;
+    }
+
+    /** Size of {@code text} in its encoding's units: septets for GSM 7-bit, else UTF-16 units. */
+    static int size(CharSequence text, boolean gsm) {
+        return gsm ? septets(text, 0, text.length()) : text.length();
+    }
+
+    /** The most units (see {@link #size}) that fit in {@code segments} segments. */
+    static int capacity(int segments, boolean gsm) {
+        if (segments <= 1) return gsm ? GSM_SINGLE : UCS2_SINGLE;
+        return segments * (gsm ? GSM_PART : UCS2_PART);
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.forwarding.event;
+
+import java.util.ArrayList;
+
+/**
+ * Where forwarded SMS leave the device. On the phone this is the radio, through
+ * {@code SmsManager}; in load tests it is a {@link LoopbackTransport}.
+ *
+ * A send is fire-and-forget: each part is later reported once as sent and, if the network
+ * confirms it, once as delivered. How the reports get back depends on the implementation
+ * (broadcast PendingIntents for the radio, a {@link Callbacks} for the loopback).
+ */
+public interface SmsTransport {
+
+    /** Result code of a part that was sent; the same value as {@code Activity.RESULT_OK}. */
+    int RESULT_OK = -1;
+
+    /** Receives the per-part reports of a transport. */
+    interface Callbacks {
+        void onPartSent(long jobId, int attempt, int part, int resultCode);
+
+        void onPartDelivered(long jobId, int attempt, int part);
+    }
+
+    /** Subscription whose send limits apply to messages sent through this transport. */
+    int getSubscriptionId();
+
+    /** Splits {@code text} into the parts it will be sent as. */
+    ArrayList<String> divideMessage(String text);
+
+    /**
+     * Starts sending {@code parts} to {@code destination}. Reports for every part refer to
+     * {@code jobId} and {@code attempt}.
+     */
+    void send(long jobId, int attempt, String destination, ArrayList<String> parts);
+}
@@ -0,0 +1,431 @@
+package com.example.forwarding.event;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Sends forwards as plain-text mail through one configured SMTP server (RFC 5321).
+ *
+ * The connection stays open between batches and is checked with RSET before it is reused, so a
+ * burst of forwards pays for the TCP, TLS and AUTH round trips once. The jobs of one received
+ * message share a single transaction with one RCPT per address. A 4xx reply is retried and a 5xx
+ * reply fails the message for good; a refused RCPT only fails that address.
+ *
+ * Credentials are only ever sent over TLS. Not thread-safe: one sink thread uses it.
+ */
+public final class SmtpSink implements Sink {
+
+    public enum Security {
+        TLS,       // TLS from the first byte, usually port 465
+        STARTTLS,  // plain connection upgraded with STARTTLS, usually port 587
+        NONE,      // no encryption, for a relay on the local network
+    }
+
+    public static final class Config {
+        public final String host;
+        public final int port;
+        public final Security security;
+        public final String username; // null = no AUTH
+        public final String password;
+        public final String from;
+
+        public Config(String host, int port, Security security, String username, String password, String from) {
+            this.host = host;
+            this.port = port;
+            this.security = security;
+            this.username = username;
+            this.password = password;
+            this.from = from;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Config)) return false;
+            Config other = (Config) o;
+            return port == other.port
+                    && security == other.security
+                    && host.equals(other.host)
+                    && Objects.equals(username, other.username)
+                    && Objects.equals(password, other.password)
+                    && Objects.equals(from, other.from);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, security, username, password, from);
+        }
+    }
+
+    /** A kept connection idle for longer than this is closed instead of reused. */
+    static final long IDLE_MILLIS = 60_000L;
+
+    // Reply code given to a recipient that is not a usable address: "mailbox name not allowed"
+    static final int INVALID_ADDRESS = 553;
+
+    private static final int TIMEOUT_MILLIS = 30_000;
+    private static final int MAX_LINE = 4096;
+
+    // An RFC 2047 encoded word is at most 75 characters: 12 of framing, 60 of base64
+    private static final int ENCODED_WORD_BYTES = 45;
+
+    private final Config config;
+    private final String subject;       // format with the sender, e.g. "SMS from %1$s"
+    private final String digestSubject;
+
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private long lastUsedAt;
+    private final ArrayList<String> replyLines = new ArrayList<>();
+
+    public SmtpSink(Config config, String subject, String digestSubject) {
+        this.config = config;
+        this.subject = subject;
+        this.digestSubject = digestSubject;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    @Override
+    public void deliver(List<SinkMessage> batch, Callbacks callbacks) {
+        if (!isAddress(config.from)) {
+            fail(new ArrayList<>(batch), callbacks, INVALID_ADDRESS, true);
+            return;
+        }
+
+        // Recipients of one received message share a transaction
+        LinkedHashMap<Long, ArrayList<SinkMessage>> byMessage = new LinkedHashMap<>();
+        for (SinkMessage message : batch) {
+            if (Sink.mailAddress(message.recipient) == null) {
+                callbacks.onFailed(message.jobId, message.attempt, INVALID_ADDRESS, true);
+                continue;
+            }
+            ArrayList<SinkMessage> group = byMessage.get(message.messageId);
+            if (group == null) {
+                group = new ArrayList<>();
+                byMessage.put(message.messageId, group);
+            }
+            group.add(message);
+        }
+
+        for (ArrayList<SinkMessage> pending : byMessage.values()) {
+            try {
+                connect(System.currentTimeMillis());
+                transaction(pending, callbacks);
+                lastUsedAt = System.currentTimeMillis();
+            } catch (ReplyException e) {
+                close();
+                fail(pending, callbacks, e.code, e.code >= 500);
+            } catch (IOException e) {
+                close();
+                fail(pending, callbacks, ERROR_IO, false);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (socket == null) return;
+        if (out != null) {
+            try {
+                out.write("QUIT\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // nothing left to release
+        }
+        socket = null;
+        in = null;
+        out = null;
+    }
+
+    /** Whether {@code address} looks like a mailbox and is safe to put into SMTP commands. */
+    static boolean isAddress(String address) {
+        if (address == null) return false;
+        int at = address.lastIndexOf('@');
+        if (at <= 0 || at == address.length() - 1) return false;
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c <= ' ' || c == '<' || c == '>' || c == ',' || c == 0x7f) return false;
+        }
+        return true;
+    }
+
+    private static void fail(List<SinkMessage> pending, Callbacks callbacks, int code, boolean permanent) {
+        for (SinkMessage message : pending) {
+            callbacks.onFailed(message.jobId, message.attempt, code, permanent);
+        }
+        pending.clear();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Session
+    // ---------------------------------------------------------------------------------------------
+
+    private void connect(long now) throws IOException {
+        if (socket != null) {
+            if (now - lastUsedAt < IDLE_MILLIS) {
+                try {
+                    if (command("RSET") == 250) return;
+                } catch (IOException e) {
+                    // the server dropped the connection, open a new one
+                }
+            }
+            close();
+        }
+
+        Socket plain = new Socket();
+        socket = plain;
+        try {
+            plain.connect(new InetSocketAddress(config.host, config.port), TIMEOUT_MILLIS);
+            plain.setSoTimeout(TIMEOUT_MILLIS);
+            attach(config.security == Security.TLS ? startTls(plain) : plain);
+
+            expectReply(220);
+            hello();
+
+            if (config.security == Security.STARTTLS) {
+                if (!hasExtension("STARTTLS")) throw new IOException("Server does not offer STARTTLS");
+                expect(220, "STARTTLS");
+                attach(startTls(socket));
+                hello();
+            }
+
+            if (config.username != null) {
+                if (!(socket instanceof SSLSocket)) throw new IOException("Refusing to send credentials without TLS");
+                String token = "\0" + config.username + "\0" + (config.password == null ? "" : config.password);
+                expect(235, "AUTH PLAIN " + Base64.getEncoder().encodeToString(token.getBytes(StandardCharsets.UTF_8)));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Reports each message as it is settled and removes it from pending
+    private void transaction(List<SinkMessage> pending, Callbacks callbacks) throws IOException {
+        expect(250, "MAIL FROM:<" + config.from + ">");
+
+        ArrayList<String> addresses = new ArrayList<>(pending.size());
+        Iterator<SinkMessage> messages = pending.iterator();
+        while (messages.hasNext()) {
+            SinkMessage message = messages.next();
+            String address = Sink.mailAddress(message.recipient);
+            int code = command("RCPT TO:<" + address + ">");
+            if (code == 250 || code == 251) {
+                addresses.add(address);
+            } else {
+                callbacks.onFailed(message.jobId, message.attempt, code, code >= 500);
+                messages.remove();
+            }
+        }
+        if (addresses.isEmpty()) {
+            expect(250, "RSET");
+            return;
+        }
+
+        expect(354, "DATA");
+        out.write(format(pending.get(0), addresses));
+        out.write(".\r\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        expectReply(250);
+
+        for (SinkMessage message : pending) {
+            callbacks.onDelivered(message.jobId, message.attempt);
+        }
+        pending.clear();
+    }
+
+    private void hello() throws IOException {
+        String name = localName();
+        if (command("EHLO " + name) != 250) {
+            expect(250, "HELO " + name);
+        }
+    }
+
+    private boolean hasExtension(String keyword) {
+        // The first line is the greeting, the others one extension each
+        for (int i = 1; i < replyLines.size(); i++) {
+            String line = replyLines.get(i);
+            if (line.length() >= 4 + keyword.length()
+                    && line.regionMatches(true, 4, keyword, 0, keyword.length())
+                    && (line.length() == 4 + keyword.length() || line.charAt(4 + keyword.length()) == ' ')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String localName() {
+        InetAddress address = socket.getLocalAddress();
+        String host = address.getHostAddress();
+        int scope = host.indexOf('%');
+        if (scope >= 0) host = host.substring(0, scope);
+        return (address instanceof Inet6Address) ? "[IPv6:" + host + "]" : "[" + host + "]";
+    }
+
+    private SSLSocket startTls(Socket plain) throws IOException {
+        SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+        SSLSocket tls = (SSLSocket) factory.createSocket(plain, config.host, config.port, true);
+        // SSLSocketFactory does not check the host name by itself
+        SSLParameters parameters = tls.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        tls.setSSLParameters(parameters);
+        tls.startHandshake();
+        return tls;
+    }
+
+    private void attach(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    private void expect(int code, String line) throws IOException {
+        int reply = command(line);
+        if (reply != code) throw new ReplyException(reply, replyLines);
+    }
+
+    private void expectReply(int code) throws IOException {
+        int reply = readReply();
+        if (reply != code) throw new ReplyException(reply, replyLines);
+    }
+
+    private int command(String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.write('\r');
+        out.write('\n');
+        out.flush();
+        return readReply();
+    }
+
+    // Reads a possibly multi-line reply into replyLines and returns its code
+    private int readReply() throws IOException {
+        replyLines.clear();
+        while (true) {
+            String line = readLine();
+            if (line.length() < 3) throw new IOException("Malformed SMTP reply: " + line);
+            replyLines.add(line);
+            if (line.length() == 3 || line.charAt(3) != '-') {
+                try {
+                    return Integer.parseInt(line.substring(0, 3));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed SMTP reply: " + line);
+                }
+            }
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) throw new IOException("Connection closed by SMTP server");
+            if (b != '\r' && line.size() < MAX_LINE) line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Message
+    // ---------------------------------------------------------------------------------------------
+
+    // Headers and a base64 body, so no line of it can start with the "." that ends DATA
+    byte[] format(SinkMessage message, List<String> addresses) {
+        String name = (message.senderName != null && !message.senderName.isEmpty()) ? message.senderName : message.sender;
+
+        StringBuilder text = new StringBuilder(512 + message.body.length() * 2);
+        text.append("Date: ").append(DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                Instant.ofEpochMilli(message.receivedAtMillis).atZone(ZoneId.systemDefault()))).append("\r\n");
+        text.append("From: <").append(config.from).append(">\r\n");
+        text.append("To: ");
+        for (int i = 0; i < addresses.size(); i++) {
+            if (i > 0) text.append(",\r\n ");
+            text.append('<').append(addresses.get(i)).append('>');
+        }
+        text.append("\r\n");
+        text.append("Subject: ").append(encodeHeader(message.digest ? digestSubject : String.format(subject, name))).append("\r\n");
+        text.append("MIME-Version: 1.0\r\n");
+        text.append("Content-Type: text/plain; charset=UTF-8\r\n");
+        text.append("Content-Transfer-Encoding: base64\r\n");
+        text.append("\r\n");
+        text.append(Base64.getMimeEncoder().encodeToString(message.body.getBytes(StandardCharsets.UTF_8)));
+        text.append("\r\n");
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** Plain ASCII as it is, anything else as RFC 2047 encoded words on folded lines. */
+    static String encodeHeader(String value) {
+        boolean ascii = true;
+        for (int i = 0; i < value.length() && ascii; i++) {
+            char c = value.charAt(i);
+            ascii = c >= ' ' && c < 0x7f;
+        }
+        if (ascii && value.length() <= 900) {
+            return value;
+        }
+
+        StringBuilder encoded = new StringBuilder(value.length() * 2);
+        int start = 0;
+        while (start < value.length()) {
+            // Whole code points only, so no character is split across two words
+            int end = start;
+            int bytes = 0;
+            while (end < value.length()) {
+                int codePoint = value.codePointAt(end);
+                int size = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+                if (bytes + size > ENCODED_WORD_BYTES) break;
+                bytes += size;
+                end += Character.charCount(codePoint);
+            }
+
+            String word = value.substring(start, end).replace('\r', ' ').replace('\n', ' ');
+            if (encoded.length() > 0) encoded.append("\r\n ");
+            encoded.append("=?UTF-8?B?")
+                    .append(Base64.getEncoder().encodeToString(word.getBytes(StandardCharsets.UTF_8)))
+                    .append("?=");
+            start = end;
+        }
+        return encoded.toString();
+    }
+
+    private static final class ReplyException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        ReplyException(int code, List<String> lines) {
+            super("SMTP " + String.join(" / ", lines));
+            this.code = code;
+        }
+    }
+}
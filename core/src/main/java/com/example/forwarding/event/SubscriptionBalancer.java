@@ -0,0 +1,141 @@
+package com.example.forwarding.event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Decides which subscription (SIM) a forward goes out on when the device has more than one, and
+ * keeps track of each subscription's health.
+ *
+ * {@link #order} ranks the active subscriptions for one send; the caller takes the first one its
+ * rate limiter allows and reports the others it skipped with {@link #onThrottled}. A subscription
+ * whose sends fail {@link #FAILURE_THRESHOLD} times in a row is drained: it is ranked last for a
+ * while, doubling each time it fails again, and is back in full rotation after its next success.
+ */
+public final class SubscriptionBalancer {
+
+    public enum Strategy {
+        ROUND_ROBIN,      // take turns, so every SIM carries an equal share
+        LEAST_THROTTLED,  // prefer the SIM that hit its rate limit longest ago
+    }
+
+    public static final int FAILURE_THRESHOLD = 3;
+
+    static final long DRAIN_BASE_MILLIS = 5 * 60_000L;
+    static final long DRAIN_MAX_MILLIS = 60 * 60_000L;
+
+    private final Strategy strategy;
+    private final HashMap<Integer, Health> health = new HashMap<>();
+    private int turn;
+
+    public SubscriptionBalancer(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Ranks {@code subscriptions} for the next send: healthy ones by the strategy, then drained
+     * ones by how soon they recover. A pinned subscription that is active is the only candidate,
+     * healthy or not.
+     *
+     * @param pinned subscription a rule asked for, or -1
+     */
+    public synchronized int[] order(int[] subscriptions, int pinned, long now) {
+        if (pinned >= 0) {
+            for (int subscription : subscriptions) {
+                if (subscription == pinned) return new int[] { pinned };
+            }
+        }
+        if (subscriptions.length <= 1) {
+            return subscriptions.clone();
+        }
+
+        ArrayList<Integer> healthy = new ArrayList<>(subscriptions.length);
+        ArrayList<Integer> drained = new ArrayList<>();
+
+        int start = Math.floorMod(turn++, subscriptions.length);
+        for (int i = 0; i < subscriptions.length; i++) {
+            int subscription = subscriptions[(start + i) % subscriptions.length];
+            (isHealthy(subscription, now) ? healthy : drained).add(subscription);
+        }
+
+        if (strategy == Strategy.LEAST_THROTTLED) {
+            // Stable, so ties keep the round-robin order
+            healthy.sort((a, b) -> Long.compare(get(a).throttledAt, get(b).throttledAt));
+        }
+        drained.sort((a, b) -> Long.compare(get(a).drainedUntil, get(b).drainedUntil));
+
+        int[] ranked = new int[subscriptions.length];
+        int n = 0;
+        for (int subscription : healthy) ranked[n++] = subscription;
+        for (int subscription : drained) ranked[n++] = subscription;
+        return ranked;
+    }
+
+    /** The rate limiter refused {@code subscription}. */
+    public synchronized void onThrottled(int subscription, long now) {
+        get(subscription).throttledAt = now;
+    }
+
+    /** A part went out on {@code subscription}; it is healthy again. */
+    public synchronized void onSent(int subscription) {
+        Health h = health.get(subscription);
+        if (h != null) {
+            h.failures = 0;
+            h.drains = 0;
+            h.drainedUntil = 0;
+        }
+    }
+
+    /** A part failed on {@code subscription}; the third failure in a row drains it. */
+    public synchronized void onFailed(int subscription, long now) {
+        Health h = get(subscription);
+        if (++h.failures >= FAILURE_THRESHOLD) {
+            long drain = Math.min(DRAIN_BASE_MILLIS << Math.min(h.drains, 16), DRAIN_MAX_MILLIS);
+            h.drainedUntil = now + drain;
+            h.drains++;
+            h.failures = FAILURE_THRESHOLD - 1; // one more failure after the drain re-drains it
+        }
+    }
+
+    public synchronized boolean isHealthy(int subscription, long now) {
+        Health h = health.get(subscription);
+        return h == null || h.drainedUntil <= now;
+    }
+
+    /** One line per known subscription, for the metrics screen. */
+    public synchronized String describe(long now) {
+        Integer[] subscriptions = health.keySet().toArray(new Integer[0]);
+        Arrays.sort(subscriptions);
+
+        StringBuilder sb = new StringBuilder();
+        for (Integer subscription : subscriptions) {
+            Health h = health.get(subscription);
+            sb.append("sim ").append(subscription)
+                    .append(isHealthy(subscription, now) ? " ok" : " drained " + (h.drainedUntil - now) / 1000 + "s")
+                    .append(" failures=").append(h.failures)
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    private Health get(int subscription) {
+        Health h = health.get(subscription);
+        if (h == null) {
+            h = new Health();
+            health.put(subscription, h);
+        }
+        return h;
+    }
+
+    private static final class Health {
+        int failures;      // in a row
+        int drains;        // since the last success
+        long drainedUntil;
+        long throttledAt;
+    }
+}
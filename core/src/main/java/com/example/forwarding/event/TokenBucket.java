@@ -0,0 +1,47 @@
+package com.example.forwarding.event;
+
+/**
+ * Classic token bucket: holds up to {@code capacity} tokens and refills {@code capacity} tokens
+ * per {@code windowMillis}. Not thread-safe; {@link SendRateLimiter} serializes access.
+ */
+final class TokenBucket {
+
+    private final int capacity;
+    private final double tokensPerMilli;
+
+    private double tokens;
+    private long lastRefillAt;
+
+    TokenBucket(int capacity, long windowMillis, long now) {
+        this.capacity = Math.max(1, capacity);
+        this.tokensPerMilli = (double) this.capacity / Math.max(1, windowMillis);
+        this.tokens = this.capacity;
+        this.lastRefillAt = now;
+    }
+
+    /**
+     * Milliseconds until {@code count} tokens can be taken, 0 if they can be taken now.
+     *
+     * A request larger than the bucket only waits for a full bucket and then drives it negative,
+     * so a long multipart message is delayed rather than blocked forever.
+     */
+    long delayFor(int count, long now) {
+        refill(now);
+        double needed = Math.min(count, capacity);
+        if (tokens >= needed) {
+            return 0;
+        }
+        return (long) Math.ceil((needed - tokens) / tokensPerMilli);
+    }
+
+    void take(int count) {
+        tokens -= count;
+    }
+
+    private void refill(long now) {
+        if (now > lastRefillAt) {
+            tokens = Math.min(capacity, tokens + (now - lastRefillAt) * tokensPerMilli);
+            lastRefillAt = now;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.forwarding.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide counters and per-stage latency histograms of the forwarding path.
+ *
+ * Everything here is lock-free and allocation-free to update, so it stays on in release
+ * builds; {@link #dump()} renders a plain-text snapshot for the UI or a bug report.
+ */
+public final class Metrics {
+
+    public enum Counter {
+        RECEIVED,       // SMS delivered to the app (a multipart SMS counts once)
+        PARTIAL,        // multipart SMS handed on with parts missing after the reassembly timeout
+        OVERFLOWED,     // SMS that waited off the main thread for the full pipeline queue
+        DROPPED,        // SMS not forwarded because the pipeline queue and its overflow stayed full
+        MATCHED,        // SMS that matched at least one rule
+        BLACKLISTED,    // SMS that at least one rule refused because of its blacklist
+        DUPLICATE,      // forwards suppressed by the duplicate window
+        DIGESTED,       // forwards buffered for a digest instead of sent on their own
+        DIGESTS,        // digests queued, one per recipient and window
+        FORWARDED,      // forwards handed to the radio
+        POSTED,         // forwards accepted by a webhook or mail server
+        FAILED,         // send attempts that failed (each part the radio reported as failed, each sink rejection)
+        REGEX_ABORTED,  // rule regexes stopped by the backtracking guard
+    }
+
+    public enum Stage {
+        PDU_PARSE,    // PDUs to merged message, on the receiver's thread
+        RULE_LOAD,    // fetching the compiled rules (a file read on a cold start)
+        MATCH,        // evaluating every rule against the message
+        SEND,         // preparing the text and handing one forward to the radio
+        END_TO_END,   // SMS received to its first forward handed to the radio (ms resolution)
+    }
+
+    private static final Counter[] COUNTERS = Counter.values();
+    private static final Stage[] STAGES = Stage.values();
+
+    private static final AtomicLongArray counters = new AtomicLongArray(COUNTERS.length);
+    private static final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+
+    static {
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new LatencyHistogram();
+    }
+
+    private static volatile long startedAtMillis = System.currentTimeMillis();
+
+    private Metrics() {}
+
+    public static void increment(Counter counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    public static void add(Counter counter, long delta) {
+        counters.addAndGet(counter.ordinal(), delta);
+    }
+
+    public static long get(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /** Records how long {@code stage} took, given the {@link System#nanoTime()} it started at. */
+    public static void recordSince(Stage stage, long startNanos) {
+        histograms[stage.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    public static void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    public static LatencyHistogram histogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public static void reset() {
+        for (int i = 0; i < COUNTERS.length; i++) counters.set(i, 0);
+        for (LatencyHistogram histogram : histograms) histogram.reset();
+        startedAtMillis = System.currentTimeMillis();
+    }
+
+    /** Counters and stage percentiles (in microseconds) since start or the last reset. */
+    public static String dump() {
+        StringBuilder out = new StringBuilder(1024);
+        long seconds = (System.currentTimeMillis() - startedAtMillis) / 1000;
+        out.append(String.format(Locale.US, "Forwarding metrics over %dh %02dm %02ds%n%n",
+                seconds / 3600, seconds / 60 % 60, seconds % 60));
+
+        for (Counter counter : COUNTERS) {
+            out.append(String.format(Locale.US, "%-13s %,11d%n", name(counter), get(counter)));
+        }
+
+        out.append(String.format(Locale.US, "%n%-10s %9s %8s %8s %8s %8s %8s%n",
+                "stage (µs)", "count", "mean", "p50", "p90", "p99", "max"));
+        for (Stage stage : STAGES) {
+            LatencyHistogram h = histogram(stage);
+            out.append(String.format(Locale.US, "%-10s %,9d %8s %8s %8s %8s %8s%n",
+                    name(stage), h.getCount(),
+                    micros(h.getMean()), micros(h.getPercentile(0.50)), micros(h.getPercentile(0.90)),
+                    micros(h.getPercentile(0.99)), micros(h.getMax())));
+        }
+        return out.toString();
+    }
+
+    private static String name(Enum<?> value) {
+        return value.name().toLowerCase(Locale.US);
+    }
+
+    private static String micros(long nanos) {
+        return nanos < 10_000_000
+                ? String.format(Locale.US, "%.1f", nanos / 1e3)
+                : String.format(Locale.US, "%,d", nanos / 1000);
+    }
+}
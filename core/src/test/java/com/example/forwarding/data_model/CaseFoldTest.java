@@ -0,0 +1,56 @@
+package com.example.forwarding.data_model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CaseFoldTest {
+
+    @Test
+    public void fold_isCaseInsensitiveBeyondAscii() {
+        assertEquals("otp", CaseFold.fold("OTP", 0));
+        assertEquals("σσσ", CaseFold.fold("Σσς", 0));
+        assertEquals("straße", CaseFold.fold("STRAßE", 0));
+        assertEquals("ओटीपी", CaseFold.fold("ओटीपी", 0));
+    }
+
+    @Test
+    public void fold_widthAndDiacriticsOnlyWhenAsked() {
+        assertEquals("ｏｔｐ", CaseFold.fold("ＯＴＰ", 0));
+        assertEquals("otp", CaseFold.fold("ＯＴＰ", RuleSet.FOLD_WIDTH));
+
+        assertEquals("café", CaseFold.fold("CAFÉ", 0));
+        assertEquals("cafe", CaseFold.fold("CAFÉ", RuleSet.FOLD_DIACRITICS));
+        assertEquals("cafe", CaseFold.fold("CAFÉ", RuleSet.FOLD_DIACRITICS));
+        assertEquals("कमल", CaseFold.fold("क़मल", RuleSet.FOLD_DIACRITICS));
+        // Dependent vowel signs are part of the word, not diacritics
+        assertEquals("मुझे", CaseFold.fold("मुझे", RuleSet.FOLD_DIACRITICS));
+    }
+
+    @Test
+    public void fold_dropsHebrewPointsButKeepsHebrewPunctuation() {
+        assertEquals("שלום", CaseFold.fold("שָׁלוֹם", RuleSet.FOLD_DIACRITICS));
+        // maqaf, paseq, sof pasuq and nun hafukha sit among the points but separate words
+        assertEquals("א־ב", CaseFold.fold("א־ב", RuleSet.FOLD_DIACRITICS));
+        assertEquals("א׀ב", CaseFold.fold("א׀ב", RuleSet.FOLD_DIACRITICS));
+        assertEquals("א׃", CaseFold.fold("א׃", RuleSet.FOLD_DIACRITICS));
+        assertEquals("א׆", CaseFold.fold("א׆", RuleSet.FOLD_DIACRITICS));
+    }
+
+    @Test
+    public void match_foldsTheMessageWhileScanning() {
+        ArrayList<RecipientListItem> items = new ArrayList<>();
+        items.add(new RecipientListItem("1111111111", "*", "otp", ""));
+        items.add(new RecipientListItem("2222222222", "*", "resume", ""));
+
+        RuleSet plain = RuleSet.compile(items);
+        RuleSet diacritics = RuleSet.compile(items, RuleSet.DEFAULT_FOLDING | RuleSet.FOLD_DIACRITICS);
+
+        assertEquals(Arrays.asList("1111111111"), RecipientListItem.match(plain, "VM-BANK", "Your ＯＴＰ is 1234"));
+        assertTrue(RecipientListItem.match(plain, "VM-BANK", "Your Résumé").isEmpty());
+        assertEquals(Arrays.asList("2222222222"), RecipientListItem.match(diacritics, "VM-BANK", "Your Résumé"));
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.forwarding.data_model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PhoneNumbersTest {
+
+    @Test
+    public void parse_normalizesNationalAndInternationalForms() {
+        long expected = 919876543210L;
+        assertEquals(expected, PhoneNumbers.parse("+91 98765 43210", 91));
+        assertEquals(expected, PhoneNumbers.parse("0091-98765-43210", 91));
+        assertEquals(expected, PhoneNumbers.parse("098765 43210", 91));
+        assertEquals(expected, PhoneNumbers.parse("(987) 654-3210", 91));
+        assertEquals(expected, PhoneNumbers.parse("+९१९८७६५४३२१०", 0));
+
+        assertEquals("+15551234567", PhoneNumbers.format(PhoneNumbers.parse("+1 555 123 4567", 91)));
+    }
+
+    @Test
+    public void parse_takesALongNumberStartingWithTheCountryCodeAsInternational() {
+        // Delivered without "+": the country code is not added again
+        assertEquals(919876543210L, PhoneNumbers.parse("919876543210", 91));
+        assertEquals(919876543210L, PhoneNumbers.parse("91 98765 43210", 91));
+        assertEquals(15551234567L, PhoneNumbers.parse("15551234567", 1));
+
+        // A national number may itself start with the country code's digits
+        assertEquals(919198765432L, PhoneNumbers.parse("9198765432", 91));
+        // Longer than a national number, but another country's
+        assertEquals(91449876543210L, PhoneNumbers.parse("449876543210", 91));
+        // Longer national numbers elsewhere: 11 digits starting with 86 are still Chinese numbers
+        assertEquals(8686123456789L, PhoneNumbers.parse("86123456789", 86));
+    }
+
+    @Test
+    public void parse_rejectsSenderIdsAndShortCodes() {
+        assertEquals(PhoneNumbers.NOT_A_NUMBER, PhoneNumbers.parse("VM-SBIINB", 91));
+        assertEquals(PhoneNumbers.NOT_A_NUMBER, PhoneNumbers.parse("56767", 91));
+        assertEquals(PhoneNumbers.NOT_A_NUMBER, PhoneNumbers.parse("+91", 91));
+        // National numbers need a country code
+        assertEquals(PhoneNumbers.NOT_A_NUMBER, PhoneNumbers.parse("9876543210", 0));
+    }
+
+    @Test
+    public void callingCode_knowsCommonRegions() {
+        assertEquals(91, PhoneNumbers.callingCode("in"));
+        assertEquals(1, PhoneNumbers.callingCode("US"));
+        assertEquals(0, PhoneNumbers.callingCode("xx"));
+        assertEquals(0, PhoneNumbers.callingCode(""));
+    }
+
+    @Test
+    public void match_comparesSenderNumbersAcrossFormats() {
+        ArrayList<RecipientListItem> items = new ArrayList<>();
+        items.add(new RecipientListItem("1111111111", "098765 43210", "", ""));
+        items.add(new RecipientListItem("2222222222", "*", "", "+91140*, 0091 99999 88888"));
+
+        RuleSet rules = RuleSet.compile(items, RuleSet.DEFAULT_FOLDING, 91);
+
+        assertEquals(Arrays.asList("1111111111", "2222222222"), RecipientListItem.match(rules, "+919876543210", "hi"));
+        assertEquals(Arrays.asList("2222222222"), RecipientListItem.match(rules, "VM-SBIINB", "hi"));
+        assertTrue(RecipientListItem.match(rules, "+91 14012 34567", "hi").isEmpty());
+        assertTrue(RecipientListItem.match(rules, "9999988888", "hi").isEmpty());
+    }
+
+    @Test
+    public void numberIndex_findsEveryEntryOfALargeList() {
+        NumberIndex.Builder builder = new NumberIndex.Builder();
+        for (int i = 0; i < 5000; i++) {
+            builder.add(919_800_000_000L + i * 7919L, false, i % 128);
+        }
+        NumberIndex index = builder.build();
+
+        for (int i = 0; i < 5000; i++) {
+            long[] hits = AhoCorasick.newBitSet(128);
+            index.lookup(919_800_000_000L + i * 7919L, hits);
+            assertTrue(AhoCorasick.isSet(hits, i % 128));
+        }
+
+        long[] hits = AhoCorasick.newBitSet(128);
+        index.lookup(919_800_000_001L, hits);
+        assertArrayEquals(AhoCorasick.newBitSet(128), hits);
+    }
+}
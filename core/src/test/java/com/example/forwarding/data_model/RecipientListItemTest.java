@@ -0,0 +1,356 @@
+package com.example.forwarding.data_model;
+
+import com.example.forwarding.metrics.Metrics;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the single-pass {@link RecipientListItem#match(RuleSet, String, String)} against the
+ * evaluation SMSReceiver used to do: its own blacklist and keyword checks around a per-rule call
+ * to the old criteria-based {@code RecipientListItem.match}.
+ */
+public class RecipientListItemTest {
+
+    private static final String[] SENDERS = {
+            "+919876543210", "VM-SBIINB", "AD-JIOINF", "JX-AIRTEL", "BZ-PNBSMS", "12345", "+15551234567"
+    };
+
+    private static final String[] BODIES = {
+            "Your OTP is 482913. Do not share it.",
+            "Verification code 1234 for your SBI account",
+            "Recharge now with Jio and get 2GB extra",
+            "Airtel: your bill of Rs 499 is due",
+            "Dear customer, INR 5,000 debited from A/c XX1234",
+            "Hello there",
+            "PNB alert: OTP 998877 valid for 5 minutes"
+    };
+
+    @Test
+    public void match_isIdenticalToLegacyReceiverPath() {
+        ArrayList<RecipientListItem> rules = new ArrayList<>();
+        rules.add(new RecipientListItem("1111111111", "*", "otp, verification code", ""));
+        rules.add(new RecipientListItem("2222222222, 3333333333", "sbi, pnb", "", "jio"));
+        rules.add(new RecipientListItem("1111111111", "*", "debited", "airtel, jio"));
+        rules.add(new RecipientListItem("+919876543210", "+91", "otp", ""));
+        rules.add(new RecipientListItem("4444444444", "airtel", "bill", "airtel"));
+
+        RuleSet compiled = RuleSet.compile(rules);
+
+        for (String sender : SENDERS) {
+            for (String body : BODIES) {
+                assertEquals(
+                        sender + " / " + body,
+                        legacyMatch(rules, sender, body),
+                        new HashSet<>(RecipientListItem.match(compiled, sender, body))
+                );
+            }
+        }
+    }
+
+    @Test
+    public void match_isIdenticalToLegacyReceiverPath_randomRules() {
+        Random random = new Random(42);
+        String[] fragments = { "otp", "code", "sbi", "jio", "airtel", "pnb", "+91", "bill", "rs", "alert", "xx" };
+
+        for (int round = 0; round < 500; round++) {
+            ArrayList<RecipientListItem> rules = new ArrayList<>();
+            int count = 1 + random.nextInt(12);
+
+            for (int i = 0; i < count; i++) {
+                rules.add(new RecipientListItem(
+                        "9" + random.nextInt(5) + ", 8" + random.nextInt(5),
+                        random.nextInt(3) == 0 ? "*" : pick(random, fragments, 2),
+                        random.nextInt(3) == 0 ? "" : pick(random, fragments, 3),
+                        random.nextInt(2) == 0 ? "" : pick(random, fragments, 1)
+                ));
+            }
+
+            RuleSet compiled = RuleSet.compile(rules);
+            String sender = SENDERS[random.nextInt(SENDERS.length)];
+            String body = BODIES[random.nextInt(BODIES.length)];
+
+            assertEquals(
+                    legacyMatch(rules, sender, body),
+                    new HashSet<>(RecipientListItem.match(compiled, sender, body))
+            );
+        }
+    }
+
+    @Test
+    public void match_blacklistWinsOverWhitelist() {
+        ArrayList<RecipientListItem> rules = new ArrayList<>();
+        rules.add(new RecipientListItem("1111111111", "jio", "", "jio"));
+
+        assertTrue(RecipientListItem.match(rules, "AD-JIOINF", "anything").isEmpty());
+    }
+
+    @Test
+    public void match_reportsTheBlacklistInsteadOfCountingIt() {
+        ArrayList<RecipientListItem> rules = new ArrayList<>();
+        rules.add(new RecipientListItem("1111111111", "jio", "", "jio"));
+        RuleSet compiled = RuleSet.compile(rules);
+        long counted = Metrics.get(Metrics.Counter.BLACKLISTED);
+
+        assertTrue(compiled.match("AD-JIOINF", "anything", new ArrayList<>()));
+        assertFalse(compiled.match("VM-SBIINB", "anything", new ArrayList<>()));
+        assertEquals(counted, Metrics.get(Metrics.Counter.BLACKLISTED));
+    }
+
+    @Test
+    public void match_recognisesSendersDeliveredWithoutPlus() {
+        ArrayList<RecipientListItem> rules = new ArrayList<>();
+        rules.add(new RecipientListItem("1111111111", "9876543210", "", ""));
+        rules.add(new RecipientListItem("2222222222", "*", "", "+919812345678"));
+        RuleSet compiled = RuleSet.compile(rules, RuleSet.DEFAULT_FOLDING, 91);
+
+        assertEquals(Arrays.asList("1111111111", "2222222222"), RecipientListItem.match(compiled, "919876543210", "hi"));
+        assertTrue(compiled.match("919812345678", "hi", new ArrayList<>()));
+        assertTrue(RecipientListItem.match(compiled, "919812345678", "hi").isEmpty());
+    }
+
+    @Test
+    public void match_deduplicatesAndNeverForwardsToSender() {
+        ArrayList<RecipientListItem> rules = new ArrayList<>();
+        rules.add(new RecipientListItem("1111111111, 2222222222", "*", "otp", ""));
+        rules.add(new RecipientListItem("2222222222, 3333333333", "*", "", ""));
+
+        assertEquals(
+                Arrays.asList("1111111111", "2222222222"),
+                RecipientListItem.match(rules, "3333333333", "OTP 1234")
+        );
+    }
+
+    @Test
+    public void match_starKeywordMatchesAnyBody() {
+        ArrayList<RecipientListItem> rules = new ArrayList<>();
+        rules.add(new RecipientListItem("1111111111", "*", "*", ""));
+
+        assertEquals(Arrays.asList("1111111111"), RecipientListItem.match(rules, "12345", "Hello there"));
+    }
+
+    @Test
+    public void match_splitsOffRecipientsOfDigestRules() {
+        ArrayList<RecipientListItem> rules = new ArrayList<>();
+        rules.add(new RecipientListItem("1111111111, 2222222222", "*", "alert", ""));
+        rules.get(0).digestWindowSeconds = 600;
+        rules.add(new RecipientListItem("2222222222", "*", "cpu", ""));
+        rules.add(new RecipientListItem("3333333333", "*", "alert", ""));
+        rules.get(2).digestMaxMessages = 20;
+
+        LinkedHashMap<String, DigestPolicy> digests = new LinkedHashMap<>();
+        ArrayList<String> immediate = RecipientListItem.match(RuleSet.compile(rules), "ALERTS", "Alert: CPU high", digests);
+
+        // An immediate rule wins over a digest rule for the same recipient
+        assertEquals(Arrays.asList("2222222222"), immediate);
+        assertEquals(Arrays.asList("1111111111", "3333333333"), new ArrayList<>(digests.keySet()));
+        assertEquals(DigestPolicy.of(600, 0), digests.get("1111111111"));
+        assertEquals(DigestPolicy.DEFAULT_WINDOW_SECONDS, digests.get("3333333333").windowSeconds);
+
+        // Without a map every recipient is forwarded immediately
+        assertEquals(
+                Arrays.asList("1111111111", "2222222222", "3333333333"),
+                RecipientListItem.match(rules, "ALERTS", "Alert: CPU high")
+        );
+    }
+
+    @Test
+    public void match_stopRuleSkipsLaterRulesInEitherOrder() {
+        ArrayList<RecipientListItem> rules = new ArrayList<>();
+        rules.add(new RecipientListItem("1111111111", "*", "otp", ""));
+        rules.add(new RecipientListItem("2222222222", "vm-sbiinb", "", ""));
+        rules.add(new RecipientListItem("3333333333", "*", "otp", ""));
+        rules.add(new RecipientListItem("4444444444", "*", "", "", "otp AND /\\d{6}/"));
+        rules.get(1).stopProcessing = true;
+        rules.get(3).stopProcessing = true;
+        for (int i = 0; i < rules.size(); i++) rules.get(i).id = i + 1;
+
+        RuleStats stats = new RuleStats();
+        RuleSet list = RuleSet.compile(rules, RuleSet.DEFAULT_FOLDING, 0, stats, RuleSet.Order.LIST);
+        RuleSet adaptive = RuleSet.compile(rules, RuleSet.DEFAULT_FOLDING, 0, new RuleStats(), RuleSet.Order.ADAPTIVE);
+
+        // Enough messages for the adaptive order to put the busier stop rule #4 first
+        for (int n = 0; n < 2048; n++) {
+            for (String sender : SENDERS) {
+                for (String body : BODIES) {
+                    assertEquals(
+                            sender + " / " + body,
+                            RecipientListItem.match(list, sender, body),
+                            RecipientListItem.match(adaptive, sender, body)
+                    );
+                }
+            }
+        }
+
+        assertEquals(Arrays.asList("1111111111", "2222222222"), RecipientListItem.match(list, "VM-SBIINB", "OTP 482913"));
+        assertEquals(Arrays.asList("1111111111", "3333333333", "4444444444"), RecipientListItem.match(list, "JX-AIRTEL", "OTP 482913"));
+        assertEquals(2048 * SENDERS.length * BODIES.length + 2, stats.getMessages());
+    }
+
+    @Test
+    public void match_expandsGroupsAndUnitesRecipientsOnce() {
+        ArrayList<RecipientGroup> groups = RecipientGroup.parse(
+                "family: +919876543210, +91 98123 45678\n"
+                + "@ops: https://hooks.example.com/sms, +919812345678\n");
+        ArrayList<RecipientListItem> rules = new ArrayList<>();
+        rules.add(new RecipientListItem("@family, 1111111111", "*", "otp", ""));
+        rules.add(new RecipientListItem("@OPS, @missing", "*", "alert", ""));
+        rules.add(new RecipientListItem("+91-98765-43210, @family", "*", "", ""));
+
+        RuleSet compiled = RuleSet.compile(rules, groups, RuleSet.DEFAULT_FOLDING, 0, new RuleStats(), RuleSet.Order.LIST);
+
+        // "+91 98123 45678" and "+919812345678" are one recipient, spelled as it first appears
+        assertEquals(
+                Arrays.asList("+919876543210", "+91 98123 45678", "1111111111", "https://hooks.example.com/sms"),
+                RecipientListItem.match(compiled, "VM-ALERTS", "OTP alert")
+        );
+        // The sender is left out however its number is written
+        assertEquals(
+                Arrays.asList("+91 98123 45678"),
+                RecipientListItem.match(compiled, "+91 (98765) 43210", "hello")
+        );
+    }
+
+    @Test
+    public void ruleStats_countHitsAndBlocksAndSurviveEncoding() throws IOException {
+        ArrayList<RecipientListItem> rules = new ArrayList<>();
+        rules.add(new RecipientListItem("1111111111", "*", "otp", "jio"));
+        rules.add(new RecipientListItem("2222222222", "*", "", "", "recharge OR bill"));
+        rules.get(0).id = 10;
+        rules.get(1).id = 20;
+
+        RuleStats stats = new RuleStats();
+        RuleSet compiled = RuleSet.compile(rules, RuleSet.DEFAULT_FOLDING, 0, stats, RuleSet.Order.LIST);
+        RecipientListItem.match(compiled, "VM-SBIINB", "Your OTP is 482913");
+        RecipientListItem.match(compiled, "JIO", "Your OTP is 482913");
+        RecipientListItem.match(compiled, "JX-AIRTEL", "Airtel: your bill of Rs 499 is due");
+
+        // Compiling again keeps the counters of the same ids
+        compiled = RuleSet.compile(rules, RuleSet.DEFAULT_FOLDING, 0, stats, RuleSet.Order.LIST);
+        RecipientListItem.match(compiled, "AD-JIOINF", "Recharge now");
+
+        RuleStats decoded = RuleStats.decode(ByteBuffer.wrap(stats.encode()));
+        assertEquals(4, decoded.getMessages());
+        assertEquals(1, decoded.getHits(10));
+        assertEquals(1, decoded.getBlocks(10));
+        assertEquals(2, decoded.getHits(20));
+        assertEquals(0, decoded.getBlocks(20));
+        assertTrue(decoded.describe(rules, System.currentTimeMillis()).contains("#2"));
+
+        stats.retain(rules.subList(1, 2));
+        assertEquals(0, stats.getHits(10));
+        assertEquals(2, stats.getHits(20));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Legacy evaluation, as SMSReceiver.onReceive did it before rules were compiled
+    // ---------------------------------------------------------------------------------------------
+
+    private static Set<String> legacyMatch(ArrayList<RecipientListItem> rules, String sender, String body) {
+        String bodyLower = body.toLowerCase(Locale.US);
+        String senderLower = sender.toLowerCase(Locale.US);
+        Set<String> finalRecipients = new HashSet<>();
+
+        for (RecipientListItem rule : rules) {
+            if (rule.blacklist != null && !rule.blacklist.trim().isEmpty()) {
+                boolean blocked = false;
+                for (String b : rule.blacklist.split(",")) {
+                    if (!b.trim().isEmpty() && senderLower.contains(b.trim().toLowerCase(Locale.US))) {
+                        blocked = true;
+                        break;
+                    }
+                }
+                if (blocked) continue;
+            }
+
+            ArrayList<String> matchedRecipients = legacyCriteriaMatch(rule, sender, body);
+            if (matchedRecipients.isEmpty()) continue;
+
+            boolean keywordMatched = false;
+            if (rule.keywords == null || rule.keywords.trim().isEmpty()) {
+                keywordMatched = true;
+            } else {
+                for (String kw : rule.keywords.split(",")) {
+                    if (!kw.trim().isEmpty() && bodyLower.contains(kw.trim().toLowerCase(Locale.US))) {
+                        keywordMatched = true;
+                        break;
+                    }
+                }
+            }
+            if (!keywordMatched) continue;
+
+            finalRecipients.addAll(matchedRecipients);
+        }
+        return finalRecipients;
+    }
+
+    private static ArrayList<String> legacyCriteriaMatch(RecipientListItem item, String sender, String message) {
+        ArrayList<String> allRecipients = new ArrayList<>();
+        String normSender = legacyNormalize(sender);
+        String normMessage = legacyNormalize(message);
+
+        for (String bl : legacySplit(item.blacklist)) {
+            if (!bl.isEmpty() && normSender.contains(legacyNormalize(bl))) return allRecipients;
+        }
+
+        String[] senderWhitelist = legacySplit(item.sender);
+        boolean senderMatched = senderWhitelist.length == 0;
+        for (String wl : senderWhitelist) {
+            wl = legacyNormalize(wl);
+            if (wl.equals("*") || normSender.contains(wl)) {
+                senderMatched = true;
+                break;
+            }
+        }
+        if (!senderMatched) return allRecipients;
+
+        String[] keywordList = legacySplit(item.keywords);
+        boolean keywordMatched = keywordList.length == 0;
+        for (String kw : keywordList) {
+            kw = legacyNormalize(kw);
+            if (kw.equals("*") || normMessage.contains(kw)) {
+                keywordMatched = true;
+                break;
+            }
+        }
+        if (!keywordMatched) return allRecipients;
+
+        for (String rec : legacySplit(item.recipient)) {
+            if (!rec.trim().isEmpty()) allRecipients.add(rec.trim());
+        }
+
+        HashSet<String> unique = new HashSet<>(allRecipients);
+        unique.remove(sender.trim());
+        return new ArrayList<>(unique);
+    }
+
+    private static String[] legacySplit(String value) {
+        if (value == null || value.trim().isEmpty()) return new String[0];
+        return value.split("\\s*,\\s*");
+    }
+
+    private static String legacyNormalize(String s) {
+        return s == null ? "" : s.trim().toLowerCase();
+    }
+
+    private static String pick(Random random, String[] fragments, int max) {
+        StringBuilder sb = new StringBuilder();
+        int n = 1 + random.nextInt(max);
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(fragments[random.nextInt(fragments.length)]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.forwarding.data_model;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class RuleCodecTest {
+
+    @Test
+    public void decode_returnsWhatWasEncoded() throws IOException {
+        ArrayList<RecipientListItem> items = new ArrayList<>();
+        items.add(new RecipientListItem("1111111111, 2222222222", "*", "otp, verification code", ""));
+        items.add(new RecipientListItem("+919876543210", "sbi", "डेबिट, ओटीपी", "jio"));
+        items.add(new RecipientListItem(null, null, null, null));
+        items.add(new RecipientListItem("4444444444", "*", "", "", "otp AND NOT /promo\\d+/"));
+        items.get(3).digestWindowSeconds = 600;
+        items.get(3).digestMaxMessages = 50;
+        items.get(1).simSlot = 2;
+        items.get(2).id = 7;
+        items.get(2).stopProcessing = true;
+
+        ArrayList<RecipientListItem> decoded = RuleCodec.decode(ByteBuffer.wrap(RuleCodec.encode(items)));
+
+        assertEquals(RecipientListItem.toJson(items), RecipientListItem.toJson(decoded));
+    }
+
+    @Test
+    public void decodeGroups_returnsWhatWasEncoded() throws IOException {
+        ArrayList<RecipientGroup> groups = RecipientGroup.parse(
+                "family: +919876543210, mailto:me@example.com\n\n@ops : https://user:pw@hooks.example.com/x\nempty:");
+
+        ArrayList<RecipientGroup> decoded = RuleCodec.decodeGroups(ByteBuffer.wrap(RuleCodec.encodeGroups(groups)));
+
+        assertEquals(3, decoded.size());
+        assertEquals(RecipientGroup.format(groups), RecipientGroup.format(decoded));
+        assertEquals("ops: https://user:pw@hooks.example.com/x", RecipientGroup.format(decoded.subList(1, 2)));
+    }
+
+    @Test
+    public void decode_readsFromDirectBuffers() throws IOException {
+        ArrayList<RecipientListItem> items = new ArrayList<>();
+        items.add(new RecipientListItem("1111111111", "vm-sbiinb", "a much longer keyword list than the scratch buffer, "
+                + "a much longer keyword list than the scratch buffer, a much longer keyword list than the scratch buffer, "
+                + "a much longer keyword list than the scratch buffer, a much longer keyword list than the scratch buffer", ""));
+
+        byte[] encoded = RuleCodec.encode(items);
+        ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length);
+        direct.put(encoded).flip();
+
+        assertEquals(RecipientListItem.toJson(items), RecipientListItem.toJson(RuleCodec.decode(direct)));
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsTruncatedData() throws IOException {
+        ArrayList<RecipientListItem> items = new ArrayList<>();
+        items.add(new RecipientListItem("1111111111", "*", "otp", ""));
+
+        byte[] encoded = RuleCodec.encode(items);
+        RuleCodec.decode(ByteBuffer.wrap(encoded, 0, encoded.length - 2));
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsUnknownVersion() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(RuleCodec.encode(new ArrayList<RecipientListItem>()));
+        buffer.putInt(4, RuleCodec.VERSION + 1);
+        RuleCodec.decode(buffer);
+    }
+
+    @Test
+    public void decode_readsVersion1Files() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.putInt(RuleCodec.MAGIC).putInt(1).putInt(1);
+        for (String value : new String[] { "1111111111", "*", "otp", "" }) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length).put(bytes);
+        }
+        buffer.flip();
+
+        ArrayList<RecipientListItem> items = RuleCodec.decode(buffer);
+
+        assertEquals(1, items.size());
+        assertEquals("otp", items.get(0).keywords);
+        assertNull(items.get(0).expression);
+    }
+
+    @Test
+    public void applyChanges_replaysPutsAndRemovesUpToATornRecord() {
+        RecipientListItem first = new RecipientListItem("1111111111", "*", "otp", "");
+        first.id = 1;
+        RecipientListItem second = new RecipientListItem("2222222222", "*", "bank", "");
+        second.id = 2;
+        RecipientListItem edited = new RecipientListItem(first);
+        edited.keywords = "otp, pin";
+
+        ByteBuffer log = ByteBuffer.allocate(1024);
+        log.put(RuleCodec.encodePut(first));
+        log.put(RuleCodec.encodePut(second));
+        log.put(RuleCodec.encodePut(edited));
+        log.put(RuleCodec.encodeRemove(2));
+        byte[] torn = RuleCodec.encodeRemove(1);
+        log.put(torn, 0, torn.length - 3);
+        log.flip();
+
+        ArrayList<RecipientListItem> items = new ArrayList<>();
+        assertEquals(4, RuleCodec.applyChanges(log, items));
+
+        assertEquals(1, items.size());
+        assertEquals(1, items.get(0).id);
+        assertEquals("otp, pin", items.get(0).keywords);
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.forwarding.data_model;
+
+import com.example.forwarding.metrics.Metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RuleExpressionTest {
+
+    @Test
+    public void expression_combinesTermsWithPrecedence() {
+        String expression = "otp AND (debited OR credited) AND NOT promo";
+
+        assertTrue(fires(expression, "OTP 1234: INR 500 debited"));
+        assertTrue(fires(expression, "otp for amount credited"));
+        assertFalse(fires(expression, "OTP 1234"));
+        assertFalse(fires(expression, "OTP: debited, PROMO inside"));
+
+        // NOT binds tighter than AND, AND tighter than OR
+        assertTrue(fires("a OR b AND c", "only a"));
+        assertFalse(fires("NOT a b", "a b"));
+    }
+
+    @Test
+    public void expression_supportsPhrasesImplicitAndAndExcludes() {
+        String expression = "\"verification code\" -promo -\"cash back\"";
+
+        assertTrue(fires(expression, "Your Verification Code is 42"));
+        assertFalse(fires(expression, "verification code for cash back"));
+        assertFalse(fires(expression, "code verification"));
+        // Lower-case operators are ordinary words
+        assertTrue(fires("bread and butter", "butter, bread and jam"));
+    }
+
+    @Test
+    public void expression_regexIsCaseInsensitive() {
+        assertTrue(fires("/\\b\\d{6}\\b/ | \"one time\"", "Use 482913 to login"));
+        assertTrue(fires("/Rs\\.? ?\\d+/", "debited RS 499"));
+        assertFalse(fires("/\\b\\d{6}\\b/", "Use 48291 to login"));
+    }
+
+    @Test
+    public void expression_catastrophicBacktrackingIsCutShort() {
+        long aborted = Metrics.get(Metrics.Counter.REGEX_ABORTED);
+        String body = String.join("", Collections.nCopies(40, "a")) + "!";
+
+        long start = System.nanoTime();
+        assertFalse(fires("/(.*a){12}x/", body));
+        assertTrue(System.nanoTime() - start < 2_000_000_000L);
+        assertEquals(aborted + 1, Metrics.get(Metrics.Counter.REGEX_ABORTED));
+    }
+
+    @Test
+    public void validate_explainsMalformedExpressions() {
+        assertNull(RuleExpression.validate("otp AND (a OR /b+/)"));
+        assertNotNull(RuleExpression.validate("otp AND (a OR b"));
+        assertNotNull(RuleExpression.validate("otp AND"));
+        assertNotNull(RuleExpression.validate("/[a-/"));
+        assertNotNull(RuleExpression.validate("\"unclosed"));
+    }
+
+    @Test
+    public void invalidExpression_onlyDisablesItsOwnRule() {
+        ArrayList<RecipientListItem> items = new ArrayList<>();
+        items.add(new RecipientListItem("1111111111", "*", "", "", "otp AND ("));
+        items.add(new RecipientListItem("2222222222", "*", "otp", ""));
+
+        assertEquals(Arrays.asList("2222222222"), RecipientListItem.match(RuleSet.compile(items), "VM-BANK", "otp 1"));
+    }
+
+    private static boolean fires(String expression, String body) {
+        List<RecipientListItem> items = new ArrayList<>();
+        items.add(new RecipientListItem("1111111111", "*", "ignored keyword", "", expression));
+        return !RecipientListItem.match(RuleSet.compile(items), "VM-BANK", body).isEmpty();
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.forwarding.data_model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RuleIndexTest {
+
+    private static ArrayList<RecipientListItem> rules() {
+        return new ArrayList<>(Arrays.asList(
+                new RecipientListItem("+919876543210", "SBI, HDFC", "OTP, code", ""),
+                new RecipientListItem("mailto:ops@example.com", "*", "Outage", "test"),
+                new RecipientListItem("@family", "AMAZON", "delivered", "")));
+    }
+
+    @Test
+    public void search_matchesEveryWordInAnyFieldIgnoringCase() {
+        ArrayList<RecipientListItem> items = rules();
+        RuleIndex index = new RuleIndex(items, RuleSet.DEFAULT_FOLDING);
+
+        assertEquals(Arrays.asList(items.get(0)), index.search("hdfc"));
+        assertEquals(Arrays.asList(items.get(1)), index.search("OPS@EXAMPLE"));
+        assertEquals(Arrays.asList(items.get(2)), index.search("amazon deliv"));
+        assertEquals(Arrays.asList(items.get(0)), index.search("9876 otp"));
+        assertTrue(index.search("amazon otp").isEmpty());
+        assertTrue(index.search("nothing").isEmpty());
+    }
+
+    @Test
+    public void search_shortAndBlankQueries() {
+        ArrayList<RecipientListItem> items = rules();
+        RuleIndex index = new RuleIndex(items, RuleSet.DEFAULT_FOLDING);
+
+        // Below three characters there is no trigram to narrow by; every rule is scanned
+        assertEquals(Arrays.asList(items.get(0), items.get(1)), index.search("co"));
+        assertEquals(items, index.search(""));
+        assertEquals(items, index.search("   "));
+        assertEquals(items, index.search(null));
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.forwarding.event;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class DigestFormatterTest {
+
+    private static final DigestFormatter FORMATTER = new DigestFormatter("Digest: %1$d messages", "+%1$d more");
+
+    @Test
+    public void format_countsSendersAndListsFirstBodies() {
+        ArrayList<IncomingMessage> messages = new ArrayList<>();
+        messages.add(new IncomingMessage("VM-SBIINB", "OTP 1234\nvalid for   5 minutes", 0));
+        messages.add(new IncomingMessage("ALERTS", "CPU high on db-1", 1));
+        messages.add(new IncomingMessage("ALERTS", "CPU high on db-2", 2));
+        messages.add(new IncomingMessage("ALERTS", "CPU high on db-3", 3));
+        messages.add(new IncomingMessage("VM-SBIINB", "OTP 5678", 4));
+
+        assertEquals("Digest: 5 messages\n"
+                        + "ALERTS x3, VM-SBIINB x2\n"
+                        + "- VM-SBIINB: OTP 1234 valid for 5 minutes\n"
+                        + "- ALERTS: CPU high on db-1\n"
+                        + "- ALERTS: CPU high on db-2\n"
+                        + "+2 more",
+                FORMATTER.format(messages));
+    }
+
+    @Test
+    public void format_staysWithinLengthForAnyStorm() {
+        ArrayList<IncomingMessage> messages = new ArrayList<>();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 40; i++) body.append("overflow ");
+        for (int i = 0; i < 5000; i++) {
+            messages.add(new IncomingMessage("SENDER-" + (i % 50), body.toString(), i));
+        }
+
+        String digest = FORMATTER.format(messages);
+
+        assertEquals(3, LoopbackTransport.divide(digest).size());
+        assertTrue(digest.startsWith("Digest: 5000 messages\n"));
+        assertTrue(digest.contains("+45 more"));
+        assertTrue(digest.contains("overflow over..."));
+        assertTrue(digest.endsWith("\n+4997 more"));
+    }
+
+    @Test
+    public void format_measuresUcs2DigestsInUcs2Segments() {
+        ArrayList<IncomingMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            messages.add(new IncomingMessage("VM-BANK" + (i % 7), "प्रिय ग्राहक, आपका ओटीपी " + i + " है। इसे किसी के साथ साझा न करें।", i));
+        }
+
+        String digest = FORMATTER.format(messages);
+
+        assertFalse(SmsEncoding.isGsm(digest));
+        assertTrue(digest.length() <= 3 * SmsEncoding.UCS2_PART);
+        assertEquals(3, LoopbackTransport.divide(digest).size());
+        assertTrue(digest.endsWith(" more"));
+    }
+
+    @Test
+    public void format_usesPlainDigitsInAnyLocale() {
+        Locale saved = Locale.getDefault();
+        Locale.setDefault(new Locale("ar", "EG"));
+        try {
+            ArrayList<IncomingMessage> messages = new ArrayList<>();
+            for (int i = 0; i < 12; i++) messages.add(new IncomingMessage("ALERTS", "CPU high", i));
+
+            String digest = FORMATTER.format(messages);
+
+            assertTrue(digest.startsWith("Digest: 12 messages\n"));
+            assertTrue(SmsEncoding.isGsm(digest));
+        } finally {
+            Locale.setDefault(saved);
+        }
+    }
+}
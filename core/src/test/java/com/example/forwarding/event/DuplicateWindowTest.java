@@ -0,0 +1,87 @@
+package com.example.forwarding.event;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+public class DuplicateWindowTest {
+
+    private static final long WINDOW = 60_000L;
+
+    @Test
+    public void checkAndRecord_suppressesRepeatsInsideTheWindowOnly() {
+        DuplicateWindow window = new DuplicateWindow();
+        long fingerprint = DuplicateWindow.mix(DuplicateWindow.fingerprint("VM-SBIINB", "OTP 1234"), "1111111111");
+
+        assertTrue(window.checkAndRecord(fingerprint, 0, WINDOW));
+        assertFalse(window.checkAndRecord(fingerprint, WINDOW - 1, WINDOW));
+        assertTrue(window.checkAndRecord(fingerprint, 2 * WINDOW, WINDOW));
+    }
+
+    @Test
+    public void forward_doesNotSuppressARedeliveryTheFullOutboxRefused() {
+        DuplicateWindow window = new DuplicateWindow();
+        IncomingMessage message = new IncomingMessage("VM-SBIINB", "OTP 1234", 0);
+        List<String> recipients = Arrays.asList("1111111111", "2222222222");
+
+        // An outbox with room for two jobs, already full
+        ArrayBlockingQueue<String> outbox = new ArrayBlockingQueue<>(2);
+        outbox.add("queued earlier");
+        outbox.add("queued earlier");
+        Predicate<ArrayList<String>> enqueue = fresh -> outbox.remainingCapacity() >= fresh.size() && outbox.addAll(fresh);
+
+        assertTrue(window.forward(message, recipients, 0, WINDOW, enqueue).isEmpty());
+
+        // Redelivered after the outbox drained: forwarded, not taken for a duplicate
+        outbox.clear();
+        assertEquals(recipients, window.forward(message, recipients, 1_000, WINDOW, enqueue));
+
+        // Once queued it is a duplicate
+        outbox.clear();
+        assertTrue(window.forward(message, recipients, 2_000, WINDOW, enqueue).isEmpty());
+        assertTrue(outbox.isEmpty());
+    }
+
+    @Test
+    public void fingerprint_separatesFieldsAndRecipients() {
+        long base = DuplicateWindow.fingerprint("VM-SBIINB", "OTP 1234");
+
+        assertNotEquals(base, DuplicateWindow.fingerprint("VM-SBIIN", "BOTP 1234"));
+        assertNotEquals(DuplicateWindow.mix(base, "1111111111"), DuplicateWindow.mix(base, "2222222222"));
+    }
+
+    @Test
+    public void seen_isBoundedToMaxEntries() {
+        DuplicateWindow window = new DuplicateWindow();
+        for (long i = 0; i < DuplicateWindow.MAX_ENTRIES + 100; i++) {
+            window.checkAndRecord(i, 0, WINDOW);
+        }
+
+        assertEquals(DuplicateWindow.MAX_ENTRIES, window.size());
+        // the oldest fingerprints were evicted
+        assertTrue(window.checkAndRecord(0, 1, WINDOW));
+    }
+
+    @Test
+    public void decode_restoresWhatWasEncoded() throws IOException {
+        DuplicateWindow window = new DuplicateWindow();
+        window.checkAndRecord(42, 1_000, WINDOW);
+
+        DuplicateWindow restored = new DuplicateWindow();
+        restored.decode(ByteBuffer.wrap(window.encode()));
+
+        assertFalse(restored.checkAndRecord(42, 2_000, WINDOW));
+    }
+
+    private static void assertNotEquals(long unexpected, long actual) {
+        assertTrue(unexpected != actual);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.forwarding.event;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LoopbackTransportTest {
+
+    @Test
+    public void divide_followsGsmSegmentLimits() {
+        assertEquals(1, LoopbackTransport.divide(repeat('a', 160)).size());
+
+        ArrayList<String> parts = LoopbackTransport.divide(repeat('a', 161));
+        assertEquals(2, parts.size());
+        assertEquals(153, parts.get(0).length());
+
+        // Extension characters take two septets
+        assertEquals(2, LoopbackTransport.divide(repeat('€', 81)).size());
+    }
+
+    @Test
+    public void divide_fallsBackToUcs2() {
+        assertEquals(1, LoopbackTransport.divide("ओटीपी " + repeat('a', 64)).size());
+
+        ArrayList<String> parts = LoopbackTransport.divide("ओटीपी " + repeat('a', 65));
+        assertEquals(2, parts.size());
+        assertEquals(67, parts.get(0).length());
+    }
+
+    @Test
+    public void divide_neverSplitsSurrogatePairs() {
+        String text = repeat('a', 66) + "😀" + repeat('a', 10);
+        for (String part : LoopbackTransport.divide(text)) {
+            assertFalse(Character.isHighSurrogate(part.charAt(part.length() - 1)));
+        }
+    }
+
+    @Test
+    public void send_reportsEveryPartSentThenDelivered() {
+        List<String> reports = Collections.synchronizedList(new ArrayList<>());
+        LoopbackTransport transport = new LoopbackTransport(new SmsTransport.Callbacks() {
+            @Override
+            public void onPartSent(long jobId, int attempt, int part, int resultCode) {
+                reports.add("sent " + jobId + "/" + attempt + "/" + part + " " + resultCode);
+            }
+
+            @Override
+            public void onPartDelivered(long jobId, int attempt, int part) {
+                reports.add("delivered " + jobId + "/" + attempt + "/" + part);
+            }
+        }, Runnable::run);
+
+        transport.send(7, 2, "+911234567890", LoopbackTransport.divide(repeat('a', 200)));
+
+        assertEquals(List.of("sent 7/2/0 -1", "sent 7/2/1 -1", "delivered 7/2/0", "delivered 7/2/1"), reports);
+        assertEquals(1, transport.getMessagesSent());
+        assertEquals(2, transport.getPartsSent());
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.forwarding.event;
+
+import com.example.forwarding.data_model.DigestPolicy;
+import com.example.forwarding.data_model.RecipientListItem;
+import com.example.forwarding.data_model.RuleSet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MatchStageTest {
+
+    private static final long WINDOW = 60_000L;
+
+    @Test
+    public void process_doesNotSuppressADigestEntryTheFullBufferRefused() {
+        ArrayList<RecipientListItem> items = new ArrayList<>();
+        items.add(new RecipientListItem("1111111111", "*", "alert", ""));
+        items.get(0).digestWindowSeconds = 600;
+        items.add(new RecipientListItem("2222222222", "*", "alert", ""));
+        RuleSet rules = RuleSet.compile(items);
+        IncomingMessage message = new IncomingMessage("ALERTS", "Alert: disk full", 0);
+
+        Outbound outbound = new Outbound();
+        MatchStage stage = new MatchStage(new DuplicateWindow(), outbound);
+
+        outbound.full = true;
+        assertEquals(0, stage.process(rules, message, WINDOW, 0));
+
+        // Redelivered once there is room: buffered and forwarded, not taken for duplicates
+        outbound.full = false;
+        assertEquals(2, stage.process(rules, message, WINDOW, 1_000));
+        assertEquals(Arrays.asList("1111111111"), outbound.buffered);
+        assertEquals(Arrays.asList("2222222222"), outbound.enqueued);
+
+        // Once taken they are duplicates
+        assertEquals(0, stage.process(rules, message, WINDOW, 2_000));
+        assertEquals(1, outbound.buffered.size());
+        assertEquals(1, outbound.enqueued.size());
+    }
+
+    private static final class Outbound implements MatchStage.Outbound {
+        boolean full;
+        final ArrayList<String> enqueued = new ArrayList<>();
+        final ArrayList<String> buffered = new ArrayList<>();
+
+        @Override
+        public boolean enqueue(IncomingMessage message, ArrayList<String> recipients) {
+            return !full && enqueued.addAll(recipients);
+        }
+
+        @Override
+        public boolean buffer(IncomingMessage message, Map<String, DigestPolicy> digests) {
+            return !full && buffered.addAll(digests.keySet());
+        }
+    }
+}
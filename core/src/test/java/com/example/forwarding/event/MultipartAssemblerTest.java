@@ -0,0 +1,140 @@
+package com.example.forwarding.event;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class MultipartAssemblerTest {
+
+    private static final long TIMEOUT = 60_000L;
+
+    @Test
+    public void add_handsOutMessageOnceWhenAllPartsArrived() {
+        MultipartAssembler assembler = new MultipartAssembler(8, TIMEOUT);
+        ArrayList<IncomingMessage> out = new ArrayList<>();
+
+        // Out of order, interleaved with another sender using the same reference
+        assembler.add("VM-SBIINB", 42, 3, 2, "is 4829", 0, out);
+        assembler.add("AD-JIOINF", 42, 2, 1, "Recharge ", 1, out);
+        assembler.add("VM-SBIINB", 42, 3, 1, "Your OTP ", 2, out);
+        assembler.add("VM-SBIINB", 42, 3, 2, "is 4829", 3, out); // repeated part
+        assertTrue(out.isEmpty());
+
+        assembler.add("VM-SBIINB", 42, 3, 3, "13.", 4, out);
+        assertEquals(1, out.size());
+        assertEquals("VM-SBIINB", out.get(0).sender);
+        assertEquals("Your OTP is 482913.", out.get(0).body);
+        assertEquals(0, out.get(0).receivedAtMillis);
+
+        // A late copy of a part of the finished message is not a new message
+        assembler.add("VM-SBIINB", 42, 3, 1, "Your OTP ", 5, out);
+        assertEquals(1, out.size());
+        assertEquals(1, assembler.getPendingCount());
+    }
+
+    @Test
+    public void expire_handsOutIncompleteMessagesWithGaps() {
+        MultipartAssembler assembler = new MultipartAssembler(8, TIMEOUT);
+        ArrayList<IncomingMessage> out = new ArrayList<>();
+
+        assembler.add("ALERTS", 7, 3, 1, "disk ", 0, out);
+        assembler.add("ALERTS", 7, 3, 3, " full", 10, out);
+        assembler.add("ALERTS", 8, 2, 1, "cpu ", 30_000, out);
+
+        assembler.expire(TIMEOUT - 1, out);
+        assertTrue(out.isEmpty());
+        assertEquals(TIMEOUT, assembler.nextExpiryAt());
+
+        assembler.expire(TIMEOUT, out);
+        assertEquals(1, out.size());
+        assertEquals("disk " + MultipartAssembler.GAP + " full", out.get(0).body);
+        assertEquals(30_000 + TIMEOUT, assembler.nextExpiryAt());
+
+        // The missing part turning up after all does not forward the message again
+        assembler.add("ALERTS", 7, 3, 2, "on db-1", TIMEOUT + 1, out);
+        assertEquals(1, out.size());
+    }
+
+    @Test
+    public void add_evictsOldestIncompleteMessageWhenFull() {
+        MultipartAssembler assembler = new MultipartAssembler(2, TIMEOUT);
+        ArrayList<IncomingMessage> out = new ArrayList<>();
+
+        assembler.add("A", 1, 2, 1, "a1", 0, out);
+        assembler.add("B", 1, 2, 1, "b1", 1, out);
+        assembler.add("C", 1, 2, 1, "c1", 2, out);
+
+        assertEquals(1, out.size());
+        assertEquals("A", out.get(0).sender);
+        assertEquals("a1" + MultipartAssembler.GAP, out.get(0).body);
+        assertEquals(2, assembler.getPendingCount());
+    }
+
+    @Test
+    public void listener_isToldWhenHeldPartsAreHandedOut() {
+        ArrayList<String> handedOut = new ArrayList<>();
+        MultipartAssembler assembler = new MultipartAssembler(8, TIMEOUT,
+                (sender, reference, count) -> handedOut.add(sender + "/" + reference + "/" + count));
+        ArrayList<IncomingMessage> out = new ArrayList<>();
+
+        // Restored parts keep their receive time, so they time out on the original schedule
+        assertTrue(assembler.add("ALERTS", 7, 2, 1, "disk ", 0, out));
+        assertTrue(assembler.isPending("ALERTS", 7, 2));
+        assertTrue(assembler.add("BANK", 3, 3, 1, "Your ", 10, out));
+        assertTrue(handedOut.isEmpty());
+
+        // The last part completes the message: not held, and the listener is told
+        assertFalse(assembler.add("ALERTS", 7, 2, 2, "full", 20, out));
+        assertFalse(assembler.isPending("ALERTS", 7, 2));
+        assertEquals("disk full", out.get(0).body);
+        assertEquals(1, handedOut.size());
+        assertEquals("ALERTS/7/2", handedOut.get(0));
+
+        assembler.expire(10 + TIMEOUT, out);
+        assertEquals(2, out.size());
+        assertEquals("BANK/3/3", handedOut.get(1));
+
+        // A late part of a handed-out message is neither held nor reported again
+        assertFalse(assembler.add("BANK", 3, 3, 2, "OTP ", 10 + TIMEOUT, out));
+        assertEquals(2, handedOut.size());
+    }
+
+    @Test
+    public void concatHeader_parsesEightAndSixteenBitReferences() {
+        ConcatHeader header = ConcatHeader.parse(deliverPdu(new byte[] { 0x05, 0x00, 0x03, (byte) 0xA7, 0x03, 0x02 }));
+        assertNotNull(header);
+        assertEquals(0xA7, header.reference);
+        assertEquals(3, header.count);
+        assertEquals(2, header.sequence);
+
+        header = ConcatHeader.parse(deliverPdu(new byte[] { 0x06, 0x08, 0x04, 0x12, 0x34, 0x02, 0x01 }));
+        assertNotNull(header);
+        assertEquals(0x1234, header.reference);
+        assertEquals(2, header.count);
+        assertEquals(1, header.sequence);
+
+        // Port addressing only, no concatenation element
+        assertNull(ConcatHeader.parse(deliverPdu(new byte[] { 0x04, 0x04, 0x02, 0x0B, (byte) 0x84 })));
+        // Sequence past the count is reserved
+        assertNull(ConcatHeader.parse(deliverPdu(new byte[] { 0x05, 0x00, 0x03, 0x01, 0x02, 0x03 })));
+        assertNull(ConcatHeader.parse(new byte[] { 0x00, 0x44, 0x0B }));
+    }
+
+    // SMS-DELIVER from +919876543210 with the given user data header and a short GSM 7-bit text
+    private static byte[] deliverPdu(byte[] userDataHeader) {
+        byte[] head = {
+                0x07, (byte) 0x91, 0x19, (byte) 0x89, 0x00, 0x00, 0x00, (byte) 0xF0, // SMSC +91980000000
+                0x44,                                                                 // SMS-DELIVER, UDHI
+                0x0C, (byte) 0x91, 0x19, (byte) 0x89, 0x67, 0x45, 0x23, 0x01,         // TP-OA
+                0x00, 0x00,                                                           // TP-PID, TP-DCS
+                0x62, 0x01, 0x01, 0x21, 0x43, 0x65, 0x00,                             // TP-SCTS
+                0x10,                                                                 // TP-UDL
+        };
+        byte[] pdu = new byte[head.length + userDataHeader.length + 4];
+        System.arraycopy(head, 0, pdu, 0, head.length);
+        System.arraycopy(userDataHeader, 0, pdu, head.length, userDataHeader.length);
+        return pdu;
+    }
+}
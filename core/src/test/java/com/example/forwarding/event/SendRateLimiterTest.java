@@ -0,0 +1,52 @@
+package com.example.forwarding.event;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SendRateLimiterTest {
+
+    private static final long MINUTE = 60_000L;
+
+    @Test
+    public void reserve_allowsBurstThenPacesAtRefillRate() {
+        SendRateLimiter limiter = new SendRateLimiter(3, 3 * MINUTE, 100, MINUTE);
+
+        assertEquals(0, limiter.reserve(1, "111", 1, 0));
+        assertEquals(0, limiter.reserve(1, "222", 1, 0));
+        assertEquals(0, limiter.reserve(1, "333", 1, 0));
+
+        // One token per minute once the burst is spent
+        assertEquals(MINUTE, limiter.reserve(1, "444", 1, 0));
+        assertEquals(0, limiter.reserve(1, "444", 1, MINUTE));
+    }
+
+    @Test
+    public void reserve_limitsEachDestinationSeparately() {
+        SendRateLimiter limiter = new SendRateLimiter(100, MINUTE, 1, MINUTE);
+
+        assertEquals(0, limiter.reserve(1, "111", 1, 0));
+        assertTrue(limiter.reserve(1, "111", 1, 0) > 0);
+        assertEquals(0, limiter.reserve(1, "222", 1, 0));
+    }
+
+    @Test
+    public void reserve_takesNothingWhenDeferred() {
+        SendRateLimiter limiter = new SendRateLimiter(2, MINUTE, 1, MINUTE);
+
+        assertEquals(0, limiter.reserve(1, "111", 1, 0));
+        assertTrue(limiter.reserve(1, "111", 1, 0) > 0);
+
+        // The deferred request above must not have used up the subscription's second token
+        assertEquals(0, limiter.reserve(1, "222", 1, 0));
+    }
+
+    @Test
+    public void reserve_delaysMessagesLongerThanTheBurstInsteadOfBlockingThem() {
+        SendRateLimiter limiter = new SendRateLimiter(2, MINUTE, 100, MINUTE);
+
+        assertEquals(0, limiter.reserve(1, "111", 5, 0));
+        assertTrue(limiter.reserve(1, "111", 1, 0) > 0);
+        assertEquals(0, limiter.reserve(1, "111", 1, 2 * MINUTE));
+    }
+}
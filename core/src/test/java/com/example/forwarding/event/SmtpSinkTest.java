@@ -0,0 +1,165 @@
+package com.example.forwarding.event;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SmtpSinkTest {
+
+    private ServerSocket server;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final List<String> commands = new ArrayList<>();
+    private final List<String> mails = new ArrayList<>();
+
+    // A stand-in server that accepts everything except RCPT to nobody@...
+    @Before
+    public void startServer() throws IOException {
+        server = new ServerSocket(0, 5, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(() -> {
+            while (!server.isClosed()) {
+                try (Socket socket = server.accept()) {
+                    connections.incrementAndGet();
+                    serve(socket);
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void deliver_sharesOneSessionAndOneTransactionPerMessage() {
+        SmtpSink sink = new SmtpSink(config(), "SMS from %1$s", "SMS digest");
+        WebhookSinkTest.Recorder recorder = new WebhookSinkTest.Recorder();
+
+        sink.deliver(Arrays.asList(
+                mail(1, 10, "mailto:ops@example.com"),
+                mail(2, 10, "mailto:nobody@example.com"),
+                mail(3, 11, "mailto:ops@example.com"),
+                mail(4, 11, "mailto:not an address")
+        ), recorder);
+        sink.deliver(Arrays.asList(mail(5, 12, "mailto:ops@example.com?subject=x")), recorder);
+        sink.close();
+
+        assertEquals(Arrays.asList(
+                "failed 4 553 permanent",
+                "failed 2 550 permanent",
+                "delivered 1",
+                "delivered 3",
+                "delivered 5"), recorder.results);
+        assertEquals(1, connections.get());
+        assertEquals(3, mails.size());
+        assertTrue(commands.contains("RSET"));
+
+        String mail = mails.get(0);
+        assertTrue(mail.contains("Subject: SMS from VM-SBIINB"));
+        String body = mail.substring(mail.indexOf("\n\n") + 2).replace("\n", "");
+        assertEquals("Your OTP is 1234", new String(Base64.getDecoder().decode(body), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void deliver_retriesWhenTheServerIsUnreachable() throws IOException {
+        WebhookSinkTest.Recorder recorder = new WebhookSinkTest.Recorder();
+
+        // Bound but never listening: connects are refused, and no other socket can take the port
+        try (Socket reserved = new Socket()) {
+            reserved.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            SmtpSink sink = new SmtpSink(
+                    new SmtpSink.Config("127.0.0.1", reserved.getLocalPort(), SmtpSink.Security.NONE, null, null,
+                            "phone@example.com"),
+                    "SMS from %1$s", "SMS digest");
+            sink.deliver(Arrays.asList(mail(1, 10, "mailto:ops@example.com")), recorder);
+        }
+
+        assertEquals(Arrays.asList("failed 1 " + Sink.ERROR_IO + " retry"), recorder.results);
+    }
+
+    @Test
+    public void encodeHeader_encodesNonAsciiAsShortWords() {
+        assertEquals("SMS from VM-SBIINB", SmtpSink.encodeHeader("SMS from VM-SBIINB"));
+
+        String encoded = SmtpSink.encodeHeader("SMS from " + "भारतीय स्टेट बैंक");
+        assertTrue(encoded.startsWith("=?UTF-8?B?"));
+        for (String line : encoded.split("\r\n")) {
+            assertTrue(line.trim().length() <= 75);
+        }
+    }
+
+    @Test
+    public void mailAddress_rejectsAddressesThatCouldInjectCommands() {
+        assertEquals("ops@example.com", Sink.mailAddress("MAILTO:ops@example.com?subject=x"));
+        assertNull(Sink.mailAddress("mailto:ops@example.com>\r\nRCPT TO:<x@y"));
+        assertNull(Sink.mailAddress("mailto:nobody"));
+        assertFalse(Sink.isWebhook("http://example.com/hook"));
+    }
+
+    private SmtpSink.Config config() {
+        return new SmtpSink.Config(
+                "127.0.0.1", server.getLocalPort(), SmtpSink.Security.NONE, null, null, "phone@example.com");
+    }
+
+    private static SinkMessage mail(long jobId, long messageId, String recipient) {
+        return new SinkMessage(jobId, 1, messageId, recipient, "VM-SBIINB", null, "Your OTP is 1234",
+                1_700_000_000_000L, false);
+    }
+
+    private void serve(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        OutputStream out = socket.getOutputStream();
+        reply(out, "220 stand-in ESMTP");
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            synchronized (commands) {
+                commands.add(line);
+            }
+            if (line.startsWith("EHLO")) {
+                reply(out, "250-stand-in\r\n250 8BITMIME");
+            } else if (line.startsWith("RCPT TO:<nobody@")) {
+                reply(out, "550 no such user");
+            } else if (line.equals("DATA")) {
+                reply(out, "354 go ahead");
+                StringBuilder mail = new StringBuilder();
+                while (!(line = in.readLine()).equals(".")) mail.append(line).append('\n');
+                synchronized (mails) {
+                    mails.add(mail.toString());
+                }
+                reply(out, "250 queued");
+            } else if (line.equals("QUIT")) {
+                reply(out, "221 bye");
+                return;
+            } else {
+                reply(out, "250 ok");
+            }
+        }
+    }
+
+    private static void reply(OutputStream out, String reply) throws IOException {
+        out.write((reply + "\r\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
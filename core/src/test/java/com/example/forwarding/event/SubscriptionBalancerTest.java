@@ -0,0 +1,61 @@
+package com.example.forwarding.event;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SubscriptionBalancerTest {
+
+    private static final int[] SIMS = { 3, 7 };
+
+    @Test
+    public void roundRobin_alternatesBetweenSubscriptions() {
+        SubscriptionBalancer balancer = new SubscriptionBalancer(SubscriptionBalancer.Strategy.ROUND_ROBIN);
+
+        assertArrayEquals(new int[] { 3, 7 }, balancer.order(SIMS, -1, 0));
+        assertArrayEquals(new int[] { 7, 3 }, balancer.order(SIMS, -1, 0));
+        assertArrayEquals(new int[] { 3, 7 }, balancer.order(SIMS, -1, 0));
+    }
+
+    @Test
+    public void leastThrottled_prefersSubscriptionThrottledLongestAgo() {
+        SubscriptionBalancer balancer = new SubscriptionBalancer(SubscriptionBalancer.Strategy.LEAST_THROTTLED);
+        balancer.onThrottled(3, 2_000);
+        balancer.onThrottled(7, 1_000);
+
+        assertArrayEquals(new int[] { 7, 3 }, balancer.order(SIMS, -1, 5_000));
+        assertArrayEquals(new int[] { 7, 3 }, balancer.order(SIMS, -1, 5_000));
+    }
+
+    @Test
+    public void repeatedFailures_drainSubscriptionUntilItSucceeds() {
+        SubscriptionBalancer balancer = new SubscriptionBalancer(SubscriptionBalancer.Strategy.ROUND_ROBIN);
+        for (int i = 0; i < SubscriptionBalancer.FAILURE_THRESHOLD; i++) {
+            assertTrue(balancer.isHealthy(3, 0));
+            balancer.onFailed(3, 0);
+        }
+
+        assertFalse(balancer.isHealthy(3, 0));
+        assertArrayEquals(new int[] { 7, 3 }, balancer.order(SIMS, -1, 0));
+        assertArrayEquals(new int[] { 7, 3 }, balancer.order(SIMS, -1, 0));
+
+        // Back after the drain; the next failure drains it again, for twice as long
+        long later = SubscriptionBalancer.DRAIN_BASE_MILLIS;
+        assertTrue(balancer.isHealthy(3, later));
+        balancer.onFailed(3, later);
+        assertFalse(balancer.isHealthy(3, later + 2 * SubscriptionBalancer.DRAIN_BASE_MILLIS - 1));
+
+        balancer.onSent(3);
+        assertTrue(balancer.isHealthy(3, later));
+    }
+
+    @Test
+    public void pinnedSubscription_isTheOnlyCandidate() {
+        SubscriptionBalancer balancer = new SubscriptionBalancer(SubscriptionBalancer.Strategy.ROUND_ROBIN);
+        for (int i = 0; i < SubscriptionBalancer.FAILURE_THRESHOLD; i++) balancer.onFailed(7, 0);
+
+        assertArrayEquals(new int[] { 7 }, balancer.order(SIMS, 7, 0));
+        // A pin to a SIM that is not active falls back to balancing
+        assertEquals(2, balancer.order(SIMS, 9, 0).length);
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.forwarding.event;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class WebhookSinkTest {
+
+    private HttpServer server;
+    private final List<String> bodies = new ArrayList<>();
+    private final List<Integer> clientPorts = new ArrayList<>();
+    private final ConcurrentLinkedQueue<Integer> statuses = new ConcurrentLinkedQueue<>();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/hook", exchange -> {
+            byte[] body = readAll(exchange.getRequestBody());
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                body = readAll(new GZIPInputStream(new ByteArrayInputStream(body)));
+            }
+            synchronized (bodies) {
+                bodies.add(new String(body, StandardCharsets.UTF_8));
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+            }
+            Integer status = statuses.poll();
+            exchange.sendResponseHeaders(status == null ? 204 : status, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void deliver_postsTheBatchInOneRequestOverAKeptConnection() throws IOException {
+        WebhookSink sink = new WebhookSink(url());
+        Recorder recorder = new Recorder();
+
+        sink.deliver(Arrays.asList(message(1, repeat("otp 1234 ", 100)), message(2, "second")), recorder);
+        sink.deliver(Arrays.asList(message(3, "third")), recorder);
+
+        assertEquals(Arrays.asList("delivered 1", "delivered 2", "delivered 3"), recorder.results);
+        assertEquals(2, bodies.size());
+        assertTrue(bodies.get(0).contains("\"id\":1") && bodies.get(0).contains("\"id\":2"));
+        assertTrue(bodies.get(0).contains("\"sender\":\"VM-SBIINB\""));
+        assertEquals("second request reused the connection", clientPorts.get(0), clientPorts.get(1));
+    }
+
+    @Test
+    public void deliver_retriesServerErrorsButNotRejections() throws IOException {
+        WebhookSink sink = new WebhookSink(url());
+        Recorder recorder = new Recorder();
+
+        statuses.add(503);
+        sink.deliver(Arrays.asList(message(1, "a")), recorder);
+        statuses.add(400);
+        sink.deliver(Arrays.asList(message(2, "b")), recorder);
+
+        assertEquals(Arrays.asList("failed 1 503 retry", "failed 2 400 permanent"), recorder.results);
+    }
+
+    @Test
+    public void encode_gzipsOnlyLargeBatches() throws IOException {
+        assertFalse(WebhookSink.encode(Arrays.asList(message(1, "short"))).gzipped);
+        assertTrue(WebhookSink.encode(Arrays.asList(message(1, repeat("x", WebhookSink.GZIP_MIN_BYTES)))).gzipped);
+    }
+
+    @Test
+    public void isUnsupported_refusesOtherSchemesButNotNumbersOrSinks() {
+        assertTrue(Sink.isUnsupported("http://example.com/hook"));
+        assertTrue(Sink.isUnsupported("ftp://example.com/sms"));
+        assertTrue(Sink.isUnsupported("tel:+919876543210"));
+        assertFalse(Sink.isUnsupported("HTTPS://example.com/hook"));
+        assertFalse(Sink.isUnsupported("mailto:ops@example.com"));
+        assertFalse(Sink.isUnsupported("+91 98765 43210"));
+        assertFalse(Sink.isUnsupported("@family"));
+
+        assertEquals("http://example.com/hook",
+                Sink.findUnsupported("9876543210, @ops,  http://example.com/hook , mailto:ops@example.com"));
+        assertNull(Sink.findUnsupported("9876543210, https://example.com/hook"));
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/hook";
+    }
+
+    static SinkMessage message(long jobId, String body) {
+        return new SinkMessage(jobId, 1, jobId, "https://example.com/hook", "VM-SBIINB", null, body, 1_700_000_000_000L, false);
+    }
+
+    static final class Recorder implements Sink.Callbacks {
+        final List<String> results = new ArrayList<>();
+
+        @Override
+        public void onDelivered(long jobId, int attempt) {
+            results.add("delivered " + jobId);
+        }
+
+        @Override
+        public void onFailed(long jobId, int attempt, int errorCode, boolean permanent) {
+            results.add("failed " + jobId + " " + errorCode + (permanent ? " permanent" : " retry"));
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) >= 0) out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) sb.append(s);
+        return sb.toString();
+    }
+}
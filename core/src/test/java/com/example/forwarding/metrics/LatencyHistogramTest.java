@@ -0,0 +1,44 @@
+package com.example.forwarding.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverEveryValueWithinPrecision() {
+        for (long value : new long[] { 0, 1, 7, 8, 9, 15, 16, 1_000, 123_456_789L, Long.MAX_VALUE / 3 }) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value >= LatencyHistogram.lowerBound(bucket));
+            assertTrue(value <= LatencyHistogram.upperBound(bucket));
+            assertTrue(LatencyHistogram.upperBound(bucket) - LatencyHistogram.lowerBound(bucket) <= value / 8);
+        }
+    }
+
+    @Test
+    public void percentiles_areReportedWithinOneBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500, histogram.getMean());
+        assertEquals(500_000, histogram.getPercentile(0.50), 500_000 / 8.0);
+        assertEquals(990_000, histogram.getPercentile(0.99), 990_000 / 8.0);
+        assertEquals(1_000_000, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+}